@@ -1,21 +1,15 @@
 package jp.co.tk;
 
-import jp.co.tk.domain.model.Seller;
 import jp.co.tk.domain.service.CsvService;
-import jp.co.tk.domain.service.YAService;
+import jp.co.tk.domain.service.ScrapingPipeline;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.modelmapper.ModelMapper;
 import org.springframework.boot.ApplicationArguments;
 import org.springframework.boot.ApplicationRunner;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 
-import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.concurrent.CompletableFuture;
 
 /**
  * Appの呼び出し基クラスです。
@@ -34,34 +28,15 @@ public class App implements ApplicationRunner {
         SpringApplication.run(App.class, args);
     }
 
-    /**
-     * ヤフオフからデータを取得するなどの処理を提供します。
-     */
-    private final YAService yaServ;
-
     /**
      * CSVファイルを生成する処理を提供します。
      */
     private final CsvService csvServ;
 
     /**
-     * Beanをコピーする処理を提供します。
-     */
-    private final ModelMapper modelMapper;
-
-    /**
-     * ディレクトリ名
+     * 出品者の商品を取得し出力するパイプラインです。
      */
-    private static final String BASE_DIR;
-
-    /**
-     * スラッシュ
-     */
-    private static final String SLASH = System.getProperty("file.separator");
-
-    static {
-        BASE_DIR = ".".concat(SLASH).concat("out");
-    }
+    private final ScrapingPipeline pipeline;
 
     /**
      * Appが実行されたとき最初に呼ばれる関数です。
@@ -83,31 +58,11 @@ public class App implements ApplicationRunner {
 
         log.debug("limit=" + limit);
 
-        final var futureResults = new ArrayList<CompletableFuture<Void>>();
+        final var sellers = new ArrayList<String>(sellerAsStrAry.length);
         for (final var sellerAsStr : sellerAsStrAry) {
-
-            final var trimedSellerAsStr = sellerAsStr.trim();
-            try {
-                final var total = this.yaServ.count(trimedSellerAsStr);
-                log.debug(trimedSellerAsStr + " owned " + total + " products");
-                Thread.sleep(2000);
-                final var offset = Math.max(Math.ceil((double) total / (double) limit), 1.0);
-                for (int i = 0; i < offset; i++) {
-                    final var seller = this.yaServ.findSellerBySellerName(trimedSellerAsStr, limit, limit * i);
-                    final var baseDirWithSellerName = BASE_DIR.concat(SLASH).concat(seller.getName());
-                    final var filePath = Paths.get(baseDirWithSellerName.concat(SLASH).concat(String.valueOf(i)));
-                    if (!Files.exists(filePath)) {
-                        Files.createDirectories(filePath);
-                    }
-                    this.csvServ.create(seller, filePath.toString());
-                    futureResults.add(this.yaServ.generateImg(this.modelMapper.map(seller, Seller.class), filePath.toString()));
-                }
-            } catch (final IOException | InterruptedException e) {
-                log.error("Catch App.run. seller=".concat(trimedSellerAsStr), e);
-            }
+            sellers.add(sellerAsStr.trim());
         }
-        final var futureResultsAry = futureResults.toArray(new CompletableFuture[futureResults.size()]);
-        CompletableFuture.allOf(futureResultsAry).join();
+        this.pipeline.run(sellers, limit);
 
         log.debug("finish.");
     }
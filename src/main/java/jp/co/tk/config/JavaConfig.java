@@ -1,43 +1,75 @@
 package jp.co.tk.config;
 
-import org.modelmapper.ModelMapper;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.binder.jvm.JvmMemoryMetrics;
+import io.micrometer.core.instrument.binder.jvm.JvmThreadMetrics;
+import io.micrometer.prometheus.PrometheusConfig;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import jp.co.tk.domain.repo.AdaptiveConcurrencyLimiter;
+import jp.co.tk.domain.repo.AdaptiveHttpTransport;
+import jp.co.tk.domain.repo.HttpTransport;
+import jp.co.tk.domain.repo.JdkHttpTransport;
+import jp.co.tk.domain.repo.JsoupHttpTransport;
+import jp.co.tk.domain.repo.MeteredHttpTransport;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.scheduling.annotation.EnableAsync;
-import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
-
-import java.util.concurrent.Executor;
 
 /**
  * Appに必要なBeanを生成します。
  */
-@EnableAsync
 @Configuration
+@EnableConfigurationProperties(ScrapingProperties.class)
 public class JavaConfig {
 
     /**
-     * 非同期のオブジェクトを返却します。
+     * Prometheusの形式でメトリクスを保持するレジストリを返却します。
+     * 各クラスは{@link Metrics#globalRegistry}へ記録するため、グローバルのレジストリに追加します。
      *
-     * @return Executor
+     * @return PrometheusMeterRegistry
      */
-    @Bean("GenImgThread")
-    public Executor generateImgTaskExecutor() {
-        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
-        executor.setCorePoolSize(1);
-        executor.setQueueCapacity(3);
-        executor.setMaxPoolSize(10);
-        executor.setThreadNamePrefix("GenImgThread-");
-        return executor;
+    @Bean
+    public PrometheusMeterRegistry prometheusMeterRegistry() {
+        final var registry = new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
+        new JvmMemoryMetrics().bindTo(registry);
+        new JvmThreadMetrics().bindTo(registry);
+        Metrics.addRegistry(registry);
+        return registry;
     }
 
     /**
-     * Beanをコピーオブジェクトを返却します。
+     * 設定に応じて、リクエストを送信するオブジェクトを返却します。
+     * リクエストはホスト単位の同時リクエスト数の許可を得てから送信し、メトリクスに記録されます。
+     * タイムアウトは、リクエスト先のプロファイルに指定がある場合はプロファイルの値を使用します。
      *
-     * @return ModelMapper
+     * @param properties 設定
+     * @param limiter    同時リクエスト数を調整するオブジェクト
+     * @return HttpTransport
      */
     @Bean
-    public ModelMapper modelMapper() {
-        return new ModelMapper();
+    public HttpTransport httpTransport(final ScrapingProperties properties, final AdaptiveConcurrencyLimiter limiter) {
+        final var config = httpConfigOf(properties);
+        final HttpTransport transport = config.getTransport() == ScrapingProperties.Http.Transport.JSOUP
+                ? new JsoupHttpTransport(config) : new JdkHttpTransport(config);
+        return new AdaptiveHttpTransport(new MeteredHttpTransport(transport), limiter);
+    }
+
+    /**
+     * HTTPクライアントの設定に、リクエスト先のプロファイルのタイムアウトを反映した設定を返却します。
+     *
+     * @param properties 設定
+     * @return HTTPクライアントの設定
+     */
+    static ScrapingProperties.Http httpConfigOf(final ScrapingProperties properties) {
+        final var http = properties.getHttp();
+        final var profile = properties.getEndpoint().getActiveProfile();
+        final var config = new ScrapingProperties.Http();
+        config.setTransport(http.getTransport());
+        config.setConnectTimeoutMillis(profile.getConnectTimeoutMillis() > 0 ? profile.getConnectTimeoutMillis() : http.getConnectTimeoutMillis());
+        config.setReadTimeoutMillis(profile.getReadTimeoutMillis() > 0 ? profile.getReadTimeoutMillis() : http.getReadTimeoutMillis());
+        config.setHttp2(http.isHttp2());
+        config.setClientThreads(http.getClientThreads());
+        return config;
     }
 
 }
@@ -0,0 +1,136 @@
+package jp.co.tk.config;
+
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * メトリクスをPrometheusの形式で出力します。
+ * <p>
+ * ポートが設定されている場合は「/metrics」で収集できるHTTPサーバーを起動し、
+ * ファイルが設定されている場合は一定の間隔と終了時にファイルへ書き出します。
+ */
+@Slf4j
+@Component
+public class MetricsExporter implements InitializingBean, DisposableBean {
+
+    /**
+     * 収集するパスです。
+     */
+    private static final String PATH = "/metrics";
+
+    /**
+     * レスポンスのContent-Typeです。
+     */
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    /**
+     * メトリクスを保持するレジストリです。
+     */
+    private final PrometheusMeterRegistry registry;
+
+    /**
+     * メトリクスの出力の設定です。
+     */
+    private final ScrapingProperties.Metrics config;
+
+    /**
+     * 収集するHTTPサーバーです。起動していない場合はnullです。
+     */
+    private HttpServer server;
+
+    /**
+     * ファイルへ書き出すスレッドです。書き出さない場合はnullです。
+     */
+    private ScheduledExecutorService dumper;
+
+    public MetricsExporter(final PrometheusMeterRegistry registry, final ScrapingProperties properties) {
+        this.registry = registry;
+        this.config = properties.getMetrics();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void afterPropertiesSet() throws IOException {
+        if (this.config.getPort() > 0) {
+            this.server = HttpServer.create(new InetSocketAddress(this.config.getPort()), 0);
+            this.server.createContext(PATH, exchange -> {
+                final var body = this.registry.scrape().getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().add("Content-Type", CONTENT_TYPE);
+                exchange.sendResponseHeaders(200, body.length);
+                exchange.getResponseBody().write(body);
+                exchange.close();
+            });
+            this.server.start();
+            log.info("metrics endpoint started. url=http://localhost:" + getPort() + PATH);
+        }
+        if (StringUtils.isNotBlank(this.config.getFile()) && this.config.getDumpIntervalSeconds() > 0) {
+            final var threadFactory = new CustomizableThreadFactory("MetricsDump-");
+            threadFactory.setDaemon(true);
+            this.dumper = Executors.newSingleThreadScheduledExecutor(threadFactory);
+            final var interval = this.config.getDumpIntervalSeconds();
+            this.dumper.scheduleWithFixedDelay(this::dump, interval, interval, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * HTTPサーバーのポートを取得します。
+     *
+     * @return ポート。起動していない場合は0
+     */
+    public int getPort() {
+        return this.server == null ? 0 : this.server.getAddress().getPort();
+    }
+
+    /**
+     * メトリクスをファイルへ書き出します。書き出し中のファイルを読まれないよう、一時ファイルから置き換えます。
+     */
+    public void dump() {
+        if (StringUtils.isBlank(this.config.getFile())) {
+            return;
+        }
+        try {
+            final var file = Paths.get(this.config.getFile()).toAbsolutePath();
+            Files.createDirectories(file.getParent());
+            final var temp = file.resolveSibling(file.getFileName().toString().concat(".tmp"));
+            Files.writeString(temp, this.registry.scrape(), StandardCharsets.UTF_8);
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (final IOException e) {
+            log.error("Catch MetricsExporter.dump. file=".concat(this.config.getFile()), e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void destroy() {
+        if (this.dumper != null) {
+            this.dumper.shutdownNow();
+        }
+        dump();
+        if (this.server != null) {
+            this.server.stop(0);
+        }
+        Metrics.removeRegistry(this.registry);
+    }
+
+}
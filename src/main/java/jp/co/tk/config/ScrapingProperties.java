@@ -0,0 +1,734 @@
+package jp.co.tk.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * スクレイピングの動作設定を保持します。
+ * application.propertiesの「scraping.」から始まるキーがバインドされます。
+ */
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "scraping")
+public class ScrapingProperties {
+
+    /**
+     * リクエスト先のURLの設定です。
+     */
+    private final Endpoint endpoint = new Endpoint();
+
+    /**
+     * ホスト単位のリクエスト間隔の設定です。
+     */
+    private final RateLimit rateLimit = new RateLimit();
+
+    /**
+     * ホスト単位の同時リクエスト数を自動で調整する設定です。
+     */
+    private final AdaptiveLimit adaptiveLimit = new AdaptiveLimit();
+
+    /**
+     * 失敗したリクエストを再送する設定です。
+     */
+    private final Retry retry = new Retry();
+
+    /**
+     * ホスト単位で、失敗が続いた場合にリクエストを止める設定です。
+     */
+    private final CircuitBreaker circuitBreaker = new CircuitBreaker();
+
+    /**
+     * 再送しても失敗した出品者、一覧ページ、商品、画像を記録し、次の実行で再び取得する設定です。
+     */
+    private final DeadLetter deadLetter = new DeadLetter();
+
+    /**
+     * パイプラインの各段の設定です。
+     */
+    private final Pipeline pipeline = new Pipeline();
+
+    /**
+     * 画像の出力の設定です。
+     */
+    private final Image image = new Image();
+
+    /**
+     * 中断した処理を再開するためのチェックポイントの設定です。
+     */
+    private final Checkpoint checkpoint = new Checkpoint();
+
+    /**
+     * HTTPレスポンスのキャッシュの設定です。
+     */
+    private final Cache cache = new Cache();
+
+    /**
+     * CSVファイルの設定です。
+     */
+    private final Csv csv = new Csv();
+
+    /**
+     * ページから項目を抜き出すルールの設定です。
+     */
+    private final Extraction extraction = new Extraction();
+
+    /**
+     * HTTPクライアントの設定です。
+     */
+    private final Http http = new Http();
+
+    /**
+     * メトリクスの出力の設定です。
+     */
+    private final Metrics metrics = new Metrics();
+
+    /**
+     * リクエスト先の設定を表します。
+     * 直下の項目が既定のプロファイルで、activeに名前を指定すると、profilesの同じ名前のプロファイルを使用します。
+     */
+    @Getter
+    @Setter
+    public static class Endpoint extends EndpointProfile {
+
+        /**
+         * 使用するプロファイルの名前です。空の場合は既定のプロファイルを使用します。
+         */
+        private String active = "";
+
+        /**
+         * プロファイルの名前をキーとした、リクエスト先の設定です。
+         */
+        private Map<String, EndpointProfile> profiles = new HashMap<>();
+
+        /**
+         * 使用するプロファイルを取得します。
+         *
+         * @return プロファイル
+         * @throws IllegalStateException activeの名前のプロファイルが存在しない場合
+         */
+        public EndpointProfile getActiveProfile() {
+            if (this.active == null || this.active.isBlank()) {
+                return this;
+            }
+            final var profile = this.profiles.get(this.active);
+            if (profile == null) {
+                throw new IllegalStateException("endpoint profile not found. active=".concat(this.active));
+            }
+            return profile;
+        }
+
+    }
+
+    /**
+     * リクエスト先のURL、タイムアウト、同時リクエスト数、画像のURLの書き換えのプロファイルを表します。
+     * ローカルのキャッシュサーバーやミラー、負荷試験のサーバーへリクエストする場合に切り替えます。
+     */
+    @Getter
+    @Setter
+    public static class EndpointProfile {
+
+        /**
+         * 出品者ページのベースURLです。
+         */
+        private String sellerUrl = "https://auctions.yahoo.co.jp/seller";
+
+        /**
+         * 商品ページのベースURLです。
+         */
+        private String productUrl = "https://page.auctions.yahoo.co.jp/jp/auction";
+
+        /**
+         * 接続のタイムアウト(ミリ秒)です。0の場合はhttpの設定を使用します。
+         */
+        private long connectTimeoutMillis = 0;
+
+        /**
+         * 読み込みのタイムアウト(ミリ秒)です。0の場合はhttpの設定を使用します。
+         */
+        private long readTimeoutMillis = 0;
+
+        /**
+         * ホスト単位の同時リクエスト数の上限です。0の場合はadaptive-limitの設定を使用します。
+         */
+        private int maxConcurrency = 0;
+
+        /**
+         * 画像のURLの書き換えのルールです。先頭から順に照合し、最初に一致したルールで書き換えます。
+         */
+        private List<UrlRewrite> imageRewrites = new ArrayList<>();
+
+    }
+
+    /**
+     * URLの先頭の書き換えのルールを表します。
+     */
+    @Getter
+    @Setter
+    public static class UrlRewrite {
+
+        /**
+         * 書き換えるURLの先頭です。
+         */
+        private String from = "";
+
+        /**
+         * 書き換え後のURLの先頭です。
+         */
+        private String to = "";
+
+    }
+
+    /**
+     * トークンバケットの設定を表します。
+     */
+    @Getter
+    @Setter
+    public static class Bucket {
+
+        /**
+         * 1秒あたりに補充されるトークン数です。0以下の場合は制限しません。
+         */
+        private double permitsPerSecond = 0.4;
+
+        /**
+         * バケットに貯められる最大のトークン数です。
+         */
+        private int burst = 1;
+
+        /**
+         * リクエスト毎に加算するランダムな待ち時間の上限(ミリ秒)です。
+         */
+        private long jitterMillis = 1000;
+
+    }
+
+    /**
+     * ホスト単位のリクエスト間隔の設定を表します。
+     * hostsに設定の無いホストは、このクラス自身の値を使用します。
+     */
+    @Getter
+    @Setter
+    public static class RateLimit extends Bucket {
+
+        /**
+         * ホスト名をキーとした個別の設定です。
+         */
+        private Map<String, Bucket> hosts = new HashMap<>();
+
+    }
+
+    /**
+     * ホスト単位の同時リクエスト数を、レスポンスの時間と拒否(429、503、5xx、タイムアウト)を基に調整する設定を表します。
+     * 成功が続く間は上限を1ずつ増やし、拒否された場合は上限を減らします(AIMD)。
+     */
+    @Getter
+    @Setter
+    public static class AdaptiveLimit {
+
+        /**
+         * trueの場合、同時リクエスト数を調整します。
+         */
+        private boolean enabled = true;
+
+        /**
+         * 同時リクエスト数の初期値です。
+         */
+        private int initialLimit = 2;
+
+        /**
+         * 同時リクエスト数の下限です。
+         */
+        private int minLimit = 1;
+
+        /**
+         * 同時リクエスト数の上限です。
+         */
+        private int maxLimit = 16;
+
+        /**
+         * 拒否された場合に、同時リクエスト数に掛ける比率です。
+         */
+        private double backoffRatio = 0.5;
+
+        /**
+         * レスポンスの時間が平均のこの倍数を超えた場合は、同時リクエスト数を減らします。
+         */
+        private double latencyTolerance = 2.0;
+
+        /**
+         * Retry-Afterに従ってホストへのリクエストを止める時間の上限(秒)です。
+         */
+        private long maxRetryAfterSeconds = 600;
+
+    }
+
+    /**
+     * 失敗したリクエストの再送の設定を表します。
+     * 待機時間は再送のたびに倍率を掛けて延ばし、ジッターの比率の範囲でランダムに短くします。
+     */
+    @Getter
+    @Setter
+    public static class Retry {
+
+        /**
+         * 最初のリクエストを含む、最大の試行回数です。1の場合は再送しません。
+         */
+        private int maxAttempts = 3;
+
+        /**
+         * 1回目の再送までの待機時間(ミリ秒)です。
+         */
+        private long initialBackoffMillis = 1000;
+
+        /**
+         * 再送までの待機時間の上限(ミリ秒)です。
+         */
+        private long maxBackoffMillis = 30000;
+
+        /**
+         * 再送のたびに待機時間に掛ける倍率です。
+         */
+        private double multiplier = 2.0;
+
+        /**
+         * 待機時間をランダムに短くする比率(0から1)です。
+         */
+        private double jitter = 0.5;
+
+    }
+
+    /**
+     * サーキットブレーカーの設定を表します。
+     * 連続して失敗した回数が閾値に達すると、一定時間そのホストへのリクエストを送信せずに失敗させます。
+     * 一定時間が経過した後は1件だけ試し、成功した場合に再開します。
+     */
+    @Getter
+    @Setter
+    public static class CircuitBreaker {
+
+        /**
+         * trueの場合、失敗が続いたホストへのリクエストを止めます。
+         */
+        private boolean enabled = true;
+
+        /**
+         * リクエストを止める、連続した失敗の回数です。
+         */
+        private int failureThreshold = 5;
+
+        /**
+         * リクエストを止める時間(秒)です。
+         */
+        private long openSeconds = 30;
+
+    }
+
+    /**
+     * 再送しても失敗した処理の記録の設定を表します。
+     */
+    @Getter
+    @Setter
+    public static class DeadLetter {
+
+        /**
+         * trueの場合、失敗した処理を記録し、次の実行の最初に再び取得します。
+         */
+        private boolean enabled = true;
+
+        /**
+         * 記録するファイルです。
+         */
+        private String file = "./out/dead-letter.tsv";
+
+    }
+
+    /**
+     * パイプラインの1段の設定を表します。
+     */
+    @Getter
+    @Setter
+    public static class Stage {
+
+        /**
+         * 同時実行数です。
+         */
+        private int concurrency;
+
+        /**
+         * 実行待ちにできるタスク数です。超えた場合は前段が待機します。
+         */
+        private int queueCapacity;
+
+        public Stage() {
+        }
+
+        public Stage(final int concurrency, final int queueCapacity) {
+            this.concurrency = concurrency;
+            this.queueCapacity = queueCapacity;
+        }
+
+    }
+
+    /**
+     * 出品者の商品数取得、一覧ページ取得、商品詳細取得、画像出力の各段の設定を表します。
+     */
+    @Getter
+    @Setter
+    public static class Pipeline {
+
+        /**
+         * trueの場合、各段のタスクをタスク毎の仮想スレッドで実行します。Java21以降で有効です。
+         * 仮想スレッドでは待ち行列を持たないため、同時実行数のみで制限します。
+         */
+        private boolean virtualThreads = false;
+
+        /**
+         * 同時に処理する出品者の数の上限です。
+         * 処理中の出品者の一覧ページと商品詳細は、出品者の間で順番に取得します。
+         */
+        private int maxActiveSellers = 4;
+
+        /**
+         * 出品者毎の重みです。重みの数だけ、他の出品者よりも続けてリクエストを送信します。設定がない出品者は1です。
+         */
+        private Map<String, Integer> sellerWeights = new HashMap<>();
+
+        /**
+         * 出品者の一覧ページを取得する段です。待ち行列の長さは出品者毎です。
+         */
+        private Stage listing = new Stage(2, 4);
+
+        /**
+         * 商品詳細を投入中のページより先に取得しておく、出品者毎の一覧ページの数です。
+         */
+        private int listingLookahead = 2;
+
+        /**
+         * 商品詳細を取得する段です。待ち行列の長さは出品者毎です。
+         */
+        private Stage detail = new Stage(4, 32);
+
+        /**
+         * 画像を出力する段です。
+         */
+        private Stage sink = new Stage(2, 4);
+
+    }
+
+    /**
+     * 画像の出力の設定を表します。
+     */
+    @Getter
+    @Setter
+    public static class Image {
+
+        /**
+         * 画像のダウンロードの段です。待ち行列が一杯の場合は投入側が待機します。
+         */
+        private Stage download = new Stage(4, 64);
+
+        /**
+         * trueの場合、出力した画像の先頭のバイトが画像の形式であるかを検証します。
+         */
+        private boolean validateHeader = true;
+
+        /**
+         * 内容のハッシュで画像を保存するストアです。
+         */
+        private Store store = new Store();
+
+    }
+
+    /**
+     * 画像のストアの設定を表します。
+     */
+    @Getter
+    @Setter
+    public static class Store {
+
+        /**
+         * trueの場合、取得済みのURLと同じ内容の画像をダウンロードせず、ストアの画像をハードリンクで出力します。
+         */
+        private boolean enabled = true;
+
+        /**
+         * 画像とURLの対応を保存するディレクトリです。
+         */
+        private String dir = "./out/.images";
+
+    }
+
+    /**
+     * チェックポイントの設定を表します。
+     */
+    @Getter
+    @Setter
+    public static class Checkpoint {
+
+        /**
+         * trueの場合、処理済みの一覧ページ、商品、画像を記録します。
+         */
+        private boolean enabled = true;
+
+        /**
+         * 記録を保存するディレクトリです。
+         */
+        private String dir = "./out/.checkpoint";
+
+        /**
+         * 再開の方法です。
+         */
+        private Mode mode = Mode.RESUME;
+
+        /**
+         * 再開の方法を表します。
+         */
+        public enum Mode {
+
+            /**
+             * 中断した処理のみを再開します。全ての処理が完了した後の実行では、最初から取得します。
+             */
+            RESUME,
+
+            /**
+             * RESUMEに加え、前回までの実行で取得済みのオークションIDを取得しません。
+             */
+            SINCE_LAST_RUN
+
+        }
+
+    }
+
+    /**
+     * HTTPレスポンスのキャッシュの設定を表します。
+     */
+    @Getter
+    @Setter
+    public static class Cache {
+
+        /**
+         * trueの場合、レスポンスをディスクに保存します。
+         */
+        private boolean enabled = true;
+
+        /**
+         * 保存するディレクトリです。
+         */
+        private String dir = "./out/.cache";
+
+        /**
+         * 保存するファイルの合計サイズの上限(MB)です。超えた場合は参照の古いものから削除します。
+         */
+        private long maxSizeMb = 1024;
+
+        /**
+         * HTMLを再検証せずに使用する期間(秒)です。0の場合は毎回再検証します。
+         */
+        private long htmlMaxAgeSeconds = 0;
+
+    }
+
+    /**
+     * CSVファイルの設定を表します。
+     */
+    @Getter
+    @Setter
+    public static class Csv {
+
+        /**
+         * 出品者の一覧のファイルです。
+         */
+        private String sellerFile = "./in/seller.csv";
+
+        /**
+         * 1ファイルあたりの行数の上限です。0以下の場合は制限しません。
+         */
+        private long maxRows = 10000;
+
+        /**
+         * 1ファイルあたりのサイズの上限(MB)です。0以下の場合は制限しません。
+         */
+        private long maxSizeMb = 100;
+
+    }
+
+    /**
+     * ページから項目を抜き出すルールの設定を表します。
+     * 値はJsoupのCSSセレクターで、起動時に1回だけコンパイルされます。
+     */
+    @Getter
+    @Setter
+    public static class Extraction {
+
+        /**
+         * 商品ページのルールです。
+         */
+        private final ProductPage product = new ProductPage();
+
+        /**
+         * 出品者ページのルールです。
+         */
+        private final SellerPage seller = new SellerPage();
+
+    }
+
+    /**
+     * 商品ページから項目を抜き出すルールを表します。
+     */
+    @Getter
+    @Setter
+    public static class ProductPage {
+
+        /**
+         * タイトルの要素です。
+         */
+        private String title = ".ProductTitle__text";
+
+        /**
+         * 開始価格を含む詳細の要素です。
+         */
+        private String detail = ".ProductDetail__description";
+
+        /**
+         * 開始価格が、テキストを持つ詳細の要素の何番目(0始まり)であるかを表します。
+         */
+        private int startingPriceIndex = 9;
+
+        /**
+         * 説明文の要素です。
+         */
+        private String description = ".ProductExplanation__commentArea";
+
+        /**
+         * 即決価格の要素です。
+         */
+        private String buyoutPrice = ".Price--buynow";
+
+        /**
+         * 画像の要素です。
+         */
+        private String image = ".ProductImage__image img";
+
+        /**
+         * 全ての画像を含む領域の要素です。この領域が閉じるまでは読み込みを止めません。
+         */
+        private String imageContainer = ".ProductImage";
+
+        /**
+         * 画像URLを持つ属性です。
+         */
+        private String imageAttr = "src";
+
+    }
+
+    /**
+     * 出品者ページから項目を抜き出すルールを表します。
+     */
+    @Getter
+    @Setter
+    public static class SellerPage {
+
+        /**
+         * 商品のIDとカテゴリを持つ要素です。
+         */
+        private String item = "a[data-auction-id]";
+
+        /**
+         * 商品のIDを持つ属性です。
+         */
+        private String idAttr = "data-auction-id";
+
+        /**
+         * 商品のカテゴリを持つ属性です。
+         */
+        private String categoryAttr = "data-auction-category";
+
+        /**
+         * 商品の合計数を含む要素です。最初の要素のテキストの先頭の数値を合計数とします。
+         */
+        private String total = ".pu";
+
+    }
+
+    /**
+     * HTTPクライアントの設定を表します。
+     */
+    @Getter
+    @Setter
+    public static class Http {
+
+        /**
+         * リクエストを送信する実装です。
+         */
+        private Transport transport = Transport.JDK;
+
+        /**
+         * 接続のタイムアウト(ミリ秒)です。
+         */
+        private long connectTimeoutMillis = 10000;
+
+        /**
+         * 読み込みのタイムアウト(ミリ秒)です。
+         */
+        private long readTimeoutMillis = 30000;
+
+        /**
+         * trueの場合、HTTP/2で接続します。サーバーが対応していない場合はHTTP/1.1になります。
+         */
+        private boolean http2 = true;
+
+        /**
+         * HttpClientが応答の処理に使用するスレッド数です。
+         */
+        private int clientThreads = 4;
+
+        /**
+         * リクエストを送信する実装を表します。
+         */
+        public enum Transport {
+
+            /**
+             * java.net.http.HttpClientを共有し、接続を再利用します。
+             */
+            JDK,
+
+            /**
+             * リクエスト毎にJsoupで接続します。
+             */
+            JSOUP
+
+        }
+
+    }
+
+    /**
+     * メトリクスの出力の設定を表します。
+     */
+    @Getter
+    @Setter
+    public static class Metrics {
+
+        /**
+         * Prometheusが収集するHTTPサーバーのポートです。0の場合は起動しません。
+         */
+        private int port = 0;
+
+        /**
+         * Prometheusの形式でメトリクスを書き出すファイルです。空の場合は書き出しません。
+         */
+        private String file = "./out/metrics.prom";
+
+        /**
+         * ファイルに書き出す間隔(秒)です。終了時にも書き出します。
+         */
+        private long dumpIntervalSeconds = 60;
+
+    }
+
+}
@@ -0,0 +1,275 @@
+package jp.co.tk.domain.model;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * CSVの1行を、再利用するバッファに直接書き込みます。
+ * <p>
+ * 値はRFC 4180に従い、カンマ、ダブルクォート、改行を含む場合のみダブルクォートで囲みます。
+ * 行はバッファから直接指定の文字コードへ変換して書き出すため、行毎の文字列を生成しません。
+ * スレッドセーフではないため、出力先毎に生成してください。
+ */
+public final class CsvRowWriter {
+
+    /**
+     * 文字バッファの初期サイズです。
+     */
+    private static final int INITIAL_CAPACITY = 1024;
+
+    /**
+     * バイトバッファのサイズです。
+     */
+    private static final int BYTE_BUFFER_SIZE = 8192;
+
+    /**
+     * 区切り文字です。
+     */
+    private static final char COMMA = ',';
+
+    /**
+     * 囲み文字です。
+     */
+    private static final char QUOTE = '"';
+
+    /**
+     * 文字コードへ変換するためのオブジェクトです。
+     */
+    private final CharsetEncoder encoder;
+
+    /**
+     * 変換後のバイトを溜めるバッファです。
+     */
+    private final ByteBuffer bytes;
+
+    /**
+     * 書き込み中の行のバッファです。
+     */
+    private CharBuffer chars = CharBuffer.allocate(INITIAL_CAPACITY);
+
+    /**
+     * 行の先頭の値であるかを表します。
+     */
+    private boolean firstField = true;
+
+    /**
+     * @param charset 書き出す際の文字コード
+     */
+    public CsvRowWriter(final Charset charset) {
+        this.encoder = charset.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.bytes = ByteBuffer.allocate(BYTE_BUFFER_SIZE);
+    }
+
+    /**
+     * 文字列の値を書き込みます。nullの場合は空の値です。
+     *
+     * @param value 値
+     * @return this
+     */
+    public CsvRowWriter field(final CharSequence value) {
+        separator();
+        if (value == null) {
+            return this;
+        }
+        final var len = value.length();
+        if (!needsQuote(value, len)) {
+            for (int i = 0; i < len; i++) {
+                put(value.charAt(i));
+            }
+            return this;
+        }
+        put(QUOTE);
+        for (int i = 0; i < len; i++) {
+            final var c = value.charAt(i);
+            if (c == QUOTE) {
+                put(QUOTE);
+            }
+            put(c);
+        }
+        put(QUOTE);
+        return this;
+    }
+
+    /**
+     * 数値の値を書き込みます。nullの場合は空の値です。
+     *
+     * @param value 値
+     * @return this
+     */
+    public CsvRowWriter field(final Long value) {
+        separator();
+        if (value != null) {
+            putLong(value);
+        }
+        return this;
+    }
+
+    /**
+     * 空の値を書き込みます。
+     *
+     * @return this
+     */
+    public CsvRowWriter emptyField() {
+        separator();
+        return this;
+    }
+
+    /**
+     * 区切り文字や囲み文字を付けずにそのまま書き込みます。
+     *
+     * @param value 値
+     * @return this
+     */
+    public CsvRowWriter raw(final CharSequence value) {
+        for (int i = 0, len = value.length(); i < len; i++) {
+            put(value.charAt(i));
+        }
+        this.firstField = false;
+        return this;
+    }
+
+    /**
+     * 行を終え、改行コード(CRLF)を書き込みます。
+     *
+     * @return this
+     */
+    public CsvRowWriter endRow() {
+        put('\r');
+        put('\n');
+        this.firstField = true;
+        return this;
+    }
+
+    /**
+     * 書き込んだ内容を文字コードへ変換して出力し、バッファを空にします。
+     *
+     * @param channel 出力先
+     * @return 出力したバイト数
+     * @throws IOException
+     */
+    public long writeTo(final WritableByteChannel channel) throws IOException {
+        this.chars.flip();
+        this.encoder.reset();
+        long written = 0;
+        while (this.encoder.encode(this.chars, this.bytes, true).isOverflow()) {
+            written += drain(channel);
+        }
+        while (this.encoder.flush(this.bytes).isOverflow()) {
+            written += drain(channel);
+        }
+        written += drain(channel);
+        clear();
+        return written;
+    }
+
+    /**
+     * バッファを空にします。
+     */
+    public void clear() {
+        this.chars.clear();
+        this.firstField = true;
+    }
+
+    /**
+     * 書き込んだ内容を文字列で取得します。
+     *
+     * @return 書き込んだ内容
+     */
+    @Override
+    public String toString() {
+        return new String(this.chars.array(), 0, this.chars.position());
+    }
+
+    /**
+     * 囲み文字が必要であるかを判定します。
+     *
+     * @param value 値
+     * @param len   値の長さ
+     * @return 必要な場合はtrue
+     */
+    private static boolean needsQuote(final CharSequence value, final int len) {
+        for (int i = 0; i < len; i++) {
+            final var c = value.charAt(i);
+            if (c == COMMA || c == QUOTE || c == '\r' || c == '\n') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 2つ目以降の値の場合、区切り文字を書き込みます。
+     */
+    private void separator() {
+        if (this.firstField) {
+            this.firstField = false;
+        } else {
+            put(COMMA);
+        }
+    }
+
+    /**
+     * 数値を文字列を生成せずに書き込みます。
+     *
+     * @param value 値
+     */
+    private void putLong(final long value) {
+        if (value == Long.MIN_VALUE) {
+            raw(String.valueOf(value));
+            return;
+        }
+        var v = value;
+        if (v < 0) {
+            put('-');
+            v = -v;
+        }
+        var divisor = 1L;
+        while (v / divisor >= 10) {
+            divisor *= 10;
+        }
+        while (divisor > 0) {
+            put((char) ('0' + (v / divisor) % 10));
+            divisor /= 10;
+        }
+    }
+
+    /**
+     * 1文字書き込みます。バッファが足りない場合は拡張します。
+     *
+     * @param c 文字
+     */
+    private void put(final char c) {
+        if (!this.chars.hasRemaining()) {
+            final var grown = CharBuffer.allocate(this.chars.capacity() * 2);
+            this.chars.flip();
+            grown.put(this.chars);
+            this.chars = grown;
+        }
+        this.chars.put(c);
+    }
+
+    /**
+     * 変換後のバイトを出力し、バイトバッファを空にします。
+     *
+     * @param channel 出力先
+     * @return 出力したバイト数
+     * @throws IOException
+     */
+    private int drain(final WritableByteChannel channel) throws IOException {
+        this.bytes.flip();
+        final var len = this.bytes.remaining();
+        while (this.bytes.hasRemaining()) {
+            channel.write(this.bytes);
+        }
+        this.bytes.clear();
+        return len;
+    }
+
+}
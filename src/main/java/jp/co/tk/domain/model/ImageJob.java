@@ -0,0 +1,46 @@
+package jp.co.tk.domain.model;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 1つの商品の画像の出力に必要な、オークションIDと画像のURL、画像名だけを保持するクラスです。
+ * CSVファイルへ書き込んだ商品の代わりに、画像のダウンロードの段へ渡します。
+ * 画像は商品と共有し、複製しません。
+ */
+public final class ImageJob {
+
+    /**
+     * オークションID
+     */
+    private final String auctionId;
+
+    /**
+     * 画像のURLと画像名
+     */
+    private final YAProduct.Image[] images;
+
+    ImageJob(final String auctionId, final YAProduct.Image[] images) {
+        this.auctionId = auctionId;
+        this.images = images;
+    }
+
+    public String getAuctionId() {
+        return this.auctionId;
+    }
+
+    /**
+     * 画像のURLと画像名を、ページ内の順に取得します。
+     *
+     * @return 画像のURLと画像名
+     */
+    public List<YAProduct.Image> getImages() {
+        return Collections.unmodifiableList(Arrays.asList(this.images));
+    }
+
+    public String toString() {
+        return "ImageJob(auctionId=" + this.auctionId + ", images=" + Arrays.toString(this.images) + ")";
+    }
+
+}
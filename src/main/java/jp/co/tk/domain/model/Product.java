@@ -1,5 +1,7 @@
 package jp.co.tk.domain.model;
 
+import java.nio.charset.StandardCharsets;
+
 /**
  * 商品の基底クラスを定義します。
  */
@@ -28,10 +30,21 @@ public abstract class Product {
     public abstract String csvHeader();
 
     /**
-     * 1行単位のCSVデータを取得します。
+     * 1行単位のCSVデータを書き込みます。
+     *
+     * @param writer 書き込み先
+     */
+    public abstract void writeCsvData(CsvRowWriter writer);
+
+    /**
+     * 1行単位のCSVデータを取得します。改行コードは含みません。
      *
      * @return CSVデータ
      */
-    public abstract String csvData();
+    public String csvData() {
+        final var writer = new CsvRowWriter(StandardCharsets.UTF_8);
+        writeCsvData(writer);
+        return writer.toString();
+    }
 
 }
@@ -1,20 +1,20 @@
 package jp.co.tk.domain.model;
 
-import lombok.AllArgsConstructor;
 import lombok.EqualsAndHashCode;
 import lombok.Getter;
 import lombok.ToString;
 
+import java.util.Collections;
 import java.util.Set;
 
 
 /**
  * 出品者とN個の商品を保持するデータクラスです。
+ * 商品は変更できないため、複製せずに段の間で共有できます。
  */
 @ToString
 @EqualsAndHashCode
 @Getter
-@AllArgsConstructor
 public class Seller {
 
     /**
@@ -27,4 +27,13 @@ public class Seller {
      */
     private final Set<Product> product;
 
+    /**
+     * @param name    出品者名
+     * @param product 商品。以降は変更しないでください
+     */
+    public Seller(final String name, final Set<Product> product) {
+        this.name = name;
+        this.product = Collections.unmodifiableSet(product);
+    }
+
 }
@@ -1,17 +1,23 @@
 package jp.co.tk.domain.model;
 
 import lombok.Value;
-import org.apache.commons.lang3.RegExUtils;
 import org.apache.commons.lang3.StringUtils;
 
+import java.net.MalformedURLException;
+import java.net.URI;
 import java.net.URL;
-import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.Objects;
-import java.util.Set;
 
 /**
  * ヤフオクをスクレイピングした際のデータを保持するクラスです。
+ * <p>
+ * 不変のため、複製せずに段の間で共有できます。
+ * 画像は、ページ内の順番、URL、画像名の組を解析時に1回だけ生成し、ページ内の順に1つの配列で保持します。
+ * URLは、equals・hashCodeで名前解決を行わない{@link URI}で保持します。
  */
 public final class YAProduct extends Product {
 
@@ -20,6 +26,11 @@ public final class YAProduct extends Product {
      */
     public static final String CSV_HEADER = "カテゴリ,タイトル,説明,開始価格,即決価格,画像1,画像2,画像3,画像4,画像5,画像6,画像7,画像8,画像9,画像10";
 
+    /**
+     * CSVの画像の列数を表します。
+     */
+    private static final int IMAGE_COLUMNS = 10;
+
     /**
      * IDとカテゴリ
      */
@@ -46,23 +57,17 @@ public final class YAProduct extends Product {
     private final Long buyoutPrice;
 
     /**
-     * 画像URL
-     */
-    private final Set<URL> imageUrl;
-
-    /**
-     * 画像名
+     * 画像のURLと画像名
      */
-    private final Set<String> imageName;
+    private final Image[] images;
 
-    YAProduct(IdAndCategory idAndCategory, String title, String description, Long startingPrice, Long buyoutPrice, Set<URL> imageUrl, Set<String> imageName) {
+    YAProduct(IdAndCategory idAndCategory, String title, String description, Long startingPrice, Long buyoutPrice, Image[] images) {
         this.idAndCategory = idAndCategory;
         this.title = title;
         this.description = description;
         this.startingPrice = startingPrice;
         this.buyoutPrice = buyoutPrice;
-        this.imageUrl = imageUrl;
-        this.imageName = imageName;
+        this.images = images;
     }
 
     public static YAProductBuilder builder() {
@@ -81,34 +86,28 @@ public final class YAProduct extends Product {
      * {@inheritDoc}
      */
     @Override
-    public String csvData() {
-
-        final var sb = new StringBuilder();
-        sb.append(idAndCategory.getCategory());
-        sb.append(COMMA);
-        sb.append(RegExUtils.replaceAll(title, COMMA, TOHTEN));
-        sb.append(COMMA);
-        sb.append(RegExUtils.replaceAll(description, COMMA, TOHTEN));
-        sb.append(COMMA);
-        sb.append(startingPrice);
-        sb.append(COMMA);
-        sb.append(buyoutPrice);
-        sb.append(COMMA);
-
-        final var imgNameLen = imageName.size();
-        final var imageNameList = new ArrayList<>(imageName);
-        for (int i = 0; i < imgNameLen; i++) {
-            sb.append(imageNameList.get(i));
-            sb.append(COMMA);
+    public void writeCsvData(final CsvRowWriter writer) {
+        writer.field(idAndCategory.getCategory())
+                .field(title)
+                .field(description)
+                .field(startingPrice)
+                .field(buyoutPrice);
+
+        for (final var image : images) {
+            writer.field(image.getName());
         }
-        for (int i = 0, max = 10 - imgNameLen; i < max; i++) {
-            sb.append(COMMA);
+        for (int i = 0, max = IMAGE_COLUMNS - images.length; i < max; i++) {
+            writer.emptyField();
         }
+    }
 
-        final int sbLen = sb.length();
-        sb.delete(sbLen - 1, sbLen);
-
-        return sb.toString();
+    /**
+     * 画像の出力に必要な項目だけを取得します。画像は複製せずに共有します。
+     *
+     * @return 画像の出力
+     */
+    public ImageJob toImageJob() {
+        return new ImageJob(idAndCategory.getId(), images);
     }
 
     public IdAndCategory getIdAndCategory() {
@@ -131,16 +130,53 @@ public final class YAProduct extends Product {
         return this.buyoutPrice;
     }
 
-    public Set<URL> getImageUrl() {
-        return this.imageUrl;
+    /**
+     * 画像のURLと画像名を、ページ内の順に取得します。
+     *
+     * @return 画像のURLと画像名
+     */
+    public List<Image> getImages() {
+        return Collections.unmodifiableList(Arrays.asList(this.images));
     }
 
-    public Set<String> getImageName() {
-        return this.imageName;
+    public String toString() {
+        return "YAProduct(idAndCategory=" + this.getIdAndCategory() + ", title=" + this.getTitle() + ", description=" + this.getDescription() + ", startingPrice=" + this.getStartingPrice() + ", buyoutPrice=" + this.getBuyoutPrice() + ", images=" + Arrays.toString(this.images) + ")";
     }
 
-    public String toString() {
-        return "YAProduct(idAndCategory=" + this.getIdAndCategory() + ", title=" + this.getTitle() + ", description=" + this.getDescription() + ", startingPrice=" + this.getStartingPrice() + ", buyoutPrice=" + this.getBuyoutPrice() + ", imageUrl=" + this.getImageUrl() + ", imageName=" + this.getImageName() + ")";
+    /**
+     * ページ内の順番、画像のURL、画像名を保持するインナークラスです。
+     */
+    @Value
+    public static class Image {
+
+        /**
+         * ページ内の順番(0始まり)
+         */
+        int index;
+
+        /**
+         * 画像URL
+         */
+        URI source;
+
+        /**
+         * 画像名
+         */
+        String name;
+
+        /**
+         * リクエストを送信するために、画像URLをURLに変換します。名前解決は行いません。
+         *
+         * @return 画像URL
+         * @throws MalformedURLException 絶対URLでない場合、または対応していないプロトコルの場合
+         */
+        public URL toUrl() throws MalformedURLException {
+            return this.source.toURL();
+        }
+
+        public String toString() {
+            return "YAProduct.Image(index=" + this.getIndex() + ", source=" + this.getSource() + ", name=" + this.getName() + ")";
+        }
     }
 
     /**
@@ -207,8 +243,7 @@ public final class YAProduct extends Product {
         private String description;
         private Long startingPrice;
         private Long buyoutPrice;
-        private Set<URL> imageUrl;
-        private Set<String> imageName;
+        private Image[] images = new Image[0];
 
         YAProductBuilder() {
         }
@@ -238,30 +273,45 @@ public final class YAProduct extends Product {
             return this;
         }
 
-        public YAProductBuilder imageUrl(Set<URL> imageUrl) {
-            this.imageUrl = imageUrl;
-
-            final var imgUrlLen = imageUrl.size();
-            final var imgUrlList = new ArrayList<>(imageUrl);
-            final var imgNameSet = new HashSet<String>();
-            for (int i = 0; i < imgUrlLen; i++) {
-                final String[] urlSplitedWithSlash = imgUrlList.get(i).toString().split(SLASH);
+        /**
+         * 画像URLから画像名を求め、ページ内の順に保持します。画像名が重複する画像は、最初の画像のみ保持します。
+         *
+         * @param imageUri ページ内の順の画像URL
+         * @return このビルダー
+         */
+        public YAProductBuilder imageUri(Collection<URI> imageUri) {
+            final var images = new Image[imageUri.size()];
+            var len = 0;
+            for (final var uri : imageUri) {
+                final String[] urlSplitedWithSlash = uri.toString().split(SLASH);
                 final String fileName = urlSplitedWithSlash[urlSplitedWithSlash.length - 1];
                 final var hyphenPos = StringUtils.lastIndexOf(fileName, "-");
                 final var removedHyphensFileName = StringUtils.substring(fileName, hyphenPos + 1, fileName.length());
-                imgNameSet.add(removedHyphensFileName);
+                if (!containsName(images, len, removedHyphensFileName)) {
+                    images[len] = new Image(len, uri, removedHyphensFileName);
+                    len++;
+                }
             }
-            this.imageName = imgNameSet;
+            this.images = len == images.length ? images : Arrays.copyOf(images, len);
 
             return this;
         }
 
+        private static boolean containsName(final Image[] images, final int len, final String name) {
+            for (int i = 0; i < len; i++) {
+                if (images[i].getName().equals(name)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
         public YAProduct build() {
-            return new YAProduct(idAndCategory, title, description, startingPrice, buyoutPrice, imageUrl, imageName);
+            return new YAProduct(idAndCategory, title, description, startingPrice, buyoutPrice, images);
         }
 
         public String toString() {
-            return "YAProduct.YAProductBuilder(idAndCategory=" + this.idAndCategory + ", title=" + this.title + ", description=" + this.description + ", startingPrice=" + this.startingPrice + ", buyoutPrice=" + this.buyoutPrice + ", imageUrl=" + this.imageUrl + ", imageName=" + this.imageName + ")";
+            return "YAProduct.YAProductBuilder(idAndCategory=" + this.idAndCategory + ", title=" + this.title + ", description=" + this.description + ", startingPrice=" + this.startingPrice + ", buyoutPrice=" + this.buyoutPrice + ", images=" + Arrays.toString(this.images) + ")";
         }
     }
 }
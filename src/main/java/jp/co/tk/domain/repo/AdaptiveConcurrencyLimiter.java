@@ -0,0 +1,443 @@
+package jp.co.tk.domain.repo;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+import jp.co.tk.config.ScrapingProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.jsoup.HttpStatusException;
+import org.springframework.stereotype.Component;
+
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.net.http.HttpTimeoutException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * ホスト単位の同時リクエスト数を、レスポンスの時間と拒否を基に調整します。
+ * <p>
+ * 成功したリクエストのレスポンスの時間が平均(EWMA)から大きく外れない間は、上限を1つの窓あたり1ずつ増やします。
+ * 429、503、5xx、タイムアウトで拒否された場合は上限に比率を掛けて減らし、Retry-Afterの間はそのホストへの許可を止めます。
+ * レスポンスの時間が平均から大きく外れた場合も上限を減らします。
+ * 同じ窓の中で続けて拒否された場合やレスポンスの時間が外れた場合は、1回だけ減らします。
+ * <p>
+ * {@link HostRateLimiter}の間隔制御とは独立しており、間隔制御はマナーとしての上限、このクラスはサーバーの状態への追従を担います。
+ */
+@Slf4j
+@Component
+public class AdaptiveConcurrencyLimiter {
+
+    /**
+     * 同時リクエスト数の上限のメトリクス名です。
+     */
+    static final String LIMIT_GAUGE = "scraper.adaptive.limit";
+
+    /**
+     * レスポンスの時間の平均に、新しい値を反映する比率です。
+     */
+    private static final double EWMA_ALPHA = 0.1;
+
+    /**
+     * レスポンスの時間が延びた場合に、上限に掛ける比率です。
+     */
+    private static final double LATENCY_BACKOFF_RATIO = 0.9;
+
+    /**
+     * 調整しない場合の許可です。
+     */
+    private static final Permit UNLIMITED = new Permit(null, 0);
+
+    /**
+     * 同時リクエスト数の調整の設定です。
+     */
+    private final ScrapingProperties.AdaptiveLimit config;
+
+    /**
+     * 同時リクエスト数の上限の最大値です。リクエスト先のプロファイルに指定がある場合はプロファイルの値です。
+     */
+    private final int maxLimit;
+
+    /**
+     * ホスト名をキーとした上限です。
+     */
+    private final ConcurrentMap<String, HostLimit> limits = new ConcurrentHashMap<>();
+
+    public AdaptiveConcurrencyLimiter(final ScrapingProperties properties) {
+        this.config = properties.getAdaptiveLimit();
+        final var maxConcurrency = properties.getEndpoint().getActiveProfile().getMaxConcurrency();
+        this.maxLimit = maxConcurrency > 0 ? Math.max(maxConcurrency, this.config.getMinLimit()) : this.config.getMaxLimit();
+    }
+
+    /**
+     * ホストに対するリクエストが許可されるまで待機します。
+     *
+     * @param host ホスト名
+     * @return 許可。リクエストが終わったら{@link Permit#release(Throwable)}で返却してください
+     * @throws InterruptedIOException 待機中に割り込まれた場合
+     */
+    public Permit acquire(final String host) throws InterruptedIOException {
+        final var future = acquireAsync(host);
+        try {
+            return future.get();
+        } catch (final InterruptedException e) {
+            if (!future.cancel(false)) {
+                future.join().release(Outcome.IGNORED, null);
+            }
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for ".concat(host));
+        } catch (final ExecutionException e) {
+            throw new CompletionException(e.getCause());
+        }
+    }
+
+    /**
+     * ホストに対するリクエストが許可された時点で完了するFutureを返却します。
+     * 待機中にスレッドを占有しません。
+     *
+     * @param host ホスト名
+     * @return 許可された時点で完了するFuture
+     */
+    public CompletableFuture<Permit> acquireAsync(final String host) {
+        if (!this.config.isEnabled()) {
+            return CompletableFuture.completedFuture(UNLIMITED);
+        }
+        final var limit = this.limits.computeIfAbsent(host, this::createLimit);
+        final var future = new CompletableFuture<Permit>();
+        limit.enqueue(future);
+        limit.dispatch();
+        return future;
+    }
+
+    /**
+     * ホストに対する現在の同時リクエスト数の上限を取得します。
+     *
+     * @param host ホスト名
+     * @return 上限。リクエストしていないホストの場合は初期値
+     */
+    public double getLimit(final String host) {
+        final var limit = this.limits.get(host);
+        return limit == null ? Math.min(this.config.getInitialLimit(), this.maxLimit) : limit.getLimit();
+    }
+
+    /**
+     * ホストの上限を生成し、メトリクスに登録します。
+     *
+     * @param host ホスト名
+     * @return 上限
+     */
+    private HostLimit createLimit(final String host) {
+        final var limit = new HostLimit(host, this.config, this.maxLimit);
+        Gauge.builder(LIMIT_GAUGE, limit, HostLimit::getLimit)
+                .description("Current adaptive concurrency limit")
+                .tag("host", host)
+                .register(Metrics.globalRegistry);
+        return limit;
+    }
+
+    /**
+     * リクエストの結果を分類します。
+     *
+     * @param error 例外。成功した場合はnull
+     * @return 結果の分類
+     */
+    static Outcome classify(final Throwable error) {
+        if (error == null) {
+            return Outcome.SUCCESS;
+        }
+        final var cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        if (cause instanceof ThrottledException || cause instanceof HttpTimeoutException || cause instanceof SocketTimeoutException) {
+            return Outcome.DROPPED;
+        }
+        if (cause instanceof HttpStatusException && ((HttpStatusException) cause).getStatusCode() >= 500) {
+            return Outcome.DROPPED;
+        }
+        return Outcome.IGNORED;
+    }
+
+    /**
+     * リクエストの結果の分類です。
+     */
+    enum Outcome {
+
+        /**
+         * 成功しました。レスポンスの時間を上限の調整に使用します。
+         */
+        SUCCESS,
+
+        /**
+         * サーバーの負荷を理由に拒否されました。上限を減らします。
+         */
+        DROPPED,
+
+        /**
+         * 404等、サーバーの負荷と関係なく失敗しました。上限を変えません。
+         */
+        IGNORED
+
+    }
+
+    /**
+     * 1回のリクエストの許可を表します。
+     */
+    public static final class Permit {
+
+        /**
+         * 許可したホストの上限です。調整しない場合はnull
+         */
+        private final HostLimit limit;
+
+        /**
+         * 許可した時点の窓の番号です。
+         */
+        private final long generation;
+
+        /**
+         * 許可した時刻です。
+         */
+        private final long startNanos = System.nanoTime();
+
+        /**
+         * レスポンスヘッダーを受信した時刻です。受信していない場合は0
+         */
+        private volatile long respondedNanos;
+
+        /**
+         * 返却済みであるかを表します。
+         */
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Permit(final HostLimit limit, final long generation) {
+            this.limit = limit;
+            this.generation = generation;
+        }
+
+        /**
+         * レスポンスヘッダーを受信したことを記録します。
+         * 記録しない場合は、返却した時点までをレスポンスの時間とします。
+         */
+        public void responded() {
+            this.respondedNanos = System.nanoTime();
+        }
+
+        /**
+         * リクエストの結果を基に上限を調整し、許可を返却します。2回目以降の呼び出しは無視します。
+         *
+         * @param error 例外。成功した場合はnull
+         */
+        public void release(final Throwable error) {
+            release(classify(error), error);
+        }
+
+        private void release(final Outcome outcome, final Throwable error) {
+            if (this.limit == null || !this.released.compareAndSet(false, true)) {
+                return;
+            }
+            final var end = this.respondedNanos == 0 ? System.nanoTime() : this.respondedNanos;
+            this.limit.release(this, outcome, end - this.startNanos, retryAfterMillisOf(error));
+        }
+
+        /**
+         * 例外からRetry-Afterの時間を取得します。
+         *
+         * @param error 例外
+         * @return 時間(ミリ秒)。指定が無い場合は-1
+         */
+        private static long retryAfterMillisOf(final Throwable error) {
+            final var cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+            return cause instanceof ThrottledException ? ((ThrottledException) cause).getRetryAfterMillis() : -1;
+        }
+
+    }
+
+    /**
+     * 1つのホストの上限と、許可を待っているリクエストを保持します。
+     */
+    private static final class HostLimit {
+
+        private final String host;
+
+        private final ScrapingProperties.AdaptiveLimit config;
+
+        /**
+         * 同時リクエスト数の上限の最大値です。
+         */
+        private final int maxLimit;
+
+        /**
+         * 許可を待っているリクエストです。
+         */
+        private final Deque<CompletableFuture<Permit>> waiters = new ArrayDeque<>();
+
+        /**
+         * 同時リクエスト数の上限です。
+         */
+        private volatile double limit;
+
+        /**
+         * 許可中のリクエスト数です。
+         */
+        private int inFlight;
+
+        /**
+         * 成功したリクエストのレスポンスの時間の平均(ナノ秒)です。未計測の場合は0
+         */
+        private double rttEwmaNanos;
+
+        /**
+         * 許可を止める期限です。止めていない場合は0
+         */
+        private long pausedUntilNanos;
+
+        /**
+         * 許可の再開が予約済みであるかを表します。
+         */
+        private boolean wakeupScheduled;
+
+        /**
+         * 上限を減らすたびに増える窓の番号です。
+         */
+        private long generation;
+
+        private HostLimit(final String host, final ScrapingProperties.AdaptiveLimit config, final int maxLimit) {
+            this.host = host;
+            this.config = config;
+            this.maxLimit = maxLimit;
+            this.limit = Math.max(Math.min(config.getInitialLimit(), maxLimit), config.getMinLimit());
+        }
+
+        private double getLimit() {
+            return this.limit;
+        }
+
+        private synchronized void enqueue(final CompletableFuture<Permit> future) {
+            this.waiters.add(future);
+        }
+
+        /**
+         * 上限に空きがある分だけ、待っているリクエストを許可します。
+         * Futureの完了はロックの外で行います。
+         */
+        private void dispatch() {
+            final List<CompletableFuture<Permit>> granted = new ArrayList<>();
+            final var permits = new ArrayList<Permit>();
+            synchronized (this) {
+                final var now = System.nanoTime();
+                if (this.pausedUntilNanos != 0 && now < this.pausedUntilNanos) {
+                    scheduleWakeup(this.pausedUntilNanos - now);
+                    return;
+                }
+                this.pausedUntilNanos = 0;
+                while (this.inFlight < Math.max((int) this.limit, 1)) {
+                    final var waiter = this.waiters.poll();
+                    if (waiter == null) {
+                        break;
+                    }
+                    if (waiter.isDone()) {
+                        continue;
+                    }
+                    this.inFlight++;
+                    granted.add(waiter);
+                    permits.add(new Permit(this, this.generation));
+                }
+            }
+            for (var i = 0; i < granted.size(); i++) {
+                if (!granted.get(i).complete(permits.get(i))) {
+                    permits.get(i).release(Outcome.IGNORED, null);
+                }
+            }
+        }
+
+        /**
+         * 許可を止める期限が過ぎた時点で、許可を再開するよう予約します。
+         *
+         * @param delayNanos 期限までの時間(ナノ秒)
+         */
+        private void scheduleWakeup(final long delayNanos) {
+            if (this.wakeupScheduled || this.waiters.isEmpty()) {
+                return;
+            }
+            this.wakeupScheduled = true;
+            CompletableFuture.delayedExecutor(delayNanos, TimeUnit.NANOSECONDS).execute(() -> {
+                synchronized (this) {
+                    this.wakeupScheduled = false;
+                }
+                dispatch();
+            });
+        }
+
+        /**
+         * 許可を返却し、結果を基に上限を調整します。
+         *
+         * @param permit           許可
+         * @param outcome          結果の分類
+         * @param rttNanos         レスポンスの時間(ナノ秒)
+         * @param retryAfterMillis Retry-Afterの時間(ミリ秒)。指定が無い場合は-1
+         */
+        private void release(final Permit permit, final Outcome outcome, final long rttNanos, final long retryAfterMillis) {
+            synchronized (this) {
+                final var inFlightBefore = this.inFlight--;
+                if (outcome == Outcome.SUCCESS) {
+                    onSuccess(permit, inFlightBefore, rttNanos);
+                } else if (outcome == Outcome.DROPPED) {
+                    onDropped(permit, retryAfterMillis);
+                }
+            }
+            dispatch();
+        }
+
+        /**
+         * レスポンスの時間が平均から外れていない場合は上限を増やし、外れている場合は減らします。
+         * 上限の半分も使っていない場合は、上限が足りているため増やしません。
+         * 同時に許可したリクエストが揃って遅れた場合に何度も減らさないよう、減らすのは同じ窓の中で1回だけです。
+         *
+         * @param permit         許可
+         * @param inFlightBefore 返却前の許可中のリクエスト数
+         * @param rttNanos       レスポンスの時間(ナノ秒)
+         */
+        private void onSuccess(final Permit permit, final int inFlightBefore, final long rttNanos) {
+            final var current = this.limit;
+            if (this.rttEwmaNanos > 0 && rttNanos > this.rttEwmaNanos * this.config.getLatencyTolerance()) {
+                if (permit.generation == this.generation) {
+                    this.generation++;
+                    this.limit = Math.max(current * LATENCY_BACKOFF_RATIO, this.config.getMinLimit());
+                }
+            } else if (inFlightBefore >= current / 2) {
+                this.limit = Math.min(current + 1 / current, this.maxLimit);
+            }
+            this.rttEwmaNanos = this.rttEwmaNanos == 0 ? rttNanos : this.rttEwmaNanos * (1 - EWMA_ALPHA) + rttNanos * EWMA_ALPHA;
+        }
+
+        /**
+         * 上限を減らし、Retry-Afterが指定されている場合は許可を止めます。
+         *
+         * @param permit           許可
+         * @param retryAfterMillis Retry-Afterの時間(ミリ秒)。指定が無い場合は-1
+         */
+        private void onDropped(final Permit permit, final long retryAfterMillis) {
+            if (permit.generation == this.generation) {
+                this.generation++;
+                this.limit = Math.max(this.limit * this.config.getBackoffRatio(), this.config.getMinLimit());
+                log.info("decrease concurrency limit. host=".concat(this.host).concat(", limit=").concat(String.format("%.2f", this.limit)));
+            }
+            if (retryAfterMillis > 0) {
+                final var pauseMillis = Math.min(retryAfterMillis, TimeUnit.SECONDS.toMillis(this.config.getMaxRetryAfterSeconds()));
+                final var until = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(pauseMillis);
+                if (until - this.pausedUntilNanos > 0 || this.pausedUntilNanos == 0) {
+                    this.pausedUntilNanos = until;
+                }
+                log.info("pause requests by Retry-After. host=".concat(this.host).concat(", millis=").concat(String.valueOf(pauseMillis)));
+            }
+        }
+
+    }
+
+}
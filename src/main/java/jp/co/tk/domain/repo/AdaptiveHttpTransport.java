@@ -0,0 +1,124 @@
+package jp.co.tk.domain.repo;
+
+import org.springframework.beans.factory.DisposableBean;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * {@link AdaptiveConcurrencyLimiter}の許可を得てから、リクエストを送信します。
+ * <p>
+ * 同期の場合はレスポンスヘッダーを受信するまでをレスポンスの時間とし、レスポンスを閉じた時点で許可を返却します。
+ * 非同期の場合はレスポンスボディをすべて受信した時点で許可を返却します。
+ */
+public class AdaptiveHttpTransport implements HttpTransport, DisposableBean {
+
+    /**
+     * 許可を得た後にリクエストを送信するオブジェクトです。
+     */
+    private final HttpTransport delegate;
+
+    /**
+     * 同時リクエスト数を調整するオブジェクトです。
+     */
+    private final AdaptiveConcurrencyLimiter limiter;
+
+    /**
+     * @param delegate 許可を得た後にリクエストを送信するオブジェクト
+     * @param limiter  同時リクエスト数を調整するオブジェクト
+     */
+    public AdaptiveHttpTransport(final HttpTransport delegate, final AdaptiveConcurrencyLimiter limiter) {
+        this.delegate = delegate;
+        this.limiter = limiter;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Response get(final String url, final String userAgent, final Map<String, String> headers) throws IOException {
+        final var permit = this.limiter.acquire(MeteredHttpTransport.hostOf(url));
+        final Response response;
+        try {
+            response = this.delegate.get(url, userAgent, headers);
+        } catch (final IOException | RuntimeException e) {
+            permit.release(e);
+            throw e;
+        }
+        permit.responded();
+        return new LimitedResponse(response, permit);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompletableFuture<Response> getAsync(final String url, final String userAgent, final Map<String, String> headers) {
+        return this.limiter.acquireAsync(MeteredHttpTransport.hostOf(url))
+                .thenCompose(permit -> this.delegate.getAsync(url, userAgent, headers)
+                        .whenComplete((response, e) -> permit.release(e)));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void destroy() throws Exception {
+        if (this.delegate instanceof DisposableBean) {
+            ((DisposableBean) this.delegate).destroy();
+        }
+    }
+
+    /**
+     * 閉じた時点で許可を返却するレスポンスです。
+     */
+    private static class LimitedResponse implements Response {
+
+        private final Response response;
+
+        private final AdaptiveConcurrencyLimiter.Permit permit;
+
+        private LimitedResponse(final Response response, final AdaptiveConcurrencyLimiter.Permit permit) {
+            this.response = response;
+            this.permit = permit;
+        }
+
+        @Override
+        public int statusCode() {
+            return this.response.statusCode();
+        }
+
+        @Override
+        public String header(final String name) {
+            return this.response.header(name);
+        }
+
+        @Override
+        public String charset() {
+            return this.response.charset();
+        }
+
+        @Override
+        public InputStream body() throws IOException {
+            return this.response.body();
+        }
+
+        @Override
+        public byte[] bodyAsBytes() throws IOException {
+            return this.response.bodyAsBytes();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                this.response.close();
+            } finally {
+                this.permit.release(null);
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,50 @@
+package jp.co.tk.domain.repo;
+
+import java.net.URL;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Webサイトに非同期でリクエストを送信し、HTML等の情報を取得するIFを定義します。
+ * <p>
+ * {@link WebContentRepository}と同じ情報を取得しますが、レスポンスを待つ間スレッドを占有しないため、
+ * 少ないスレッドで多数のリクエストを同時に処理できます。
+ * 失敗した場合は、{@link java.io.IOException}を原因とする例外でFutureが完了します。
+ */
+public interface AsyncWebContentRepository<T, U> {
+
+    /**
+     * Webコンテンツを非同期に取得します。
+     *
+     * @param productId
+     * @return 実装基で定義したクラス
+     */
+    CompletableFuture<T> fetchByProductIdAsync(U productId);
+
+    /**
+     * limit offsetを基に、出品者の商品の一覧を非同期に取得します。
+     *
+     * @param seller
+     * @param limit
+     * @param offset
+     * @return 実装基で定義したクラス
+     */
+    CompletableFuture<Set<U>> fetchProductNameListPageBySellerAsync(String seller, int limit, int offset);
+
+    /**
+     * 画像データを非同期に取得します。
+     *
+     * @param url 画像のURL
+     * @return バイナリデータ
+     */
+    CompletableFuture<byte[]> fetchProductImgDataAsync(final URL url);
+
+    /**
+     * 商品の合計数を非同期に取得します。
+     *
+     * @param seller 出品者
+     * @return 商品数
+     */
+    CompletableFuture<Integer> fetchTotalNumberOfProductsAsync(final String seller);
+
+}
@@ -0,0 +1,408 @@
+package jp.co.tk.domain.repo;
+
+import jp.co.tk.config.ScrapingProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.stereotype.Repository;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 処理済みの一覧ページ、商品、画像と、CSVファイルへ書き込み済みの商品をファイルに記録し、中断した処理を再開できるようにします。
+ * <p>
+ * 出品者毎の進捗は「出品者名.log」に追記され、全ての処理が完了した時点で削除されます。
+ * 取得済みのオークションIDは「seen-auction-ids」に追記され、実行をまたいで保持されます。
+ */
+@Slf4j
+@Repository
+public class CheckpointStore implements DisposableBean {
+
+    /**
+     * 一覧ページの処理済みを表すレコードの種類です。
+     */
+    private static final String PAGE = "PAGE";
+
+    /**
+     * 商品の処理済みを表すレコードの種類です。
+     */
+    private static final String PRODUCT = "PRODUCT";
+
+    /**
+     * 画像の処理済みを表すレコードの種類です。
+     */
+    private static final String IMAGE = "IMAGE";
+
+    /**
+     * CSVファイルへの書き込み済みを表すレコードの種類です。
+     */
+    private static final String ROW = "ROW";
+
+    /**
+     * レコードの区切り文字です。
+     */
+    private static final String TAB = "\t";
+
+    /**
+     * 出品者毎の進捗ファイルの拡張子です。
+     */
+    private static final String EXTENSION = ".log";
+
+    /**
+     * 取得済みのオークションIDのファイル名です。
+     */
+    private static final String SEEN_FILE = "seen-auction-ids";
+
+    /**
+     * チェックポイントの設定です。
+     */
+    private final ScrapingProperties.Checkpoint config;
+
+    /**
+     * 出品者名をキーとした進捗です。
+     */
+    private final ConcurrentMap<String, SellerCheckpoint> sellers = new ConcurrentHashMap<>();
+
+    /**
+     * 前回までの実行で取得済みのオークションIDです。
+     */
+    private volatile Set<String> seenBefore = Collections.emptySet();
+
+    /**
+     * 取得済みのオークションIDを追記するファイルです。
+     */
+    private BufferedWriter seenWriter;
+
+    public CheckpointStore(final ScrapingProperties properties) {
+        this.config = properties.getCheckpoint();
+    }
+
+    /**
+     * 取得済みのオークションIDを読み込み、記録を開始します。
+     *
+     * @throws IOException
+     */
+    public synchronized void open() throws IOException {
+        if (!this.config.isEnabled()) {
+            return;
+        }
+        final var dir = Paths.get(this.config.getDir());
+        Files.createDirectories(dir);
+        final var seenFile = dir.resolve(SEEN_FILE);
+        if (Files.exists(seenFile)) {
+            final Set<String> seen = ConcurrentHashMap.newKeySet();
+            seen.addAll(Files.readAllLines(seenFile, StandardCharsets.UTF_8));
+            this.seenBefore = seen;
+        }
+        if (this.seenWriter == null) {
+            this.seenWriter = Files.newBufferedWriter(seenFile, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        }
+    }
+
+    /**
+     * 一覧ページが処理済みであるかを返却します。
+     *
+     * @param seller 出品者
+     * @param offset ページ番号
+     * @return 処理済みの場合はtrue
+     */
+    public boolean isPageDone(final String seller, final int offset) {
+        return this.config.isEnabled() && get(seller).pages.contains(String.valueOf(offset));
+    }
+
+    /**
+     * 一覧ページを処理済みとして記録します。
+     *
+     * @param seller 出品者
+     * @param offset ページ番号
+     */
+    public void markPageDone(final String seller, final int offset) {
+        if (this.config.isEnabled()) {
+            get(seller).append(PAGE, String.valueOf(offset));
+        }
+    }
+
+    /**
+     * 商品が処理済みであるかを返却します。
+     * 前回の実行以降の商品のみを取得するモードでは、前回までの実行で取得済みの商品も処理済みとして扱います。
+     *
+     * @param seller    出品者
+     * @param auctionId オークションID
+     * @return 処理済みの場合はtrue
+     */
+    public boolean isProductDone(final String seller, final String auctionId) {
+        if (!this.config.isEnabled()) {
+            return false;
+        }
+        if (this.config.getMode() == ScrapingProperties.Checkpoint.Mode.SINCE_LAST_RUN && this.seenBefore.contains(auctionId)) {
+            return true;
+        }
+        return get(seller).products.contains(auctionId);
+    }
+
+    /**
+     * 商品を処理済みとして記録します。
+     *
+     * @param seller    出品者
+     * @param auctionId オークションID
+     */
+    public void markProductDone(final String seller, final String auctionId) {
+        if (!this.config.isEnabled()) {
+            return;
+        }
+        get(seller).append(PRODUCT, auctionId);
+        synchronized (this) {
+            if (this.seenWriter == null) {
+                return;
+            }
+            try {
+                this.seenWriter.write(auctionId);
+                this.seenWriter.newLine();
+                this.seenWriter.flush();
+            } catch (final IOException e) {
+                log.error("Catch CheckpointStore.markProductDone. auctionId=".concat(auctionId), e);
+            }
+        }
+    }
+
+    /**
+     * 商品をCSVファイルへ書き込み済みであるかを返却します。
+     * 画像の出力が完了していない商品を再び取得した場合に、同じ行を重複して書き込まないために使用します。
+     *
+     * @param seller    出品者
+     * @param auctionId オークションID
+     * @return 書き込み済みの場合はtrue
+     */
+    public boolean isRowWritten(final String seller, final String auctionId) {
+        return this.config.isEnabled() && get(seller).rows.contains(auctionId);
+    }
+
+    /**
+     * 商品をCSVファイルへ書き込み済みとして記録します。
+     *
+     * @param seller    出品者
+     * @param auctionId オークションID
+     */
+    public void markRowWritten(final String seller, final String auctionId) {
+        if (this.config.isEnabled()) {
+            get(seller).append(ROW, auctionId);
+        }
+    }
+
+    /**
+     * 画像が処理済みであるかを返却します。
+     *
+     * @param seller    出品者
+     * @param auctionId オークションID
+     * @param imageName 画像名
+     * @return 処理済みの場合はtrue
+     */
+    public boolean isImageDone(final String seller, final String auctionId, final String imageName) {
+        return this.config.isEnabled() && get(seller).images.contains(auctionId.concat(TAB).concat(imageName));
+    }
+
+    /**
+     * 画像を処理済みとして記録します。
+     *
+     * @param seller    出品者
+     * @param auctionId オークションID
+     * @param imageName 画像名
+     */
+    public void markImageDone(final String seller, final String auctionId, final String imageName) {
+        if (this.config.isEnabled()) {
+            get(seller).append(IMAGE, auctionId.concat(TAB).concat(imageName));
+        }
+    }
+
+    /**
+     * 全ての処理が完了したため、出品者毎の進捗を削除します。
+     * 取得済みのオークションIDは削除しません。
+     *
+     * @throws IOException
+     */
+    public synchronized void complete() throws IOException {
+        if (!this.config.isEnabled()) {
+            return;
+        }
+        for (final var checkpoint : this.sellers.values()) {
+            checkpoint.close();
+            Files.deleteIfExists(checkpoint.file);
+        }
+        this.sellers.clear();
+        try (final var files = Files.newDirectoryStream(Paths.get(this.config.getDir()), "*".concat(EXTENSION))) {
+            for (final var file : files) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void destroy() throws IOException {
+        for (final var checkpoint : this.sellers.values()) {
+            checkpoint.close();
+        }
+        this.sellers.clear();
+        if (this.seenWriter != null) {
+            this.seenWriter.close();
+            this.seenWriter = null;
+        }
+    }
+
+    /**
+     * 出品者の進捗を取得します。初回はファイルから読み込みます。
+     *
+     * @param seller 出品者
+     * @return 進捗
+     */
+    private SellerCheckpoint get(final String seller) {
+        return this.sellers.computeIfAbsent(seller, x -> {
+            final var file = Paths.get(this.config.getDir(), URLEncoder.encode(x, StandardCharsets.UTF_8).concat(EXTENSION));
+            final var checkpoint = new SellerCheckpoint(file);
+            try {
+                checkpoint.load();
+            } catch (final IOException e) {
+                log.error("Catch CheckpointStore.get. seller=".concat(x), e);
+            }
+            return checkpoint;
+        });
+    }
+
+    /**
+     * 出品者1人分の進捗を表します。
+     */
+    private static class SellerCheckpoint {
+
+        /**
+         * 進捗ファイルです。
+         */
+        private final Path file;
+
+        /**
+         * 処理済みのページ番号です。
+         */
+        private final Set<String> pages = ConcurrentHashMap.newKeySet();
+
+        /**
+         * 処理済みのオークションIDです。
+         */
+        private final Set<String> products = ConcurrentHashMap.newKeySet();
+
+        /**
+         * CSVファイルへ書き込み済みのオークションIDです。
+         */
+        private final Set<String> rows = ConcurrentHashMap.newKeySet();
+
+        /**
+         * 処理済みの「オークションID タブ 画像名」です。
+         */
+        private final Set<String> images = ConcurrentHashMap.newKeySet();
+
+        /**
+         * 進捗ファイルに追記するためのオブジェクトです。
+         */
+        private BufferedWriter writer;
+
+        SellerCheckpoint(final Path file) {
+            this.file = file;
+        }
+
+        /**
+         * 進捗ファイルを読み込みます。
+         *
+         * @throws IOException
+         */
+        void load() throws IOException {
+            if (!Files.exists(this.file)) {
+                return;
+            }
+            for (final var line : Files.readAllLines(this.file, StandardCharsets.UTF_8)) {
+                final var separator = line.indexOf(TAB);
+                if (separator < 0) {
+                    continue;
+                }
+                final var value = line.substring(separator + 1);
+                switch (line.substring(0, separator)) {
+                    case PAGE:
+                        this.pages.add(value);
+                        break;
+                    case PRODUCT:
+                        this.products.add(value);
+                        break;
+                    case ROW:
+                        this.rows.add(value);
+                        break;
+                    case IMAGE:
+                        this.images.add(value);
+                        break;
+                    default:
+                        break;
+                }
+            }
+        }
+
+        /**
+         * 記録を追加し、ファイルに追記します。
+         *
+         * @param type  レコードの種類
+         * @param value 値
+         */
+        synchronized void append(final String type, final String value) {
+            switch (type) {
+                case PAGE:
+                    this.pages.add(value);
+                    break;
+                case PRODUCT:
+                    this.products.add(value);
+                    break;
+                case ROW:
+                    this.rows.add(value);
+                    break;
+                default:
+                    this.images.add(value);
+                    break;
+            }
+            try {
+                if (this.writer == null) {
+                    this.writer = Files.newBufferedWriter(this.file, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+                }
+                this.writer.write(type);
+                this.writer.write(TAB);
+                this.writer.write(value);
+                this.writer.newLine();
+                this.writer.flush();
+            } catch (final IOException e) {
+                log.error("Catch CheckpointStore.append. file=".concat(this.file.toString()), e);
+            }
+        }
+
+        /**
+         * 進捗ファイルを閉じます。
+         */
+        synchronized void close() {
+            if (this.writer == null) {
+                return;
+            }
+            try {
+                this.writer.close();
+            } catch (final IOException e) {
+                log.error("Catch CheckpointStore.close. file=".concat(this.file.toString()), e);
+            }
+            this.writer = null;
+        }
+
+    }
+
+}
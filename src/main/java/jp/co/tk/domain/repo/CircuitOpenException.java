@@ -0,0 +1,17 @@
+package jp.co.tk.domain.repo;
+
+import java.io.IOException;
+
+/**
+ * サーキットブレーカーがリクエストを止めているため、リクエストを送信せずに失敗したことを表します。
+ */
+public class CircuitOpenException extends IOException {
+
+    /**
+     * @param host ホスト名
+     */
+    public CircuitOpenException(final String host) {
+        super("circuit is open. host=".concat(host));
+    }
+
+}
@@ -0,0 +1,329 @@
+package jp.co.tk.domain.repo;
+
+import jp.co.tk.config.ScrapingProperties;
+import jp.co.tk.domain.model.YAProduct;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.stereotype.Repository;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 再送しても失敗した出品者、一覧ページ、商品、画像をファイルに記録し、次の実行で再び取得できるようにします。
+ * <p>
+ * 実行中の失敗は「ファイル名.new」に追記し、実行が終わった時点で前回のファイルと置き換えます。
+ * 実行が中断された場合は前回のファイルが残るため、次の実行で再び取得します。
+ */
+@Slf4j
+@Repository
+public class DeadLetterStore implements DisposableBean {
+
+    /**
+     * レコードの区切り文字です。
+     */
+    private static final String TAB = "\t";
+
+    /**
+     * 実行中の記録のファイルの拡張子です。
+     */
+    private static final String NEW_EXTENSION = ".new";
+
+    /**
+     * 1レコードの項目数です。
+     */
+    private static final int COLUMNS = 8;
+
+    /**
+     * 記録の設定です。
+     */
+    private final ScrapingProperties.DeadLetter config;
+
+    /**
+     * 実行中に記録したレコードです。同じ失敗を重複して記録しません。
+     */
+    private final Set<String> recorded = ConcurrentHashMap.newKeySet();
+
+    /**
+     * 実行中の失敗を追記するファイルです。
+     */
+    private BufferedWriter writer;
+
+    public DeadLetterStore(final ScrapingProperties properties) {
+        this.config = properties.getDeadLetter();
+    }
+
+    /**
+     * 前回の実行で失敗した処理を読み込み、記録を開始します。
+     *
+     * @return 前回の実行で失敗した処理
+     * @throws IOException
+     */
+    public synchronized List<Entry> open() throws IOException {
+        if (!this.config.isEnabled()) {
+            return Collections.emptyList();
+        }
+        final var file = file();
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        final var entries = new ArrayList<Entry>();
+        if (Files.exists(file)) {
+            for (final var line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+                final var entry = Entry.parse(line);
+                if (entry != null) {
+                    entries.add(entry);
+                }
+            }
+            log.info("replay dead letters. count=" + entries.size());
+        }
+        this.recorded.clear();
+        if (this.writer != null) {
+            this.writer.close();
+        }
+        this.writer = Files.newBufferedWriter(newFile(), StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        return entries;
+    }
+
+    /**
+     * 商品数を取得できなかった出品者を記録します。
+     *
+     * @param seller 出品者
+     */
+    public void recordSeller(final String seller) {
+        append(new Entry(Type.SELLER, seller, -1, "", "", "", "", ""));
+    }
+
+    /**
+     * 取得できなかった一覧ページを記録します。
+     *
+     * @param seller 出品者
+     * @param page   ページ番号
+     */
+    public void recordPage(final String seller, final int page) {
+        append(new Entry(Type.PAGE, seller, page, "", "", "", "", ""));
+    }
+
+    /**
+     * 取得できなかった商品を記録します。
+     *
+     * @param seller        出品者
+     * @param page          ページ番号
+     * @param idAndCategory IDとカテゴリ
+     */
+    public void recordProduct(final String seller, final int page, final YAProduct.IdAndCategory idAndCategory) {
+        append(new Entry(Type.PRODUCT, seller, page, idAndCategory.getId(), idAndCategory.getCategory(), "", "", ""));
+    }
+
+    /**
+     * 出力できなかった画像を記録します。
+     *
+     * @param seller    出品者
+     * @param auctionId オークションID
+     * @param imageName 画像名
+     * @param url       画像のURL
+     * @param dir       出力先のディレクトリ
+     */
+    public void recordImage(final String seller, final String auctionId, final String imageName, final URL url, final String dir) {
+        append(new Entry(Type.IMAGE, seller, -1, auctionId, "", imageName, url.toString(), dir));
+    }
+
+    /**
+     * 実行中の記録で、前回の実行の記録を置き換えます。失敗がなかった場合はファイルを削除します。
+     *
+     * @throws IOException
+     */
+    public synchronized void commit() throws IOException {
+        if (this.writer == null) {
+            return;
+        }
+        this.writer.close();
+        this.writer = null;
+        if (this.recorded.isEmpty()) {
+            Files.deleteIfExists(newFile());
+            Files.deleteIfExists(file());
+            return;
+        }
+        Files.move(newFile(), file(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        log.warn("some requests failed after retries. they will be replayed on the next run. count=" + this.recorded.size() + " file=" + this.config.getFile());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void destroy() throws IOException {
+        if (this.writer != null) {
+            this.writer.close();
+            this.writer = null;
+        }
+    }
+
+    /**
+     * レコードを追記します。
+     *
+     * @param entry レコード
+     */
+    private void append(final Entry entry) {
+        if (!this.config.isEnabled()) {
+            return;
+        }
+        final var line = entry.format();
+        if (!this.recorded.add(line)) {
+            return;
+        }
+        synchronized (this) {
+            if (this.writer == null) {
+                return;
+            }
+            try {
+                this.writer.write(line);
+                this.writer.newLine();
+                this.writer.flush();
+            } catch (final IOException e) {
+                log.error("Catch DeadLetterStore.append. line=".concat(line), e);
+            }
+        }
+    }
+
+    private Path file() {
+        return Paths.get(this.config.getFile());
+    }
+
+    private Path newFile() {
+        return Paths.get(this.config.getFile().concat(NEW_EXTENSION));
+    }
+
+    /**
+     * 失敗した処理の種類です。
+     */
+    public enum Type {
+
+        /**
+         * 出品者の商品数です。
+         */
+        SELLER,
+
+        /**
+         * 一覧ページです。
+         */
+        PAGE,
+
+        /**
+         * 商品詳細です。
+         */
+        PRODUCT,
+
+        /**
+         * 画像です。
+         */
+        IMAGE
+
+    }
+
+    /**
+     * 失敗した処理の記録です。種類毎に使用しない項目は空文字、ページ番号は-1です。
+     */
+    @Getter
+    public static final class Entry {
+
+        /**
+         * 失敗した処理の種類
+         */
+        private final Type type;
+
+        /**
+         * 出品者名
+         */
+        private final String seller;
+
+        /**
+         * ページ番号(0始まり)
+         */
+        private final int page;
+
+        /**
+         * オークションID
+         */
+        private final String auctionId;
+
+        /**
+         * カテゴリ
+         */
+        private final String category;
+
+        /**
+         * 画像名
+         */
+        private final String imageName;
+
+        /**
+         * 画像URL
+         */
+        private final String url;
+
+        /**
+         * 画像の出力先ディレクトリ
+         */
+        private final String dir;
+
+        private Entry(final Type type, final String seller, final int page, final String auctionId, final String category,
+                      final String imageName, final String url, final String dir) {
+            this.type = type;
+            this.seller = seller;
+            this.page = page;
+            this.auctionId = auctionId;
+            this.category = category;
+            this.imageName = imageName;
+            this.url = url;
+            this.dir = dir;
+        }
+
+        /**
+         * 商品のIDとカテゴリを取得します。
+         *
+         * @return IDとカテゴリ
+         */
+        public YAProduct.IdAndCategory getIdAndCategory() {
+            return new YAProduct.IdAndCategory(this.auctionId, this.category);
+        }
+
+        private String format() {
+            return String.join(TAB, this.type.name(), this.seller, String.valueOf(this.page), this.auctionId, this.category, this.imageName, this.url, this.dir);
+        }
+
+        /**
+         * 1行を解析します。
+         *
+         * @param line 行
+         * @return レコード。解析できない場合はnull
+         */
+        private static Entry parse(final String line) {
+            final var values = line.split(TAB, -1);
+            if (values.length != COLUMNS) {
+                return null;
+            }
+            try {
+                return new Entry(Type.valueOf(values[0]), values[1], Integer.parseInt(values[2]), values[3], values[4], values[5], values[6], values[7]);
+            } catch (final IllegalArgumentException e) {
+                log.error("Catch DeadLetterStore.parse. line=".concat(line), e);
+                return null;
+            }
+        }
+
+    }
+
+}
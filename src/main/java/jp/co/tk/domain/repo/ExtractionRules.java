@@ -0,0 +1,113 @@
+package jp.co.tk.domain.repo;
+
+import jp.co.tk.config.ScrapingProperties;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.jsoup.select.Evaluator;
+import org.jsoup.select.QueryParser;
+import org.springframework.stereotype.Component;
+
+/**
+ * ページから項目を抜き出すルールを保持します。
+ * <p>
+ * 設定のCSSセレクターは起動時に1回だけ{@link Evaluator}へコンパイルし、全スレッドで共有します。
+ * セレクターの書式が誤っている場合は、起動時に例外となります。
+ */
+@Slf4j
+@Getter
+@Component
+public class ExtractionRules {
+
+    /**
+     * 商品ページのタイトルです。
+     */
+    private final Evaluator title;
+
+    /**
+     * 商品ページの開始価格を含む詳細です。
+     */
+    private final Evaluator detail;
+
+    /**
+     * 開始価格が、テキストを持つ詳細の何番目(0始まり)であるかを表します。
+     */
+    private final int startingPriceIndex;
+
+    /**
+     * 商品ページの説明文です。
+     */
+    private final Evaluator description;
+
+    /**
+     * 商品ページの即決価格です。
+     */
+    private final Evaluator buyoutPrice;
+
+    /**
+     * 商品ページの画像です。
+     */
+    private final Evaluator image;
+
+    /**
+     * 画像URLを持つ属性です。
+     */
+    private final String imageAttr;
+
+    /**
+     * 商品ページの全ての画像を含む領域です。
+     */
+    private final Evaluator imageContainer;
+
+    /**
+     * 出品者ページの商品のIDとカテゴリを持つ要素です。
+     */
+    private final Evaluator sellerItem;
+
+    /**
+     * 商品のIDを持つ属性です。
+     */
+    private final String idAttr;
+
+    /**
+     * 商品のカテゴリを持つ属性です。
+     */
+    private final String categoryAttr;
+
+    /**
+     * 出品者ページの商品の合計数です。
+     */
+    private final Evaluator total;
+
+    /**
+     * @param properties 抜き出すルールの設定
+     */
+    public ExtractionRules(final ScrapingProperties properties) {
+        final var product = properties.getExtraction().getProduct();
+        final var seller = properties.getExtraction().getSeller();
+        this.title = compile(product.getTitle());
+        this.detail = compile(product.getDetail());
+        this.startingPriceIndex = product.getStartingPriceIndex();
+        this.description = compile(product.getDescription());
+        this.buyoutPrice = compile(product.getBuyoutPrice());
+        this.image = compile(product.getImage());
+        this.imageAttr = product.getImageAttr();
+        this.imageContainer = compile(product.getImageContainer());
+        this.sellerItem = compile(seller.getItem());
+        this.idAttr = seller.getIdAttr();
+        this.categoryAttr = seller.getCategoryAttr();
+        this.total = compile(seller.getTotal());
+    }
+
+    /**
+     * CSSセレクターをコンパイルします。
+     *
+     * @param cssQuery CSSセレクター
+     * @return コンパイルしたセレクター
+     */
+    private static Evaluator compile(final String cssQuery) {
+        final var evaluator = QueryParser.parse(cssQuery);
+        log.debug("compile extraction rule. query=".concat(cssQuery));
+        return evaluator;
+    }
+
+}
@@ -0,0 +1,200 @@
+package jp.co.tk.domain.repo;
+
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import jp.co.tk.config.ScrapingProperties;
+import org.springframework.stereotype.Component;
+
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.URL;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ホスト単位のトークンバケットでリクエストの間隔を制御します。
+ * 異なるホストへのリクエストは互いに待ち合わせずに実行できます。
+ */
+@Component
+public class HostRateLimiter {
+
+    /**
+     * 待機時間のメトリクス名です。
+     */
+    static final String WAIT_TIMER = "scraper.ratelimit.wait";
+
+    /**
+     * ジッターを取得するためのオブジェクトです。
+     */
+    private final static Random random = new Random();
+
+    /**
+     * 間隔制御の設定です。
+     */
+    private final ScrapingProperties.RateLimit config;
+
+    /**
+     * ホスト名をキーとしたバケットです。
+     */
+    private final ConcurrentMap<String, TokenBucket> buckets = new ConcurrentHashMap<>();
+
+    public HostRateLimiter(final ScrapingProperties properties) {
+        this.config = properties.getRateLimit();
+    }
+
+    /**
+     * URLのホストに対するリクエストが許可されるまで待機します。
+     *
+     * @param url リクエスト先
+     * @throws InterruptedIOException 待機中に割り込まれた場合
+     */
+    public void acquire(final URL url) throws InterruptedIOException {
+        acquireByHost(url.getHost());
+    }
+
+    /**
+     * URLのホストに対するリクエストが許可されるまで待機します。
+     *
+     * @param url リクエスト先
+     * @throws InterruptedIOException 待機中に割り込まれた場合
+     */
+    public void acquire(final String url) throws InterruptedIOException {
+        acquireByHost(URI.create(url).getHost());
+    }
+
+    /**
+     * ホストに対するリクエストが許可されるまで待機します。
+     *
+     * @param host ホスト名
+     * @throws InterruptedIOException 待機中に割り込まれた場合
+     */
+    public void acquireByHost(final String host) throws InterruptedIOException {
+        final var waitNanos = reserve(host);
+        if (waitNanos <= 0) {
+            return;
+        }
+        try {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for ".concat(host));
+        }
+    }
+
+    /**
+     * URLのホストに対するリクエストが許可された時点で完了するFutureを返却します。
+     * 待機中にスレッドを占有しません。
+     *
+     * @param url リクエスト先
+     * @return 許可された時点で完了するFuture
+     */
+    public CompletableFuture<Void> acquireAsync(final String url) {
+        final var waitNanos = reserve(URI.create(url).getHost());
+        if (waitNanos <= 0) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return CompletableFuture.runAsync(() -> {
+        }, CompletableFuture.delayedExecutor(waitNanos, TimeUnit.NANOSECONDS));
+    }
+
+    /**
+     * ホストに対するトークンを1つ予約し、リクエストまでに待つべき時間を返却します。
+     *
+     * @param host ホスト名
+     * @return 待機時間(ナノ秒)
+     */
+    public long reserve(final String host) {
+        final var bucket = this.buckets.computeIfAbsent(host, this::createBucket);
+        final var waitNanos = bucket.reserve() + bucket.jitterNanos();
+        Timer.builder(WAIT_TIMER)
+                .description("Time spent waiting for the per-host rate limit")
+                .tag("host", host)
+                .register(Metrics.globalRegistry)
+                .record(Math.max(waitNanos, 0), TimeUnit.NANOSECONDS);
+        return waitNanos;
+    }
+
+    /**
+     * ホストの設定を基にバケットを生成します。
+     *
+     * @param host ホスト名
+     * @return バケット
+     */
+    private TokenBucket createBucket(final String host) {
+        final ScrapingProperties.Bucket hostConfig = this.config.getHosts().getOrDefault(host, this.config);
+        return new TokenBucket(hostConfig.getPermitsPerSecond(), hostConfig.getBurst(), hostConfig.getJitterMillis());
+    }
+
+    /**
+     * トークンバケットを表します。
+     * トークンが不足している場合は前借りし、補充されるまでの時間を待機時間として返却します。
+     */
+    static class TokenBucket {
+
+        /**
+         * 1ナノ秒あたりに補充されるトークン数です。
+         */
+        private final double permitsPerNano;
+
+        /**
+         * 最大のトークン数です。
+         */
+        private final double capacity;
+
+        /**
+         * ジッターの上限(ミリ秒)です。
+         */
+        private final long jitterMillis;
+
+        /**
+         * 現在のトークン数です。負の値は予約済みで未補充の数を表します。
+         */
+        private double tokens;
+
+        /**
+         * 最後に補充した時刻です。
+         */
+        private long lastRefillNanos;
+
+        TokenBucket(final double permitsPerSecond, final int burst, final long jitterMillis) {
+            this.permitsPerNano = permitsPerSecond / TimeUnit.SECONDS.toNanos(1);
+            this.capacity = Math.max(burst, 1);
+            this.jitterMillis = jitterMillis;
+            this.tokens = this.capacity;
+            this.lastRefillNanos = System.nanoTime();
+        }
+
+        /**
+         * トークンを1つ予約します。
+         *
+         * @return 待機時間(ナノ秒)
+         */
+        synchronized long reserve() {
+            if (this.permitsPerNano <= 0) {
+                return 0;
+            }
+            final var now = System.nanoTime();
+            this.tokens = Math.min(this.capacity, this.tokens + (now - this.lastRefillNanos) * this.permitsPerNano);
+            this.lastRefillNanos = now;
+            this.tokens -= 1;
+            return this.tokens >= 0 ? 0 : (long) (-this.tokens / this.permitsPerNano);
+        }
+
+        /**
+         * ジッターをランダムで取得します。
+         *
+         * @return ジッター(ナノ秒)
+         */
+        long jitterNanos() {
+            if (this.jitterMillis <= 0) {
+                return 0;
+            }
+            return TimeUnit.MILLISECONDS.toNanos(random.nextInt((int) this.jitterMillis + 1));
+        }
+
+    }
+
+}
@@ -0,0 +1,561 @@
+package jp.co.tk.domain.repo;
+
+import jp.co.tk.config.ScrapingProperties;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.stereotype.Repository;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * HTTPレスポンスをディスクに保存するキャッシュです。
+ * <p>
+ * レスポンスボディは内容のSHA-256をファイル名として保存し、同じ内容は1つのファイルを共有します。
+ * URLとファイルの対応は「journal」に追記され、起動時に読み込まれます。
+ * 合計サイズが上限を超えた場合は、最も長く参照されていないURLから削除します。
+ */
+@Slf4j
+@Repository
+public class HttpResponseCache implements DisposableBean {
+
+    /**
+     * 追加を表すレコードの種類です。
+     */
+    private static final String PUT = "PUT";
+
+    /**
+     * 削除を表すレコードの種類です。
+     */
+    private static final String DEL = "DEL";
+
+    /**
+     * レコードの区切り文字です。
+     */
+    private static final String TAB = "\t";
+
+    /**
+     * URLとファイルの対応を記録するファイル名です。
+     */
+    private static final String JOURNAL = "journal";
+
+    /**
+     * レスポンスボディを保存するディレクトリ名です。
+     */
+    private static final String BLOBS = "blobs";
+
+    /**
+     * キャッシュの設定です。
+     */
+    private final ScrapingProperties.Cache config;
+
+    /**
+     * URLをキーとしたエントリーです。参照順に並びます。
+     */
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * ファイル毎の参照しているURLの数です。
+     */
+    private final Map<String, Integer> blobRefs = new HashMap<>();
+
+    /**
+     * キャッシュから返却した回数です。
+     */
+    private final AtomicLong hits = new AtomicLong();
+
+    /**
+     * ネットワークから取得した回数です。
+     */
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * 再検証の結果、キャッシュから返却した回数です。
+     */
+    private final AtomicLong revalidated = new AtomicLong();
+
+    /**
+     * 保存しているファイルの合計サイズです。
+     */
+    private long totalSize;
+
+    /**
+     * URLとファイルの対応を追記するためのオブジェクトです。
+     */
+    private BufferedWriter journal;
+
+    public HttpResponseCache(final ScrapingProperties properties) {
+        this.config = properties.getCache();
+    }
+
+    /**
+     * キャッシュが有効であるかを返却します。
+     *
+     * @return 有効の場合はtrue
+     */
+    public boolean isEnabled() {
+        return this.config.isEnabled();
+    }
+
+    /**
+     * URLのエントリーを取得します。
+     *
+     * @param url URL
+     * @return エントリー。存在しない場合はnull
+     */
+    public synchronized Entry get(final String url) {
+        if (!isEnabled()) {
+            return null;
+        }
+        ensureOpen();
+        final var entry = this.entries.get(url);
+        if (entry == null || !Files.exists(blobPath(entry))) {
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * エントリーのレスポンスボディのファイルを取得します。
+     *
+     * @param entry エントリー
+     * @return ファイル
+     */
+    public Path blobPath(final Entry entry) {
+        return Paths.get(this.config.getDir(), BLOBS, entry.sha);
+    }
+
+    /**
+     * エントリーが再検証せずに使用できるかを返却します。
+     *
+     * @param entry エントリー
+     * @return 有効期間内の場合はtrue
+     */
+    public boolean isFresh(final Entry entry) {
+        final var maxAgeMillis = TimeUnit.SECONDS.toMillis(this.config.getHtmlMaxAgeSeconds());
+        return System.currentTimeMillis() - entry.storedAt < maxAgeMillis;
+    }
+
+    /**
+     * レスポンスボディを書き込むための一時ファイルを生成します。
+     *
+     * @return 一時ファイル
+     * @throws IOException
+     */
+    public synchronized Path createTempFile() throws IOException {
+        ensureOpen();
+        final var blobs = Paths.get(this.config.getDir(), BLOBS);
+        Files.createDirectories(blobs);
+        return Files.createTempFile(blobs, "tmp-", ".part");
+    }
+
+    /**
+     * レスポンスボディを保存します。
+     *
+     * @param url          URL
+     * @param body         レスポンスボディ
+     * @param etag         ETagヘッダー
+     * @param lastModified Last-Modifiedヘッダー
+     * @param charset      文字コード
+     * @return エントリー
+     * @throws IOException
+     */
+    public Entry put(final String url, final byte[] body, final String etag, final String lastModified, final String charset) throws IOException {
+        final var temp = createTempFile();
+        Files.write(temp, body);
+        return put(url, temp, sha256(body), etag, lastModified, charset);
+    }
+
+    /**
+     * 一時ファイルに書き込まれたレスポンスボディを保存します。一時ファイルは移動または削除されます。
+     *
+     * @param url          URL
+     * @param temp         一時ファイル
+     * @param sha          レスポンスボディのSHA-256
+     * @param etag         ETagヘッダー
+     * @param lastModified Last-Modifiedヘッダー
+     * @param charset      文字コード
+     * @return エントリー
+     * @throws IOException
+     */
+    public synchronized Entry put(final String url, final Path temp, final String sha, final String etag, final String lastModified, final String charset) throws IOException {
+        ensureOpen();
+        final var size = Files.size(temp);
+        final var entry = new Entry(url, sha, size, StringUtils.defaultString(etag), StringUtils.defaultString(lastModified), StringUtils.defaultString(charset), System.currentTimeMillis());
+        final var blob = blobPath(entry);
+        if (Files.exists(blob)) {
+            Files.delete(temp);
+        } else {
+            Files.move(temp, blob, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        // 同じ内容で保存し直した場合にファイルを削除しないよう、新しい参照を追加してから古い参照を解放します
+        final var previous = this.entries.get(url);
+        add(entry);
+        if (previous != null) {
+            release(previous);
+        }
+        writeJournal(PUT.concat(TAB).concat(entry.toRecord()));
+        evict(url);
+        return entry;
+    }
+
+    /**
+     * 再検証の結果、内容が変わっていないため保存日時を更新します。
+     *
+     * @param entry エントリー
+     * @return 更新後のエントリー
+     */
+    public synchronized Entry touch(final Entry entry) {
+        final var touched = new Entry(entry.url, entry.sha, entry.size, entry.etag, entry.lastModified, entry.charset, System.currentTimeMillis());
+        this.entries.put(entry.url, touched);
+        writeJournal(PUT.concat(TAB).concat(touched.toRecord()));
+        return touched;
+    }
+
+    /**
+     * URLのエントリーを削除します。
+     *
+     * @param url URL
+     */
+    public synchronized void remove(final String url) {
+        if (isEnabled()) {
+            ensureOpen();
+            remove(url, true);
+        }
+    }
+
+    /**
+     * キャッシュから返却したことを記録します。
+     */
+    public void recordHit() {
+        this.hits.incrementAndGet();
+    }
+
+    /**
+     * ネットワークから取得したことを記録します。
+     */
+    public void recordMiss() {
+        this.misses.incrementAndGet();
+    }
+
+    /**
+     * 再検証の結果、キャッシュから返却したことを記録します。
+     */
+    public void recordRevalidated() {
+        this.revalidated.incrementAndGet();
+    }
+
+    /**
+     * キャッシュから返却した回数を取得します。
+     *
+     * @return 回数
+     */
+    public long getHitCount() {
+        return this.hits.get();
+    }
+
+    /**
+     * ネットワークから取得した回数を取得します。
+     *
+     * @return 回数
+     */
+    public long getMissCount() {
+        return this.misses.get();
+    }
+
+    /**
+     * 再検証の結果、キャッシュから返却した回数を取得します。
+     *
+     * @return 回数
+     */
+    public long getRevalidatedCount() {
+        return this.revalidated.get();
+    }
+
+    /**
+     * 保存しているファイルの合計サイズを取得します。
+     *
+     * @return バイト数
+     */
+    public synchronized long getSize() {
+        return this.totalSize;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void destroy() throws IOException {
+        if (this.journal != null) {
+            log.info("http cache hit=" + getHitCount() + " revalidated=" + getRevalidatedCount() + " miss=" + getMissCount() + " size=" + this.totalSize);
+            this.journal.close();
+            this.journal = null;
+        }
+    }
+
+    /**
+     * バイト列のSHA-256を16進数の文字列で取得します。
+     *
+     * @param body バイト列
+     * @return SHA-256
+     */
+    static String sha256(final byte[] body) {
+        final var digest = newDigest();
+        digest.update(body);
+        return toHex(digest.digest());
+    }
+
+    /**
+     * SHA-256のMessageDigestを生成します。
+     *
+     * @return MessageDigest
+     */
+    static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * バイト列を16進数の文字列に変換します。
+     *
+     * @param bytes バイト列
+     * @return 16進数の文字列
+     */
+    static String toHex(final byte[] bytes) {
+        final var sb = new StringBuilder(bytes.length * 2);
+        for (final var b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+            sb.append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 初回のみ、URLとファイルの対応を読み込み、整理した内容で書き直します。
+     * どのURLからも参照されていないファイルは削除します。
+     */
+    private void ensureOpen() {
+        if (this.journal != null) {
+            return;
+        }
+        try {
+            final var dir = Paths.get(this.config.getDir());
+            Files.createDirectories(dir.resolve(BLOBS));
+            final var journalFile = dir.resolve(JOURNAL);
+            if (Files.exists(journalFile)) {
+                for (final var line : Files.readAllLines(journalFile, StandardCharsets.UTF_8)) {
+                    final var columns = line.split(TAB, -1);
+                    if (PUT.equals(columns[0]) && columns.length == 8) {
+                        remove(columns[1], false);
+                        add(Entry.fromRecord(columns));
+                    } else if (DEL.equals(columns[0]) && columns.length == 2) {
+                        remove(columns[1], false);
+                    }
+                }
+            }
+            final var compacted = dir.resolve(JOURNAL.concat(".tmp"));
+            try (final var writer = Files.newBufferedWriter(compacted, StandardCharsets.UTF_8)) {
+                for (final var entry : this.entries.values()) {
+                    writer.write(PUT.concat(TAB).concat(entry.toRecord()));
+                    writer.newLine();
+                }
+            }
+            Files.move(compacted, journalFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            try (final var blobs = Files.newDirectoryStream(dir.resolve(BLOBS))) {
+                for (final var blob : blobs) {
+                    if (!this.blobRefs.containsKey(blob.getFileName().toString())) {
+                        Files.deleteIfExists(blob);
+                    }
+                }
+            }
+            this.journal = Files.newBufferedWriter(journalFile, StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+            evict(null);
+        } catch (final IOException e) {
+            throw new IllegalStateException("failed to open http cache. dir=".concat(this.config.getDir()), e);
+        }
+    }
+
+    /**
+     * エントリーを追加します。
+     *
+     * @param entry エントリー
+     */
+    private void add(final Entry entry) {
+        this.entries.put(entry.url, entry);
+        final int refs = this.blobRefs.merge(entry.sha, 1, Integer::sum);
+        if (refs == 1) {
+            this.totalSize += entry.size;
+        }
+    }
+
+    /**
+     * エントリーを削除し、参照されなくなったファイルを削除します。
+     *
+     * @param url          URL
+     * @param writeJournal trueの場合、削除を記録します
+     */
+    private void remove(final String url, final boolean writeJournal) {
+        final var entry = this.entries.remove(url);
+        if (entry == null) {
+            return;
+        }
+        release(entry);
+        if (writeJournal) {
+            writeJournal(DEL.concat(TAB).concat(url));
+        }
+    }
+
+    /**
+     * エントリーのファイルへの参照を解放し、参照されなくなったファイルを削除します。
+     *
+     * @param entry エントリー
+     */
+    private void release(final Entry entry) {
+        final int refs = this.blobRefs.merge(entry.sha, -1, Integer::sum);
+        if (refs <= 0) {
+            this.blobRefs.remove(entry.sha);
+            this.totalSize -= entry.size;
+            if (this.journal != null) {
+                try {
+                    Files.deleteIfExists(blobPath(entry));
+                } catch (final IOException e) {
+                    log.error("Catch HttpResponseCache.release. sha=".concat(entry.sha), e);
+                }
+            }
+        }
+    }
+
+    /**
+     * 合計サイズが上限以下になるまで、最も長く参照されていないエントリーから削除します。
+     *
+     * @param keep 削除しないURL
+     */
+    private void evict(final String keep) {
+        final var maxSize = this.config.getMaxSizeMb() * 1024 * 1024;
+        final var iterator = this.entries.keySet().iterator();
+        final var victims = new ArrayList<String>();
+        var size = this.totalSize;
+        while (size > maxSize && iterator.hasNext()) {
+            final var url = iterator.next();
+            if (url.equals(keep)) {
+                continue;
+            }
+            victims.add(url);
+            final var entry = this.entries.get(url);
+            if (this.blobRefs.getOrDefault(entry.sha, 0) <= 1) {
+                size -= entry.size;
+            }
+        }
+        for (final var url : victims) {
+            remove(url, true);
+        }
+    }
+
+    /**
+     * URLとファイルの対応を追記します。
+     *
+     * @param record レコード
+     */
+    private void writeJournal(final String record) {
+        try {
+            this.journal.write(record);
+            this.journal.newLine();
+            this.journal.flush();
+        } catch (final IOException e) {
+            log.error("Catch HttpResponseCache.writeJournal.", e);
+        }
+    }
+
+    /**
+     * キャッシュの1件を表します。
+     */
+    @Getter
+    @RequiredArgsConstructor
+    public static class Entry {
+
+        /**
+         * URL
+         */
+        private final String url;
+
+        /**
+         * レスポンスボディのSHA-256
+         */
+        private final String sha;
+
+        /**
+         * レスポンスボディのバイト数
+         */
+        private final long size;
+
+        /**
+         * ETagヘッダー
+         */
+        private final String etag;
+
+        /**
+         * Last-Modifiedヘッダー
+         */
+        private final String lastModified;
+
+        /**
+         * 文字コード
+         */
+        private final String charset;
+
+        /**
+         * 保存日時(エポックミリ秒)
+         */
+        private final long storedAt;
+
+        /**
+         * 再検証に使用するヘッダーを持っているかを返却します。
+         *
+         * @return ETagかLast-Modifiedを持っている場合はtrue
+         */
+        public boolean hasValidator() {
+            return StringUtils.isNotEmpty(this.etag) || StringUtils.isNotEmpty(this.lastModified);
+        }
+
+        /**
+         * journalのレコードに変換します。
+         *
+         * @return レコード
+         */
+        String toRecord() {
+            return String.join(TAB, this.url, this.sha, String.valueOf(this.size), this.etag, this.lastModified, this.charset, String.valueOf(this.storedAt));
+        }
+
+        /**
+         * journalのレコードから生成します。
+         *
+         * @param columns レコードの種類を含む列
+         * @return エントリー
+         */
+        static Entry fromRecord(final String[] columns) {
+            return new Entry(columns[1], columns[2], Long.parseLong(columns[3]), columns[4], columns[5], columns[6], Long.parseLong(columns[7]));
+        }
+
+    }
+
+}
@@ -0,0 +1,108 @@
+package jp.co.tk.domain.repo;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * HTTPのGETリクエストを送信します。
+ * <p>
+ * ステータスコードが400以上の場合は{@link org.jsoup.HttpStatusException}をスローします。
+ * レスポンスボディは圧縮を解いた状態で返却します。
+ */
+public interface HttpTransport {
+
+    /**
+     * Content-Typeの文字コードを表すパラメーターです。
+     */
+    String CHARSET_PARAM = "charset=";
+
+    /**
+     * GETリクエストを送信します。
+     *
+     * @param url       URL
+     * @param userAgent ユーザーエージェント
+     * @param headers   追加するリクエストヘッダー
+     * @return レスポンス。ボディを読み終えたら閉じてください
+     * @throws IOException
+     */
+    Response get(String url, String userAgent, Map<String, String> headers) throws IOException;
+
+    /**
+     * GETリクエストを送信し、レスポンスボディをすべて受信した時点で完了するFutureを返却します。
+     *
+     * @param url       URL
+     * @param userAgent ユーザーエージェント
+     * @param headers   追加するリクエストヘッダー
+     * @return レスポンスボディを読み込み済みのレスポンス
+     */
+    CompletableFuture<Response> getAsync(String url, String userAgent, Map<String, String> headers);
+
+    /**
+     * Content-Typeから文字コードを取得します。
+     *
+     * @param contentType Content-Type
+     * @return 文字コード。指定が無い場合はnull
+     */
+    static String charsetOf(final String contentType) {
+        if (contentType == null) {
+            return null;
+        }
+        final var index = contentType.toLowerCase(Locale.ROOT).indexOf(CHARSET_PARAM);
+        if (index == -1) {
+            return null;
+        }
+        var charset = contentType.substring(index + CHARSET_PARAM.length());
+        final var end = charset.indexOf(';');
+        if (end != -1) {
+            charset = charset.substring(0, end);
+        }
+        charset = charset.replace("\"", "").trim();
+        return charset.isEmpty() ? null : charset;
+    }
+
+    /**
+     * HTTPレスポンスを表します。
+     */
+    interface Response extends Closeable {
+
+        /**
+         * @return ステータスコード
+         */
+        int statusCode();
+
+        /**
+         * @param name ヘッダー名
+         * @return ヘッダーの値。無い場合はnull
+         */
+        String header(String name);
+
+        /**
+         * @return Content-Typeの文字コード。指定が無い場合はnull
+         */
+        default String charset() {
+            return charsetOf(header("Content-Type"));
+        }
+
+        /**
+         * @return 圧縮を解いたレスポンスボディ。このレスポンスを閉じると閉じられます
+         * @throws IOException
+         */
+        InputStream body() throws IOException;
+
+        /**
+         * レスポンスボディをすべて読み込みます。
+         *
+         * @return レスポンスボディ
+         * @throws IOException
+         */
+        default byte[] bodyAsBytes() throws IOException {
+            return body().readAllBytes();
+        }
+
+    }
+
+}
@@ -0,0 +1,15 @@
+package jp.co.tk.domain.repo;
+
+import java.io.IOException;
+
+/**
+ * IOExceptionをスローする処理を表します。
+ *
+ * @param <T> 処理結果の型
+ */
+@FunctionalInterface
+interface IOCall<T> {
+
+    T call() throws IOException;
+
+}
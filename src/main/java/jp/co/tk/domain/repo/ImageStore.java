@@ -0,0 +1,271 @@
+package jp.co.tk.domain.repo;
+
+import jp.co.tk.config.ScrapingProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.stereotype.Repository;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 画像を内容のSHA-256をファイル名として保存し、出品者・ページをまたいで共有します。
+ * <p>
+ * URLと内容の対応はメモリと「index」に保持し、取得済みのURLはダウンロードしません。
+ * URLが異なっていても内容が同じ画像は1つのファイルを共有します。
+ * 出力先には画像をハードリンクし、ハードリンクできないファイルシステムではコピーします。
+ */
+@Slf4j
+@Repository
+public class ImageStore implements DisposableBean {
+
+    /**
+     * レコードの区切り文字です。
+     */
+    private static final String TAB = "\t";
+
+    /**
+     * URLと内容の対応を記録するファイル名です。
+     */
+    private static final String INDEX = "index";
+
+    /**
+     * 画像を保存するディレクトリ名です。
+     */
+    private static final String BLOBS = "blobs";
+
+    /**
+     * ストアの設定です。
+     */
+    private final ScrapingProperties.Store config;
+
+    /**
+     * URLをキーとした内容のSHA-256です。
+     */
+    private final ConcurrentMap<String, String> index = new ConcurrentHashMap<>();
+
+    /**
+     * 取得済みのURLのため、ダウンロードしなかった回数です。
+     */
+    private final AtomicLong hits = new AtomicLong();
+
+    /**
+     * 新しい内容として保存した回数です。
+     */
+    private final AtomicLong stored = new AtomicLong();
+
+    /**
+     * 保存済みの内容と同じであったため、保存しなかった回数です。
+     */
+    private final AtomicLong duplicated = new AtomicLong();
+
+    /**
+     * URLと内容の対応を追記するためのオブジェクトです。
+     */
+    private volatile BufferedWriter indexWriter;
+
+    public ImageStore(final ScrapingProperties properties) {
+        this.config = properties.getImage().getStore();
+    }
+
+    /**
+     * ストアが有効であるかを返却します。
+     *
+     * @return 有効の場合はtrue
+     */
+    public boolean isEnabled() {
+        return this.config.isEnabled();
+    }
+
+    /**
+     * 取得済みのURLの画像を取得します。
+     *
+     * @param url 画像のURL
+     * @return 保存済みの画像。未取得の場合はnull
+     */
+    public Path find(final URL url) {
+        ensureOpen();
+        final var urlAsStr = url.toString();
+        final var sha = this.index.get(urlAsStr);
+        if (sha == null) {
+            return null;
+        }
+        final var blob = blobPath(sha);
+        if (!Files.exists(blob)) {
+            this.index.remove(urlAsStr, sha);
+            return null;
+        }
+        this.hits.incrementAndGet();
+        return blob;
+    }
+
+    /**
+     * ダウンロード用の一時ファイルをストアのディレクトリに作成します。
+     * 保存時にファイルを移動するだけで済むよう、同じファイルシステムに作成します。
+     *
+     * @return 一時ファイル
+     * @throws IOException
+     */
+    public Path createTempFile() throws IOException {
+        ensureOpen();
+        return Files.createTempFile(Paths.get(this.config.getDir()), "download", ".part");
+    }
+
+    /**
+     * ダウンロードした画像を保存し、URLとの対応を記録します。
+     * 同じ内容が保存済みの場合は、一時ファイルを削除して保存済みのファイルを返却します。
+     *
+     * @param url  画像のURL
+     * @param temp ダウンロードした一時ファイル
+     * @param sha  ダウンロード時に計算した内容のSHA-256
+     * @return 保存した画像
+     * @throws IOException
+     */
+    public Path put(final URL url, final Path temp, final String sha) throws IOException {
+        ensureOpen();
+        final var blob = blobPath(sha);
+        if (Files.exists(blob)) {
+            Files.delete(temp);
+            this.duplicated.incrementAndGet();
+        } else {
+            // 同じ内容を同時に保存した場合は置き換わるが、内容が同じため問題ない
+            Files.move(temp, blob, StandardCopyOption.ATOMIC_MOVE);
+            this.stored.incrementAndGet();
+        }
+        final var urlAsStr = url.toString();
+        if (!sha.equals(this.index.put(urlAsStr, sha))) {
+            writeIndex(urlAsStr.concat(TAB).concat(sha));
+        }
+        return blob;
+    }
+
+    /**
+     * 保存済みの画像を出力先へハードリンクします。
+     * ハードリンクできない場合はコピーします。
+     *
+     * @param blob   保存済みの画像
+     * @param target 出力先のファイル
+     * @throws IOException
+     */
+    public void link(final Path blob, final Path target) throws IOException {
+        Files.deleteIfExists(target);
+        try {
+            Files.createLink(target, blob);
+        } catch (final UnsupportedOperationException | FileSystemException e) {
+            log.debug("hard link is not available. target=".concat(target.toString()));
+            Files.copy(blob, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * 取得済みのURLのため、ダウンロードしなかった回数を取得します。
+     *
+     * @return 回数
+     */
+    public long getHitCount() {
+        return this.hits.get();
+    }
+
+    /**
+     * 新しい内容として保存した回数を取得します。
+     *
+     * @return 回数
+     */
+    public long getStoredCount() {
+        return this.stored.get();
+    }
+
+    /**
+     * 保存済みの内容と同じであったため、保存しなかった回数を取得します。
+     *
+     * @return 回数
+     */
+    public long getDuplicatedCount() {
+        return this.duplicated.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void destroy() throws IOException {
+        if (this.indexWriter != null) {
+            log.info("image store hit=" + getHitCount() + " stored=" + getStoredCount() + " duplicated=" + getDuplicatedCount());
+            this.indexWriter.close();
+            this.indexWriter = null;
+        }
+    }
+
+    /**
+     * 内容のSHA-256から、保存先のファイルを取得します。
+     *
+     * @param sha SHA-256
+     * @return ファイル
+     */
+    private Path blobPath(final String sha) {
+        return Paths.get(this.config.getDir(), BLOBS, sha);
+    }
+
+    /**
+     * 初回のみ、URLと内容の対応を読み込みます。
+     */
+    private void ensureOpen() {
+        if (this.indexWriter != null) {
+            return;
+        }
+        synchronized (this) {
+            if (this.indexWriter == null) {
+                open();
+            }
+        }
+    }
+
+    /**
+     * URLと内容の対応を読み込み、追記を開始します。
+     */
+    private void open() {
+        try {
+            final var dir = Paths.get(this.config.getDir());
+            Files.createDirectories(dir.resolve(BLOBS));
+            final var indexFile = dir.resolve(INDEX);
+            if (Files.exists(indexFile)) {
+                for (final var line : Files.readAllLines(indexFile, StandardCharsets.UTF_8)) {
+                    final var columns = line.split(TAB, -1);
+                    if (columns.length == 2) {
+                        this.index.put(columns[0], columns[1]);
+                    }
+                }
+            }
+            this.indexWriter = Files.newBufferedWriter(indexFile, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (final IOException e) {
+            throw new IllegalStateException("failed to open image store. dir=".concat(this.config.getDir()), e);
+        }
+    }
+
+    /**
+     * URLと内容の対応を追記します。
+     *
+     * @param record レコード
+     */
+    private synchronized void writeIndex(final String record) {
+        try {
+            this.indexWriter.write(record);
+            this.indexWriter.newLine();
+            this.indexWriter.flush();
+        } catch (final IOException e) {
+            log.error("Catch ImageStore.writeIndex.", e);
+        }
+    }
+
+}
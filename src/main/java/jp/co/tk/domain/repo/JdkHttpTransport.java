@@ -0,0 +1,285 @@
+package jp.co.tk.domain.repo;
+
+import jp.co.tk.config.ScrapingProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.brotli.dec.BrotliInputStream;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * 1つのjava.net.http.HttpClientを全リクエストで共有し、ホスト毎の接続を再利用します。
+ * <p>
+ * HTTP/2に対応したホストには1本の接続で多重化し、それ以外はHTTP/1.1のKeep-Aliveで接続を使い回します。
+ * gzip・deflate・brで圧縮されたレスポンスは、読み込み時に展開します。
+ * 読み込みのタイムアウトは、レスポンスヘッダーを受信するまでの時間です。
+ * <p>
+ * 応答の処理は設定した数のスレッドで行うため、少ないスレッドで多数のリクエストを並行して待つことができます。
+ */
+@Slf4j
+public class JdkHttpTransport implements HttpTransport, DisposableBean {
+
+    /**
+     * 受け入れる圧縮形式です。
+     */
+    private static final String ACCEPT_ENCODING = "gzip, deflate, br";
+
+    /**
+     * 展開時のバッファサイズです。
+     */
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * 接続をプールに戻すため、閉じる前に読み捨てるレスポンスボディの上限(バイト)です。
+     */
+    private static final long DRAIN_LIMIT = 64 * 1024;
+
+    /**
+     * ステータスコードがエラーであることを表す下限です。
+     */
+    private static final int ERROR_STATUS = 400;
+
+    /**
+     * 応答を処理するスレッドです。
+     */
+    private final ExecutorService executor;
+
+    /**
+     * 全リクエストで共有するクライアントです。
+     */
+    private final HttpClient client;
+
+    /**
+     * 読み込みのタイムアウトです。
+     */
+    private final Duration readTimeout;
+
+    /**
+     * @param config HTTPクライアントの設定
+     */
+    public JdkHttpTransport(final ScrapingProperties.Http config) {
+        final var threadFactory = new CustomizableThreadFactory("HttpClient-");
+        threadFactory.setDaemon(true);
+        this.executor = Executors.newFixedThreadPool(config.getClientThreads(), threadFactory);
+        this.client = HttpClient.newBuilder()
+                .executor(this.executor)
+                .version(config.isHttp2() ? HttpClient.Version.HTTP_2 : HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofMillis(config.getConnectTimeoutMillis()))
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .build();
+        this.readTimeout = Duration.ofMillis(config.getReadTimeoutMillis());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Response get(final String url, final String userAgent, final Map<String, String> headers) throws IOException {
+        final HttpResponse<InputStream> response;
+        try {
+            response = this.client.send(newRequest(url, userAgent, headers), HttpResponse.BodyHandlers.ofInputStream());
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted. url=".concat(url));
+        }
+
+        if (response.statusCode() >= ERROR_STATUS) {
+            response.body().close();
+            throw ThrottledException.of(response.statusCode(), url, response.headers().firstValue("Retry-After").orElse(null));
+        }
+        log.debug("url=" + url + " status=" + response.statusCode() + " version=" + response.version());
+        return new JdkResponse(response);
+    }
+
+    /**
+     * {@inheritDoc}
+     * 送受信はHttpClientのスレッドで行い、呼び出し元のスレッドを占有しません。
+     */
+    @Override
+    public CompletableFuture<Response> getAsync(final String url, final String userAgent, final Map<String, String> headers) {
+        final HttpRequest request;
+        try {
+            request = newRequest(url, userAgent, headers);
+        } catch (final MalformedURLException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        return this.client.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray()).thenApply(response -> {
+            if (response.statusCode() >= ERROR_STATUS) {
+                throw new CompletionException(ThrottledException.of(response.statusCode(), url, response.headers().firstValue("Retry-After").orElse(null)));
+            }
+            log.debug("url=" + url + " status=" + response.statusCode() + " version=" + response.version());
+            return new BufferedResponse(response);
+        });
+    }
+
+    /**
+     * リクエストを生成します。
+     *
+     * @param url       URL
+     * @param userAgent ユーザーエージェント
+     * @param headers   追加するリクエストヘッダー
+     * @return リクエスト
+     * @throws MalformedURLException
+     */
+    private HttpRequest newRequest(final String url, final String userAgent, final Map<String, String> headers) throws MalformedURLException {
+        final var builder = HttpRequest.newBuilder(toUri(url))
+                .timeout(this.readTimeout)
+                .header("User-Agent", userAgent)
+                .header("Accept-Encoding", ACCEPT_ENCODING)
+                .GET();
+        headers.forEach(builder::header);
+        return builder.build();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void destroy() {
+        this.executor.shutdown();
+    }
+
+    /**
+     * Content-Encodingに応じて、レスポンスボディを展開するストリームを返却します。
+     *
+     * @param in       レスポンスボディ
+     * @param encoding Content-Encoding
+     * @return 展開したレスポンスボディ
+     * @throws IOException
+     */
+    static InputStream decode(final InputStream in, final String encoding) throws IOException {
+        if (encoding == null) {
+            return in;
+        }
+        switch (encoding.trim().toLowerCase(Locale.ROOT)) {
+            case "gzip":
+            case "x-gzip":
+                return new GZIPInputStream(in, BUFFER_SIZE);
+            case "deflate":
+                return new InflaterInputStream(in);
+            case "br":
+                return new BrotliInputStream(in);
+            default:
+                return in;
+        }
+    }
+
+    /**
+     * URLをURIに変換します。
+     *
+     * @param url URL
+     * @return URI
+     * @throws MalformedURLException
+     */
+    private static URI toUri(final String url) throws MalformedURLException {
+        try {
+            return URI.create(url);
+        } catch (final IllegalArgumentException e) {
+            final var ex = new MalformedURLException("invalid url. url=".concat(url));
+            ex.initCause(e);
+            throw ex;
+        }
+    }
+
+    /**
+     * java.net.http.HttpResponseをラップします。
+     * HttpClientは末尾まで読まれたレスポンスの接続のみを再利用するため、閉じる際に残りを読み捨てます。
+     * 展開後のボディを読み終えても、gzipのトレーラーの後ろなどが残っている場合があります。
+     */
+    private static class JdkResponse implements Response {
+
+        private final HttpResponse<InputStream> response;
+
+        private InputStream body;
+
+        JdkResponse(final HttpResponse<InputStream> response) {
+            this.response = response;
+        }
+
+        @Override
+        public int statusCode() {
+            return this.response.statusCode();
+        }
+
+        @Override
+        public String header(final String name) {
+            return this.response.headers().firstValue(name).orElse(null);
+        }
+
+        @Override
+        public InputStream body() throws IOException {
+            if (this.body == null) {
+                this.body = decode(this.response.body(), header("Content-Encoding"));
+            }
+            return this.body;
+        }
+
+        @Override
+        public void close() throws IOException {
+            final var raw = this.response.body();
+            try {
+                long skipped = 0;
+                while (skipped < DRAIN_LIMIT && raw.read() != -1) {
+                    skipped += 1 + raw.skip(DRAIN_LIMIT - skipped - 1);
+                }
+            } catch (final IOException e) {
+                // 呼び出し元で既に閉じられている場合は、接続を再利用しない
+                log.trace("skip draining response body.", e);
+            } finally {
+                raw.close();
+            }
+        }
+
+    }
+
+    /**
+     * レスポンスボディを読み込み済みのjava.net.http.HttpResponseをラップします。
+     */
+    private static class BufferedResponse implements Response {
+
+        private final HttpResponse<byte[]> response;
+
+        BufferedResponse(final HttpResponse<byte[]> response) {
+            this.response = response;
+        }
+
+        @Override
+        public int statusCode() {
+            return this.response.statusCode();
+        }
+
+        @Override
+        public String header(final String name) {
+            return this.response.headers().firstValue(name).orElse(null);
+        }
+
+        @Override
+        public InputStream body() throws IOException {
+            return decode(new ByteArrayInputStream(this.response.body()), header("Content-Encoding"));
+        }
+
+        @Override
+        public void close() {
+        }
+
+    }
+
+}
@@ -0,0 +1,140 @@
+package jp.co.tk.domain.repo;
+
+import jp.co.tk.config.ScrapingProperties;
+import org.jsoup.Connection;
+import org.jsoup.Jsoup;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * リクエスト毎にJsoupで接続します。
+ * Jsoupは接続と読み込みに同じタイムアウトを使用するため、読み込みのタイムアウトを使用します。
+ * 非同期のリクエストは、別スレッドで同期のリクエストを実行します。
+ */
+public class JsoupHttpTransport implements HttpTransport, DisposableBean {
+
+    /**
+     * エラーとして扱うステータスコードの下限です。
+     */
+    private static final int ERROR_STATUS = 400;
+
+    /**
+     * 非同期のリクエストを実行するスレッドです。
+     */
+    private final ExecutorService executor;
+
+    /**
+     * タイムアウト(ミリ秒)です。
+     */
+    private final int timeoutMillis;
+
+    /**
+     * @param config HTTPクライアントの設定
+     */
+    public JsoupHttpTransport(final ScrapingProperties.Http config) {
+        this.timeoutMillis = (int) config.getReadTimeoutMillis();
+        final var threadFactory = new CustomizableThreadFactory("JsoupHttp-");
+        threadFactory.setDaemon(true);
+        this.executor = Executors.newCachedThreadPool(threadFactory);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Response get(final String url, final String userAgent, final Map<String, String> headers) throws IOException {
+        final var response = Jsoup.connect(url)
+                .userAgent(userAgent)
+                .timeout(this.timeoutMillis)
+                .maxBodySize(0)
+                .ignoreContentType(true)
+                .headers(headers)
+                .ignoreHttpErrors(true)
+                .execute();
+        if (response.statusCode() >= ERROR_STATUS) {
+            throw ThrottledException.of(response.statusCode(), url, response.header("Retry-After"));
+        }
+        return new JsoupResponse(response);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompletableFuture<Response> getAsync(final String url, final String userAgent, final Map<String, String> headers) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                final var response = get(url, userAgent, headers);
+                response.bodyAsBytes();
+                return response;
+            } catch (final IOException e) {
+                throw new CompletionException(e);
+            }
+        }, this.executor);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void destroy() {
+        this.executor.shutdown();
+    }
+
+    /**
+     * Jsoupのレスポンスをラップします。
+     */
+    private static class JsoupResponse implements Response {
+
+        private final Connection.Response response;
+
+        private InputStream body;
+
+        JsoupResponse(final Connection.Response response) {
+            this.response = response;
+        }
+
+        @Override
+        public int statusCode() {
+            return this.response.statusCode();
+        }
+
+        @Override
+        public String header(final String name) {
+            return this.response.header(name);
+        }
+
+        @Override
+        public String charset() {
+            return this.response.charset();
+        }
+
+        @Override
+        public InputStream body() {
+            if (this.body == null) {
+                this.body = this.response.bodyStream();
+            }
+            return this.body;
+        }
+
+        @Override
+        public byte[] bodyAsBytes() {
+            return this.response.bodyAsBytes();
+        }
+
+        @Override
+        public void close() throws IOException {
+            body().close();
+        }
+
+    }
+
+}
@@ -0,0 +1,276 @@
+package jp.co.tk.domain.repo;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import org.jsoup.HttpStatusException;
+import org.springframework.beans.factory.DisposableBean;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * {@link HttpTransport}のリクエスト数、レスポンスまでの時間、受信したバイト数をホスト単位で記録します。
+ * <p>
+ * 時間はレスポンスヘッダーを受信するまで、非同期の場合はレスポンスボディを受信するまでです。
+ * ステータスは「2xx」等の分類で記録し、接続できなかった場合やタイムアウトは「IO_ERROR」とします。
+ */
+public class MeteredHttpTransport implements HttpTransport, DisposableBean {
+
+    /**
+     * リクエストの時間のメトリクス名です。
+     */
+    static final String REQUESTS = "scraper.http.requests";
+
+    /**
+     * 受信したバイト数のメトリクス名です。
+     */
+    static final String RESPONSE_BYTES = "scraper.http.response.bytes";
+
+    /**
+     * 送信できなかった場合のステータスです。
+     */
+    private static final String IO_ERROR = "IO_ERROR";
+
+    /**
+     * 記録するリクエストを送信するオブジェクトです。
+     */
+    private final HttpTransport delegate;
+
+    /**
+     * @param delegate 記録するリクエストを送信するオブジェクト
+     */
+    public MeteredHttpTransport(final HttpTransport delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Response get(final String url, final String userAgent, final Map<String, String> headers) throws IOException {
+        final var host = hostOf(url);
+        final var sample = Timer.start();
+        try {
+            final var response = this.delegate.get(url, userAgent, headers);
+            sample.stop(timer(host, statusOf(response.statusCode())));
+            return new MeteredResponse(response, host);
+        } catch (final IOException e) {
+            sample.stop(timer(host, statusOf(e)));
+            throw e;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompletableFuture<Response> getAsync(final String url, final String userAgent, final Map<String, String> headers) {
+        final var host = hostOf(url);
+        final var sample = Timer.start();
+        return this.delegate.getAsync(url, userAgent, headers).handle((response, e) -> {
+            if (e != null) {
+                final var cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                sample.stop(timer(host, statusOf(cause)));
+                throw e instanceof CompletionException ? (CompletionException) e : new CompletionException(e);
+            }
+            sample.stop(timer(host, statusOf(response.statusCode())));
+            return new MeteredResponse(response, host);
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void destroy() throws Exception {
+        if (this.delegate instanceof DisposableBean) {
+            ((DisposableBean) this.delegate).destroy();
+        }
+    }
+
+    /**
+     * リクエストの時間のメトリクスを取得します。
+     *
+     * @param host   ホスト
+     * @param status ステータスの分類
+     * @return Timer
+     */
+    private static Timer timer(final String host, final String status) {
+        return Timer.builder(REQUESTS)
+                .description("HTTP requests sent to the auction site")
+                .tags("host", host, "status", status)
+                .publishPercentileHistogram()
+                .register(Metrics.globalRegistry);
+    }
+
+    /**
+     * 受信したバイト数を記録します。
+     *
+     * @param host  ホスト
+     * @param bytes バイト数
+     */
+    private static void recordBytes(final String host, final long bytes) {
+        DistributionSummary.builder(RESPONSE_BYTES)
+                .description("Decoded response body size")
+                .baseUnit("bytes")
+                .tags("host", host)
+                .register(Metrics.globalRegistry)
+                .record(bytes);
+    }
+
+    /**
+     * URLからホストを取得します。
+     *
+     * @param url URL
+     * @return ホスト。取得できない場合は「unknown」
+     */
+    static String hostOf(final String url) {
+        try {
+            final var host = URI.create(url).getHost();
+            return host == null ? "unknown" : host;
+        } catch (final IllegalArgumentException e) {
+            return "unknown";
+        }
+    }
+
+    /**
+     * ステータスコードを分類します。
+     *
+     * @param statusCode ステータスコード
+     * @return 「2xx」等の分類
+     */
+    private static String statusOf(final int statusCode) {
+        return (statusCode / 100) + "xx";
+    }
+
+    /**
+     * 例外からステータスを分類します。
+     *
+     * @param e 例外
+     * @return 「4xx」等の分類。ステータスコードを受信していない場合は「IO_ERROR」
+     */
+    private static String statusOf(final Throwable e) {
+        if (e instanceof HttpStatusException) {
+            return statusOf(((HttpStatusException) e).getStatusCode());
+        }
+        return IO_ERROR;
+    }
+
+    /**
+     * 受信したバイト数を記録するレスポンスです。
+     */
+    private static class MeteredResponse implements Response {
+
+        private final Response response;
+
+        private final String host;
+
+        private CountingInputStream body;
+
+        private boolean recorded;
+
+        private MeteredResponse(final Response response, final String host) {
+            this.response = response;
+            this.host = host;
+        }
+
+        @Override
+        public int statusCode() {
+            return this.response.statusCode();
+        }
+
+        @Override
+        public String header(final String name) {
+            return this.response.header(name);
+        }
+
+        @Override
+        public String charset() {
+            return this.response.charset();
+        }
+
+        @Override
+        public InputStream body() throws IOException {
+            if (this.body == null) {
+                this.body = new CountingInputStream(this.response.body());
+            }
+            return this.body;
+        }
+
+        @Override
+        public byte[] bodyAsBytes() throws IOException {
+            if (this.body != null) {
+                return this.body.readAllBytes();
+            }
+            final var bytes = this.response.bodyAsBytes();
+            record(bytes.length);
+            return bytes;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (this.body != null) {
+                record(this.body.count);
+            }
+            this.response.close();
+        }
+
+        /**
+         * 受信したバイト数を1回だけ記録します。
+         *
+         * @param bytes バイト数
+         */
+        private void record(final long bytes) {
+            if (!this.recorded) {
+                this.recorded = true;
+                recordBytes(this.host, bytes);
+            }
+        }
+
+    }
+
+    /**
+     * 読み込んだバイト数を数えるストリームです。
+     */
+    private static class CountingInputStream extends FilterInputStream {
+
+        private long count;
+
+        private CountingInputStream(final InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            final var b = super.read();
+            if (b != -1) {
+                this.count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            final var n = super.read(b, off, len);
+            if (n > 0) {
+                this.count += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(final long n) throws IOException {
+            final var skipped = super.skip(n);
+            this.count += skipped;
+            return skipped;
+        }
+
+    }
+
+}
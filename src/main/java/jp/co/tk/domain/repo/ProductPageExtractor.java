@@ -0,0 +1,223 @@
+package jp.co.tk.domain.repo;
+
+import org.apache.commons.lang3.StringUtils;
+import org.jsoup.nodes.Element;
+import org.jsoup.parser.Parser;
+import org.jsoup.parser.StreamParser;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 商品ページを先頭から1回だけ走査し、必要な項目を抜き出します。
+ * <p>
+ * Jsoupの{@link StreamParser}で要素が閉じるたびに{@link ExtractionRules}のセレクターで判定し、
+ * 必要のない要素はその場でDOMから取り除くため、ページ全体の木を保持しません。
+ * すべての項目が揃い、説明文の領域と画像の領域の両方が閉じた時点で以降の読み込みを止めます。
+ * 即決価格は即決価格が無いオークションでは存在しないため、揃っているかの判定には含めません。
+ * 即決価格はページ内で詳細よりも前にあるため、詳細が揃った時点で読み込み済みです。
+ * 画像の領域が見つからない場合は、画像を取りこぼさないようページの最後まで読み込みます。
+ * <p>
+ * 画像のURLは、equals・hashCodeで名前解決を行わない{@link URI}で、ページ内の順に保持します。
+ * URIとして解釈できない画像のURLは除きます。
+ */
+final class ProductPageExtractor {
+
+    /**
+     * 抜き出すルールです。
+     */
+    private final ExtractionRules rules;
+
+    /**
+     * @param rules 抜き出すルール
+     */
+    ProductPageExtractor(final ExtractionRules rules) {
+        this.rules = rules;
+    }
+
+    /**
+     * 商品ページから項目を抜き出します。
+     *
+     * @param in      レスポンスボディ
+     * @param charset 文字コード。nullの場合はUTF-8
+     * @param baseUri 画像URLを解決するためのURL
+     * @return 抜き出した項目
+     * @throws IOException
+     */
+    Result extract(final InputStream in, final String charset, final String baseUri) throws IOException {
+        final var cs = StringUtils.isBlank(charset) ? StandardCharsets.UTF_8 : Charset.forName(charset);
+        return extract(new InputStreamReader(in, cs), baseUri);
+    }
+
+    /**
+     * 商品ページから項目を抜き出します。
+     *
+     * @param reader  HTML
+     * @param baseUri 画像URLを解決するためのURL
+     * @return 抜き出した項目
+     * @throws IOException
+     */
+    Result extract(final Reader reader, final String baseUri) throws IOException {
+        final var result = new Result();
+        try (final var streamer = new StreamParser(Parser.htmlParser())) {
+            streamer.parse(reader.markSupported() ? reader : new BufferedReader(reader), baseUri);
+            final var root = streamer.document();
+            final var it = streamer.iterator();
+            while (it.hasNext()) {
+                final var el = it.next();
+                if (this.rules.getDescription().matches(root, el)) {
+                    result.description.add(el.text());
+                    el.remove();
+                    if (result.isComplete(this.rules.getStartingPriceIndex())) {
+                        streamer.stop();
+                        break;
+                    }
+                } else if (this.rules.getImageContainer().matches(root, el)) {
+                    result.imageAreaClosed = true;
+                    if (!isInTargetArea(root, el)) {
+                        el.remove();
+                    }
+                    if (result.isComplete(this.rules.getStartingPriceIndex())) {
+                        streamer.stop();
+                        break;
+                    }
+                } else if (this.rules.getTitle().matches(root, el)) {
+                    result.title.add(el.text());
+                    el.remove();
+                } else if (this.rules.getBuyoutPrice().matches(root, el)) {
+                    result.buyoutPrice.add(el.text());
+                    el.remove();
+                } else if (this.rules.getDetail().matches(root, el)) {
+                    if (el.hasText()) {
+                        result.details.add(el.text());
+                    }
+                    el.remove();
+                } else if (this.rules.getImage().matches(root, el)) {
+                    final var url = el.absUrl(this.rules.getImageAttr());
+                    if (StringUtils.isNotBlank(url)) {
+                        try {
+                            result.imageUri.add(new URI(url));
+                        } catch (final URISyntaxException e) {
+                            // 画像のURLとして使用できないため除く
+                        }
+                    }
+                } else if (!isInTargetArea(root, el)) {
+                    el.remove();
+                }
+            }
+        } catch (final UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return result;
+    }
+
+    /**
+     * 閉じた後もテキストを参照するため、DOMに残しておく必要がある要素であるかを判定します。
+     * 画像の要素はテキストを持たないため、画像の祖先は残しません。
+     *
+     * @param root ドキュメント
+     * @param el   要素
+     * @return 項目の領域の中の場合はtrue
+     */
+    private boolean isInTargetArea(final Element root, final Element el) {
+        for (var e = el.parent(); e != null && e != root; e = e.parent()) {
+            if (this.rules.getDescription().matches(root, e) || this.rules.getTitle().matches(root, e)
+                    || this.rules.getBuyoutPrice().matches(root, e) || this.rules.getDetail().matches(root, e)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 商品ページから抜き出した項目です。
+     * 同じクラスの要素が複数ある場合は、Jsoupの{@code Elements#text()}と同様に空白で連結します。
+     */
+    static final class Result {
+
+        /**
+         * タイトルのテキストです。
+         */
+        private final List<String> title = new ArrayList<>(1);
+
+        /**
+         * 説明文のテキストです。
+         */
+        private final List<String> description = new ArrayList<>(1);
+
+        /**
+         * 即決価格のテキストです。即決価格が無いオークションでは空です。
+         */
+        private final List<String> buyoutPrice = new ArrayList<>(1);
+
+        /**
+         * テキストを持つ詳細です。
+         */
+        private final List<String> details = new ArrayList<>(16);
+
+        /**
+         * 画像のURLです。ページ内の順に保持します。
+         */
+        private final Set<URI> imageUri = new LinkedHashSet<>();
+
+        /**
+         * 画像の領域が閉じたかを表します。
+         */
+        private boolean imageAreaClosed;
+
+        String getTitle() {
+            return String.join(WebContentRepository.SPCAE, this.title);
+        }
+
+        String getDescription() {
+            return String.join(WebContentRepository.SPCAE, this.description);
+        }
+
+        String getBuyoutPrice() {
+            return String.join(WebContentRepository.SPCAE, this.buyoutPrice);
+        }
+
+        /**
+         * テキストを持つ詳細を、ページ内の順に取得します。
+         *
+         * @return 詳細
+         */
+        List<String> getDetails() {
+            return this.details;
+        }
+
+        /**
+         * 画像のURLを、重複を除いてページ内の順に取得します。
+         *
+         * @return 画像のURL
+         */
+        Set<URI> getImageUri() {
+            return this.imageUri;
+        }
+
+        /**
+         * 即決価格を除くすべての項目が揃い、画像の領域が閉じているかを判定します。
+         *
+         * @param startingPriceIndex 開始価格が何番目の詳細であるか
+         * @return 揃っている場合はtrue
+         */
+        private boolean isComplete(final int startingPriceIndex) {
+            return !this.title.isEmpty() && !this.description.isEmpty()
+                    && this.details.size() > startingPriceIndex && this.imageAreaClosed;
+        }
+
+    }
+
+}
@@ -0,0 +1,399 @@
+package jp.co.tk.domain.repo;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+import jp.co.tk.config.ScrapingProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.jsoup.HttpStatusException;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * リクエストを、指数バックオフとジッターによる再送と、ホスト単位のサーキットブレーカーで保護します。
+ * <p>
+ * 5xx、タイムアウト、接続の失敗はホストの障害として再送し、連続した回数が閾値に達するとサーキットブレーカーが開きます。
+ * 開いている間は再送を含めてリクエストを送信せず、{@link CircuitOpenException}で失敗させます。
+ * 429は再送しますが、{@link AdaptiveConcurrencyLimiter}が同時リクエスト数を調整するため、障害には数えません。
+ * 404等の再送しても結果が変わらない失敗と、解析の失敗は再送しません。
+ */
+@Slf4j
+@Component
+public class ResilienceGuard {
+
+    /**
+     * 再送した回数のメトリクス名です。
+     */
+    static final String RETRIES = "scraper.retries";
+
+    /**
+     * サーキットブレーカーの状態のメトリクス名です。
+     */
+    static final String CIRCUIT_STATE = "scraper.circuit.state";
+
+    /**
+     * ジッターを取得するためのオブジェクトです。
+     */
+    private final static Random random = new Random();
+
+    /**
+     * 再送の設定です。
+     */
+    private final ScrapingProperties.Retry retry;
+
+    /**
+     * サーキットブレーカーの設定です。
+     */
+    private final ScrapingProperties.CircuitBreaker breakerConfig;
+
+    /**
+     * ホスト名をキーとしたサーキットブレーカーです。
+     */
+    private final ConcurrentMap<String, Breaker> breakers = new ConcurrentHashMap<>();
+
+    public ResilienceGuard(final ScrapingProperties properties) {
+        this.retry = properties.getRetry();
+        this.breakerConfig = properties.getCircuitBreaker();
+    }
+
+    /**
+     * 処理を実行し、ホストの障害で失敗した場合は待機してから再送します。
+     *
+     * @param host ホスト名
+     * @param call 処理
+     * @param <T>  処理結果の型
+     * @return 処理結果
+     * @throws IOException 再送しても失敗した場合、またはサーキットブレーカーが開いている場合
+     */
+    public <T> T call(final String host, final IOCall<T> call) throws IOException {
+        final var breaker = breaker(host);
+        for (var attempt = 1; ; attempt++) {
+            if (!breaker.tryAcquire()) {
+                throw new CircuitOpenException(host);
+            }
+            final T result;
+            try {
+                result = call.call();
+            } catch (final IOException e) {
+                final var failure = classify(e);
+                breaker.record(failure.hostError);
+                if (!failure.retryable || attempt >= this.retry.getMaxAttempts()) {
+                    throw e;
+                }
+                sleep(host, backoffMillis(attempt, e), e);
+                continue;
+            } catch (final RuntimeException e) {
+                breaker.record(false);
+                throw e;
+            }
+            breaker.record(false);
+            return result;
+        }
+    }
+
+    /**
+     * 非同期の処理を実行し、ホストの障害で失敗した場合は待機してから再送します。
+     * 待機中にスレッドを占有しません。
+     *
+     * @param host ホスト名
+     * @param call 処理
+     * @param <T>  処理結果の型
+     * @return 処理結果。再送しても失敗した場合、またはサーキットブレーカーが開いている場合は例外で完了します
+     */
+    public <T> CompletableFuture<T> callAsync(final String host, final Supplier<CompletableFuture<T>> call) {
+        final var result = new CompletableFuture<T>();
+        attemptAsync(host, call, 1, result);
+        return result;
+    }
+
+    /**
+     * 非同期の処理を1回実行し、失敗した場合は再送を予約します。
+     *
+     * @param host    ホスト名
+     * @param call    処理
+     * @param attempt 何回目の試行であるか
+     * @param result  処理結果
+     * @param <T>     処理結果の型
+     */
+    private <T> void attemptAsync(final String host, final Supplier<CompletableFuture<T>> call, final int attempt, final CompletableFuture<T> result) {
+        final var breaker = breaker(host);
+        if (!breaker.tryAcquire()) {
+            result.completeExceptionally(new CircuitOpenException(host));
+            return;
+        }
+        call.get().whenComplete((value, e) -> {
+            if (e == null) {
+                breaker.record(false);
+                result.complete(value);
+                return;
+            }
+            final var cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+            final var failure = cause instanceof IOException ? classify((IOException) cause) : Failure.PERMANENT;
+            breaker.record(failure.hostError);
+            if (!failure.retryable || attempt >= this.retry.getMaxAttempts()) {
+                result.completeExceptionally(cause);
+                return;
+            }
+            final var delay = backoffMillis(attempt, cause);
+            logRetry(host, delay, cause);
+            CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS)
+                    .execute(() -> attemptAsync(host, call, attempt + 1, result));
+        });
+    }
+
+    /**
+     * 再送まで待機します。
+     *
+     * @param host        ホスト名
+     * @param delayMillis 待機時間(ミリ秒)
+     * @param cause       失敗の原因
+     * @throws InterruptedIOException 待機中に割り込まれた場合
+     */
+    private void sleep(final String host, final long delayMillis, final IOException cause) throws InterruptedIOException {
+        logRetry(host, delayMillis, cause);
+        try {
+            TimeUnit.MILLISECONDS.sleep(delayMillis);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            final var interrupted = new InterruptedIOException("interrupted while waiting to retry ".concat(host));
+            interrupted.addSuppressed(cause);
+            throw interrupted;
+        }
+    }
+
+    /**
+     * 再送することをログとメトリクスに記録します。
+     *
+     * @param host        ホスト名
+     * @param delayMillis 待機時間(ミリ秒)
+     * @param cause       失敗の原因
+     */
+    private static void logRetry(final String host, final long delayMillis, final Throwable cause) {
+        Metrics.counter(RETRIES, "host", host).increment();
+        log.warn("retry request. host=" + host + " delayMillis=" + delayMillis + " cause=" + cause);
+    }
+
+    /**
+     * 再送までの待機時間を計算します。
+     * Retry-Afterが指定されている場合は、待機時間の上限までRetry-Afterに従います。
+     *
+     * @param attempt 失敗した試行が何回目であるか
+     * @param cause   失敗の原因
+     * @return 待機時間(ミリ秒)
+     */
+    long backoffMillis(final int attempt, final Throwable cause) {
+        final var base = Math.min(this.retry.getInitialBackoffMillis() * Math.pow(this.retry.getMultiplier(), attempt - 1), this.retry.getMaxBackoffMillis());
+        var delay = (long) (base * (1 - this.retry.getJitter() * random.nextDouble()));
+        if (cause instanceof ThrottledException) {
+            final var retryAfter = ((ThrottledException) cause).getRetryAfterMillis();
+            delay = Math.max(delay, Math.min(retryAfter, this.retry.getMaxBackoffMillis()));
+        }
+        return Math.max(delay, 0);
+    }
+
+    /**
+     * ホストの障害として扱う失敗であるかを判定します。
+     *
+     * @param e 例外
+     * @return 失敗の分類
+     */
+    static Failure classify(final IOException e) {
+        if (e instanceof CircuitOpenException) {
+            return Failure.PERMANENT;
+        }
+        if (e instanceof HttpStatusException) {
+            final var status = ((HttpStatusException) e).getStatusCode();
+            if (status == ThrottledException.TOO_MANY_REQUESTS) {
+                return Failure.THROTTLED;
+            }
+            return status >= 500 ? Failure.HOST_ERROR : Failure.PERMANENT;
+        }
+        if (e instanceof InterruptedIOException && !(e instanceof SocketTimeoutException)) {
+            return Failure.PERMANENT;
+        }
+        return Failure.HOST_ERROR;
+    }
+
+    /**
+     * ホストの状態を取得します。
+     *
+     * @param host ホスト名
+     * @return サーキットブレーカーが開いている場合はtrue
+     */
+    public boolean isOpen(final String host) {
+        final var breaker = this.breakers.get(host);
+        return breaker != null && breaker.getState() == State.OPEN;
+    }
+
+    /**
+     * ホストのサーキットブレーカーを取得します。初回はメトリクスに登録します。
+     *
+     * @param host ホスト名
+     * @return サーキットブレーカー
+     */
+    private Breaker breaker(final String host) {
+        return this.breakers.computeIfAbsent(host, x -> {
+            final var breaker = new Breaker(x, this.breakerConfig);
+            Gauge.builder(CIRCUIT_STATE, breaker, b -> b.getState().ordinal())
+                    .description("Circuit breaker state (0=closed, 1=open, 2=half open)")
+                    .tag("host", x)
+                    .register(Metrics.globalRegistry);
+            return breaker;
+        });
+    }
+
+    /**
+     * 失敗の分類です。
+     */
+    enum Failure {
+
+        /**
+         * 5xx、タイムアウト、接続の失敗です。再送し、サーキットブレーカーの失敗に数えます。
+         */
+        HOST_ERROR(true, true),
+
+        /**
+         * 429です。再送しますが、サーキットブレーカーの失敗には数えません。
+         */
+        THROTTLED(true, false),
+
+        /**
+         * 404等の再送しても結果が変わらない失敗、割り込み、サーキットブレーカーによる失敗です。
+         */
+        PERMANENT(false, false);
+
+        private final boolean retryable;
+
+        private final boolean hostError;
+
+        Failure(final boolean retryable, final boolean hostError) {
+            this.retryable = retryable;
+            this.hostError = hostError;
+        }
+
+    }
+
+    /**
+     * サーキットブレーカーの状態です。
+     */
+    enum State {
+
+        /**
+         * リクエストを送信します。
+         */
+        CLOSED,
+
+        /**
+         * リクエストを送信せずに失敗させます。
+         */
+        OPEN,
+
+        /**
+         * 1件だけ試しにリクエストを送信します。
+         */
+        HALF_OPEN
+
+    }
+
+    /**
+     * 1つのホストのサーキットブレーカーです。
+     */
+    private static final class Breaker {
+
+        private final String host;
+
+        private final ScrapingProperties.CircuitBreaker config;
+
+        private State state = State.CLOSED;
+
+        /**
+         * 連続して失敗した回数です。
+         */
+        private int failures;
+
+        /**
+         * 開いた時刻です。
+         */
+        private long openedAtNanos;
+
+        /**
+         * 試しに送信したリクエストの結果を待っているかを表します。
+         */
+        private boolean trialInFlight;
+
+        private Breaker(final String host, final ScrapingProperties.CircuitBreaker config) {
+            this.host = host;
+            this.config = config;
+        }
+
+        private synchronized State getState() {
+            return this.state;
+        }
+
+        /**
+         * リクエストを送信してよいかを判定します。
+         *
+         * @return 送信してよい場合はtrue
+         */
+        private synchronized boolean tryAcquire() {
+            if (!this.config.isEnabled()) {
+                return true;
+            }
+            switch (this.state) {
+                case CLOSED:
+                    return true;
+                case OPEN:
+                    if (System.nanoTime() - this.openedAtNanos < TimeUnit.SECONDS.toNanos(this.config.getOpenSeconds())) {
+                        return false;
+                    }
+                    this.state = State.HALF_OPEN;
+                    this.trialInFlight = true;
+                    log.info("circuit half open. host=".concat(this.host));
+                    return true;
+                default:
+                    if (this.trialInFlight) {
+                        return false;
+                    }
+                    this.trialInFlight = true;
+                    return true;
+            }
+        }
+
+        /**
+         * リクエストの結果を記録します。
+         *
+         * @param hostError ホストの障害で失敗した場合はtrue
+         */
+        private synchronized void record(final boolean hostError) {
+            if (!this.config.isEnabled()) {
+                return;
+            }
+            this.trialInFlight = false;
+            if (!hostError) {
+                this.failures = 0;
+                if (this.state != State.CLOSED) {
+                    log.info("circuit closed. host=".concat(this.host));
+                }
+                this.state = State.CLOSED;
+                return;
+            }
+            this.failures++;
+            if (this.state == State.HALF_OPEN || (this.state == State.CLOSED && this.failures >= this.config.getFailureThreshold())) {
+                this.state = State.OPEN;
+                this.openedAtNanos = System.nanoTime();
+                log.warn("circuit opened. host=" + this.host + " failures=" + this.failures);
+            }
+        }
+
+    }
+
+}
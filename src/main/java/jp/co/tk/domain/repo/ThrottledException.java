@@ -0,0 +1,89 @@
+package jp.co.tk.domain.repo;
+
+import org.jsoup.HttpStatusException;
+
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+/**
+ * サーバーが負荷を理由にリクエストを拒否したこと(429、503)を表します。
+ * Retry-Afterが指定されている場合は、再送できるまでの時間を保持します。
+ */
+public class ThrottledException extends HttpStatusException {
+
+    /**
+     * リクエストが多すぎることを表すステータスコードです。
+     */
+    public static final int TOO_MANY_REQUESTS = 429;
+
+    /**
+     * サーバーが一時的に利用できないことを表すステータスコードです。
+     */
+    public static final int SERVICE_UNAVAILABLE = 503;
+
+    /**
+     * 再送できるまでの時間(ミリ秒)です。指定が無い場合は-1です。
+     */
+    private final long retryAfterMillis;
+
+    /**
+     * @param statusCode       ステータスコード
+     * @param url              URL
+     * @param retryAfterMillis 再送できるまでの時間(ミリ秒)。指定が無い場合は-1
+     */
+    public ThrottledException(final int statusCode, final String url, final long retryAfterMillis) {
+        super("HTTP error fetching URL", statusCode, url);
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    /**
+     * 再送できるまでの時間を取得します。
+     *
+     * @return 時間(ミリ秒)。指定が無い場合は-1
+     */
+    public long getRetryAfterMillis() {
+        return this.retryAfterMillis;
+    }
+
+    /**
+     * ステータスコードに応じた例外を生成します。
+     *
+     * @param statusCode ステータスコード
+     * @param url        URL
+     * @param retryAfter Retry-Afterヘッダーの値。無い場合はnull
+     * @return 429、503の場合は{@link ThrottledException}、それ以外は{@link HttpStatusException}
+     */
+    public static HttpStatusException of(final int statusCode, final String url, final String retryAfter) {
+        if (statusCode == TOO_MANY_REQUESTS || statusCode == SERVICE_UNAVAILABLE) {
+            return new ThrottledException(statusCode, url, parseRetryAfter(retryAfter, System.currentTimeMillis()));
+        }
+        return new HttpStatusException("HTTP error fetching URL", statusCode, url);
+    }
+
+    /**
+     * Retry-Afterヘッダーの値(秒数、またはHTTP日付)を、再送できるまでの時間に変換します。
+     *
+     * @param retryAfter Retry-Afterヘッダーの値
+     * @param nowMillis  現在時刻(エポックミリ秒)
+     * @return 時間(ミリ秒)。指定が無い、または解釈できない場合は-1
+     */
+    static long parseRetryAfter(final String retryAfter, final long nowMillis) {
+        if (retryAfter == null || retryAfter.isBlank()) {
+            return -1;
+        }
+        final var value = retryAfter.trim();
+        try {
+            return Math.max(Long.parseLong(value), 0) * 1000;
+        } catch (final NumberFormatException e) {
+            // HTTP日付の形式
+        }
+        try {
+            final var date = ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME);
+            return Math.max(date.toInstant().toEpochMilli() - nowMillis, 0);
+        } catch (final DateTimeParseException e) {
+            return -1;
+        }
+    }
+
+}
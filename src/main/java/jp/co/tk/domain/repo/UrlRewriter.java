@@ -0,0 +1,47 @@
+package jp.co.tk.domain.repo;
+
+import jp.co.tk.config.ScrapingProperties;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.List;
+
+/**
+ * URLの先頭を、設定のルールに従って書き換えます。
+ * 画像のリクエストを、CDNの近いエッジやローカルのキャッシュサーバーへ送信する場合に使用します。
+ */
+class UrlRewriter {
+
+    /**
+     * 書き換えのルールです。
+     */
+    private final List<ScrapingProperties.UrlRewrite> rules;
+
+    /**
+     * @param rules 書き換えのルール。先頭から順に照合します
+     */
+    UrlRewriter(final List<ScrapingProperties.UrlRewrite> rules) {
+        this.rules = List.copyOf(rules);
+    }
+
+    /**
+     * 最初に一致したルールでURLを書き換えます。
+     *
+     * @param url URL
+     * @return 書き換えたURL。一致するルールがない場合は引数のURL
+     * @throws MalformedURLException 書き換えたURLが不正な場合
+     */
+    URL rewrite(final URL url) throws MalformedURLException {
+        if (this.rules.isEmpty()) {
+            return url;
+        }
+        final var urlAsStr = url.toString();
+        for (final var rule : this.rules) {
+            if (!rule.getFrom().isEmpty() && urlAsStr.startsWith(rule.getFrom())) {
+                return new URL(rule.getTo().concat(urlAsStr.substring(rule.getFrom().length())));
+            }
+        }
+        return url;
+    }
+
+}
@@ -2,6 +2,7 @@ package jp.co.tk.domain.repo;
 
 import java.io.IOException;
 import java.net.URL;
+import java.nio.file.Path;
 import java.util.Random;
 import java.util.Set;
 
@@ -112,6 +113,24 @@ public interface WebContentRepository<T, U> {
      */
     byte[] fetchProductImgData(final URL url) throws IOException;
 
+    /**
+     * 画像データを取得し、デコードせずにそのままファイルへ書き込みます。
+     *
+     * @param url    画像のURL
+     * @param target 出力先のファイル
+     * @return 書き込んだバイト数
+     */
+    long fetchProductImgDataTo(final URL url, final Path target) throws IOException;
+
+    /**
+     * 画像データをキャッシュを経由せずに取得し、デコードせずにそのままファイルへ書き込みます。
+     *
+     * @param url    画像のURL
+     * @param target 出力先のファイル
+     * @return 書き込んだ内容のSHA-256
+     */
+    String fetchProductImgDigestTo(final URL url, final Path target) throws IOException;
+
 
     /**
      * 商品の合計数を取得します。
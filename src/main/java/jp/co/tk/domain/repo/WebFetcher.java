@@ -0,0 +1,442 @@
+package jp.co.tk.domain.repo;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.springframework.stereotype.Component;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Webサイトへのリクエストを送信します。
+ * ホスト単位の間隔制御と、ディスクのキャッシュを経由し、{@link HttpTransport}でレスポンスを取得します。
+ * <p>
+ * HTMLはETag・Last-Modifiedで再検証し、画像は内容が変わらないためキャッシュがあれば常にキャッシュを使用します。
+ * 画像を{@link ImageStore}で保存する場合は、同じ画像を2か所に保存しないよう、キャッシュを経由せずに取得します。
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class WebFetcher {
+
+    /**
+     * 再検証で内容が変わっていないことを表すステータスコードです。
+     */
+    private static final int NOT_MODIFIED = 304;
+
+    /**
+     * ダウンロード中のファイルの拡張子です。
+     */
+    private static final String PART_EXTENSION = ".part";
+
+    /**
+     * ホスト単位でリクエストの間隔を制御します。
+     */
+    private final HostRateLimiter rateLimiter;
+
+    /**
+     * HTTPレスポンスのキャッシュです。
+     */
+    private final HttpResponseCache cache;
+
+    /**
+     * リクエストを送信するオブジェクトです。
+     */
+    private final HttpTransport transport;
+
+    /**
+     * HTMLを取得します。
+     *
+     * @param url       URL
+     * @param userAgent ユーザーエージェント
+     * @return HTML
+     * @throws IOException
+     */
+    public Document fetchDocument(final String url, final String userAgent) throws IOException {
+        return fetchPage(url, userAgent, Jsoup::parse);
+    }
+
+    /**
+     * HTMLを取得し、DOMを構築せずに指定の方法で解析します。
+     *
+     * @param url       URL
+     * @param userAgent ユーザーエージェント
+     * @param parser    解析する方法
+     * @param <T>       解析結果の型
+     * @return 解析結果
+     * @throws IOException
+     */
+    public <T> T fetchPage(final String url, final String userAgent, final PageParser<T> parser) throws IOException {
+        final var entry = this.cache.get(url);
+        if (entry != null && this.cache.isFresh(entry)) {
+            try {
+                final var page = parse(entry, url, parser);
+                this.cache.recordHit();
+                return page;
+            } catch (final NoSuchFileException e) {
+                this.cache.remove(url);
+            }
+        }
+
+        this.rateLimiter.acquire(url);
+        try (final var response = this.transport.get(url, userAgent, validatorHeaders(entry))) {
+            return handlePage(response, entry, url, parser);
+        }
+    }
+
+    /**
+     * HTMLを非同期に取得し、DOMを構築せずに指定の方法で解析します。
+     * 間隔制御の待ち時間とレスポンスの待ち時間にスレッドを占有しません。
+     * キャッシュの読み書きは、完了させるスレッドで同期的に行います。
+     *
+     * @param url       URL
+     * @param userAgent ユーザーエージェント
+     * @param parser    解析する方法
+     * @param <T>       解析結果の型
+     * @return 解析結果
+     */
+    public <T> CompletableFuture<T> fetchPageAsync(final String url, final String userAgent, final PageParser<T> parser) {
+        final var entry = this.cache.get(url);
+        if (entry != null && this.cache.isFresh(entry)) {
+            try {
+                final var page = parse(entry, url, parser);
+                this.cache.recordHit();
+                return CompletableFuture.completedFuture(page);
+            } catch (final NoSuchFileException e) {
+                this.cache.remove(url);
+            } catch (final IOException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+        }
+
+        final var headers = validatorHeaders(entry);
+        return this.rateLimiter.acquireAsync(url)
+                .thenCompose(v -> this.transport.getAsync(url, userAgent, headers))
+                .thenApply(response -> {
+                    try (response) {
+                        return handlePage(response, entry, url, parser);
+                    } catch (final IOException e) {
+                        throw new CompletionException(e);
+                    }
+                });
+    }
+
+    /**
+     * 内容が変わらないリソースをバイト列で取得します。
+     *
+     * @param url       URL
+     * @param userAgent ユーザーエージェント
+     * @return レスポンスボディ
+     * @throws IOException
+     */
+    public byte[] fetchBytes(final URL url, final String userAgent) throws IOException {
+        final var urlAsStr = url.toString();
+        final var entry = this.cache.get(urlAsStr);
+        if (entry != null) {
+            try {
+                final var body = Files.readAllBytes(this.cache.blobPath(entry));
+                this.cache.recordHit();
+                return body;
+            } catch (final NoSuchFileException e) {
+                this.cache.remove(urlAsStr);
+            }
+        }
+
+        this.rateLimiter.acquire(url);
+        try (final var response = this.transport.get(urlAsStr, userAgent, Collections.emptyMap())) {
+            final var body = response.bodyAsBytes();
+            this.cache.recordMiss();
+            if (this.cache.isEnabled()) {
+                this.cache.put(urlAsStr, body, response.header("ETag"), response.header("Last-Modified"), null);
+            }
+            return body;
+        }
+    }
+
+    /**
+     * 内容が変わらないリソースを非同期にバイト列で取得します。
+     *
+     * @param url       URL
+     * @param userAgent ユーザーエージェント
+     * @return レスポンスボディ
+     */
+    public CompletableFuture<byte[]> fetchBytesAsync(final URL url, final String userAgent) {
+        final var urlAsStr = url.toString();
+        final var entry = this.cache.get(urlAsStr);
+        if (entry != null) {
+            try {
+                final var body = Files.readAllBytes(this.cache.blobPath(entry));
+                this.cache.recordHit();
+                return CompletableFuture.completedFuture(body);
+            } catch (final NoSuchFileException e) {
+                this.cache.remove(urlAsStr);
+            } catch (final IOException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+        }
+
+        return this.rateLimiter.acquireAsync(urlAsStr)
+                .thenCompose(v -> this.transport.getAsync(urlAsStr, userAgent, Collections.emptyMap()))
+                .thenApply(response -> {
+                    try (response) {
+                        final var body = response.bodyAsBytes();
+                        this.cache.recordMiss();
+                        if (this.cache.isEnabled()) {
+                            this.cache.put(urlAsStr, body, response.header("ETag"), response.header("Last-Modified"), null);
+                        }
+                        return body;
+                    } catch (final IOException e) {
+                        throw new CompletionException(e);
+                    }
+                });
+    }
+
+    /**
+     * 内容が変わらないリソースを取得し、デコードせずにそのままファイルへ書き込みます。
+     *
+     * @param url       URL
+     * @param target    出力先のファイル
+     * @param userAgent ユーザーエージェント
+     * @return 書き込んだバイト数
+     * @throws IOException
+     */
+    public long fetchTo(final URL url, final Path target, final String userAgent) throws IOException {
+        final var urlAsStr = url.toString();
+        final var entry = this.cache.get(urlAsStr);
+        if (entry != null) {
+            try {
+                Files.copy(this.cache.blobPath(entry), target, StandardCopyOption.REPLACE_EXISTING);
+                this.cache.recordHit();
+                return entry.getSize();
+            } catch (final NoSuchFileException e) {
+                this.cache.remove(urlAsStr);
+            }
+        }
+
+        this.rateLimiter.acquire(url);
+        try (final var response = this.transport.get(urlAsStr, userAgent, Collections.emptyMap())) {
+            this.cache.recordMiss();
+
+            if (!this.cache.isEnabled()) {
+                final var part = target.resolveSibling(target.getFileName().toString().concat(PART_EXTENSION));
+                final var size = transfer(response.body(), part);
+                Files.move(part, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                return size;
+            }
+
+            final var temp = this.cache.createTempFile();
+            final var digest = HttpResponseCache.newDigest();
+            final var size = transfer(new DigestInputStream(response.body(), digest), temp);
+            final var stored = this.cache.put(urlAsStr, temp, HttpResponseCache.toHex(digest.digest()), response.header("ETag"), response.header("Last-Modified"), null);
+            Files.copy(this.cache.blobPath(stored), target, StandardCopyOption.REPLACE_EXISTING);
+            return size;
+        }
+    }
+
+    /**
+     * キャッシュを経由せずにリソースを取得し、デコードせずにそのままファイルへ書き込みます。
+     * 書き込みと同時に内容のSHA-256を計算するため、ファイルを読み直す必要はありません。
+     *
+     * @param url       URL
+     * @param target    出力先のファイル
+     * @param userAgent ユーザーエージェント
+     * @return 内容のSHA-256
+     * @throws IOException
+     */
+    public String fetchDigestTo(final URL url, final Path target, final String userAgent) throws IOException {
+        this.rateLimiter.acquire(url);
+        try (final var response = this.transport.get(url.toString(), userAgent, Collections.emptyMap())) {
+            final var digest = HttpResponseCache.newDigest();
+            transfer(new DigestInputStream(response.body(), digest), target);
+            return HttpResponseCache.toHex(digest.digest());
+        }
+    }
+
+    /**
+     * キャッシュのエントリーから、再検証のリクエストヘッダーを作成します。
+     *
+     * @param entry エントリー。キャッシュがない場合はnull
+     * @return リクエストヘッダー
+     */
+    private static Map<String, String> validatorHeaders(final HttpResponseCache.Entry entry) {
+        final var headers = new HashMap<String, String>();
+        if (entry != null && entry.hasValidator()) {
+            if (!entry.getEtag().isEmpty()) {
+                headers.put("If-None-Match", entry.getEtag());
+            }
+            if (!entry.getLastModified().isEmpty()) {
+                headers.put("If-Modified-Since", entry.getLastModified());
+            }
+        }
+        return headers;
+    }
+
+    /**
+     * HTMLのレスポンスをキャッシュへ反映し、解析します。
+     *
+     * @param response レスポンス
+     * @param entry    再検証したエントリー。キャッシュがない場合はnull
+     * @param url      URL
+     * @param parser   解析する方法
+     * @param <T>      解析結果の型
+     * @return 解析結果
+     * @throws IOException
+     */
+    private <T> T handlePage(final HttpTransport.Response response, final HttpResponseCache.Entry entry, final String url, final PageParser<T> parser) throws IOException {
+        if (response.statusCode() == NOT_MODIFIED && entry != null) {
+            this.cache.recordRevalidated();
+            return parse(this.cache.touch(entry), url, parser);
+        }
+
+        this.cache.recordMiss();
+        final var charset = response.charset();
+        if (!this.cache.isEnabled()) {
+            // 解析を止めた時点でボディを閉じ、残りは受信しません
+            try (final var in = response.body()) {
+                return parser.parse(in, charset, url);
+            }
+        }
+
+        // キャッシュにはボディ全体を保存するため、解析しながら一時ファイルへ書き込み、解析を止めた後に残りを書き込みます
+        final var temp = this.cache.createTempFile();
+        final var digest = HttpResponseCache.newDigest();
+        final T page;
+        try (final var out = Files.newOutputStream(temp);
+             final var in = new TeeInputStream(new DigestInputStream(response.body(), digest), out)) {
+            page = parser.parse(in, charset, url);
+            in.transferTo(OutputStream.nullOutputStream());
+        } catch (final IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        this.cache.put(url, temp, HttpResponseCache.toHex(digest.digest()), response.header("ETag"), response.header("Last-Modified"), charset);
+        return page;
+    }
+
+    /**
+     * キャッシュされたHTMLを解析します。
+     *
+     * @param entry  エントリー
+     * @param url    URL
+     * @param parser 解析する方法
+     * @param <T>    解析結果の型
+     * @return 解析結果
+     * @throws IOException
+     */
+    private <T> T parse(final HttpResponseCache.Entry entry, final String url, final PageParser<T> parser) throws IOException {
+        try (final var in = Files.newInputStream(this.cache.blobPath(entry))) {
+            return parser.parse(in, entry.getCharset().isEmpty() ? null : entry.getCharset(), url);
+        }
+    }
+
+    /**
+     * ストリームの内容をファイルへ書き込みます。失敗した場合はファイルを削除します。
+     *
+     * @param body   ストリーム
+     * @param target 出力先のファイル
+     * @return 書き込んだバイト数
+     * @throws IOException
+     */
+    private long transfer(final InputStream body, final Path target) throws IOException {
+        try (final var in = Channels.newChannel(body);
+             final var out = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            return out.transferFrom(in, 0, Long.MAX_VALUE);
+        } catch (final IOException e) {
+            Files.deleteIfExists(target);
+            throw e;
+        }
+    }
+
+    /**
+     * 読み込んだバイトを、そのまま別のストリームへ書き込みます。
+     * 解析に使用するレスポンスボディを、バッファに溜めずにキャッシュへ書き込むために使用します。
+     * 閉じても元のストリームは閉じません。
+     */
+    private static class TeeInputStream extends FilterInputStream {
+
+        /**
+         * 読み込んだバイトの書き込み先です。
+         */
+        private final OutputStream out;
+
+        private TeeInputStream(final InputStream in, final OutputStream out) {
+            super(in);
+            this.out = out;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final var b = super.read();
+            if (b != -1) {
+                this.out.write(b);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            final var n = super.read(b, off, len);
+            if (n > 0) {
+                this.out.write(b, off, n);
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(final long n) throws IOException {
+            // 読み飛ばしたバイトも書き込むため、読み込んで破棄する
+            final var buffer = new byte[(int) Math.min(n, 8192)];
+            final var read = read(buffer, 0, buffer.length);
+            return Math.max(read, 0);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public void close() {
+            // 解析を止めた後に残りを書き込むため、解析する側からは閉じない。レスポンスは呼び出し元で閉じる
+        }
+
+    }
+
+    /**
+     * レスポンスボディを解析する方法を表します。
+     *
+     * @param <T> 解析結果の型
+     */
+    @FunctionalInterface
+    public interface PageParser<T> {
+
+        /**
+         * @param in      レスポンスボディ
+         * @param charset 文字コード。不明な場合はnull
+         * @param baseUri URL
+         * @return 解析結果
+         * @throws IOException
+         */
+        T parse(InputStream in, String charset, String baseUri) throws IOException;
+
+    }
+
+}
@@ -1,20 +1,27 @@
 package jp.co.tk.domain.repo;
 
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import jp.co.tk.config.ScrapingProperties;
 import jp.co.tk.domain.model.Product;
 import jp.co.tk.domain.model.YAProduct;
-import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.RegExUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
 import org.springframework.stereotype.Repository;
 import org.springframework.util.CollectionUtils;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
 import java.net.URL;
-import java.util.HashSet;
+import java.nio.file.Path;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 /**
@@ -22,18 +29,8 @@ import java.util.stream.Collectors;
  */
 @Slf4j
 @Repository
-@RequiredArgsConstructor
-public class YARepositoryImpl implements WebContentRepository<Product, YAProduct.IdAndCategory> {
-
-    /**
-     * 出品者のベースURLを表します。
-     */
-    private final static String SELLER_URL = "https://auctions.yahoo.co.jp/seller";
-
-    /**
-     * 商品のベースURLを表します。
-     */
-    private final static String PRODUCT_URL = "https://page.auctions.yahoo.co.jp/jp/auction";
+public class YARepositoryImpl implements WebContentRepository<Product, YAProduct.IdAndCategory>,
+        AsyncWebContentRepository<Product, YAProduct.IdAndCategory> {
 
     /**
      * 出品者ページのクエリパラメーターのオフセットのキーを表します。
@@ -51,59 +48,86 @@ public class YARepositoryImpl implements WebContentRepository<Product, YAProduct
     private final static String LIMIT_KEY = "n";
 
     /**
-     * data-auction-id属性を抜き出すためのキーです。
+     * 正規表現で使用する円です。
+     */
+    private final static String YEN = "円";
+
+    /**
+     * 正規表現で使用する数値以外を表す文字です。
      */
-    private final static String AUCTION_ID = "data-auction-id";
+    private final static String REGEX_NON_NUM = "\\D";
 
     /**
-     * data-auction-category属性を抜き出すためのキーです。
+     * 正規表現で使用する価格です。
      */
-    private final static String AUCTION_CATEGORY = "data-auction-category";
+    private final static String PRICE = "価格";
 
     /**
-     * タイトルを抜き出すためのHTMLクラス名です。
+     * メソッドの処理時間のメトリクス名です。
      */
-    private final static String TITLE_CLASS = "ProductTitle__text";
+    private final static String METHOD_TIMER = "scraper.repository";
 
     /**
-     * 説明を抜き出すためのHTMLクラス名です。
+     * 処理が成功したことを表すメトリクスのタグです。
      */
-    private final static String STARTING_PRICE_CLASS = "ProductDetail__description";
+    private final static String SUCCESS = "SUCCESS";
 
     /**
-     * 説明文を抜き出すためのHTMLクラス名です。
+     * 処理が失敗したことを表すメトリクスのタグです。
      */
-    private final static String DESCRIPTION_CLASS = "ProductExplanation__commentArea";
+    private final static String FAILURE = "FAILURE";
 
     /**
-     * 開始価格を抜き出すためのHTMLクラス名です。
+     * 間隔制御とキャッシュを経由してリクエストを送信します。
      */
-    private final static String BUYNOW_PRICE_CLASS = "Price--buynow";
+    private final WebFetcher fetcher;
 
     /**
-     * イメージURLを抜き出すためのHTMLクラス名です。
+     * ページから項目を抜き出すルールです。
      */
-    private final static String IMG_CLASS = "ProductImage__image";
+    private final ExtractionRules rules;
 
     /**
-     * 合計値を抜き出すためのHTMLクラス名です。
+     * 失敗したリクエストの再送と、ホスト単位のサーキットブレーカーです。
      */
-    private final static String PU_CLASS = "pu";
+    private final ResilienceGuard guard;
 
     /**
-     * 正規表現で使用する円です。
+     * 出品者ページのベースURLを表します。
      */
-    private final static String YEN = "円";
+    private final String sellerUrl;
 
     /**
-     * 正規表現で使用する数値以外を表す文字です。
+     * 商品ページのベースURLを表します。
      */
-    private final static String REGEX_NON_NUM = "\\D";
+    private final String productUrl;
 
     /**
-     * 正規表現で使用する価格です。
+     * 画像のURLを書き換えるオブジェクトです。
      */
-    private final static String PRICE = "価格";
+    private final UrlRewriter imageUrlRewriter;
+
+    /**
+     * 商品ページを1回の走査で解析します。
+     */
+    private final ProductPageExtractor productPageExtractor;
+
+    /**
+     * @param fetcher    リクエストを送信するオブジェクト
+     * @param rules      ページから項目を抜き出すルール
+     * @param guard      再送とサーキットブレーカー
+     * @param properties リクエスト先の設定
+     */
+    public YARepositoryImpl(final WebFetcher fetcher, final ExtractionRules rules, final ResilienceGuard guard, final ScrapingProperties properties) {
+        this.fetcher = fetcher;
+        this.rules = rules;
+        this.guard = guard;
+        final var endpoint = properties.getEndpoint().getActiveProfile();
+        this.sellerUrl = endpoint.getSellerUrl();
+        this.productUrl = endpoint.getProductUrl();
+        this.imageUrlRewriter = new UrlRewriter(endpoint.getImageRewrites());
+        this.productPageExtractor = new ProductPageExtractor(rules);
+    }
 
     /**
      * @param idAndCategory
@@ -114,59 +138,250 @@ public class YARepositoryImpl implements WebContentRepository<Product, YAProduct
     public Product fetchByProductId(final YAProduct.IdAndCategory idAndCategory) throws IOException {
         final var userAgent = getRandomUserAgent();
         final var url = createUrlAsStr(idAndCategory.getId());
-        final var document = Jsoup.connect(url).userAgent(userAgent).timeout(60000).get();
+        return guarded("fetchByProductId", url, () -> this.fetcher.fetchPage(url, userAgent, (in, charset, baseUri) -> parseProduct(in, charset, baseUri, idAndCategory)));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Set<YAProduct.IdAndCategory> fetchProductNameListPageBySeller(final String seller, final int limit, final int offset) throws IOException {
+        final var userAgent = getRandomUserAgent();
+        final var url = createUrlAsStr(seller, limit, offset);
+        return guarded("fetchProductNameListPageBySeller", url, () -> parseIdAndCategory(this.fetcher.fetchDocument(url, userAgent)));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public byte[] fetchProductImgData(final URL imageUrl) throws IOException {
+        final var userAgent = getRandomUserAgent();
+        final var url = this.imageUrlRewriter.rewrite(imageUrl);
+        final var binaryData = guarded("fetchProductImgData", url.toString(), () -> this.fetcher.fetchBytes(url, userAgent));
+        log.debug("url=".concat(url.toString()));
+        return binaryData;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long fetchProductImgDataTo(final URL imageUrl, final Path target) throws IOException {
+        final var userAgent = getRandomUserAgent();
+        final var url = this.imageUrlRewriter.rewrite(imageUrl);
+        final var size = guarded("fetchProductImgDataTo", url.toString(), () -> this.fetcher.fetchTo(url, target, userAgent));
+        log.debug("url=" + url + " size=" + size);
+        return size;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String fetchProductImgDigestTo(final URL imageUrl, final Path target) throws IOException {
+        final var userAgent = getRandomUserAgent();
+        final var url = this.imageUrlRewriter.rewrite(imageUrl);
+        final var sha = guarded("fetchProductImgDigestTo", url.toString(), () -> this.fetcher.fetchDigestTo(url, target, userAgent));
+        log.debug("url=" + url + " sha=" + sha);
+        return sha;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @return
+     */
+    @Override
+    public int fetchTotalNumberOfProducts(final String seller) throws IOException {
+
+        final var userAgent = getRandomUserAgent();
+        final var url = createSellerTopUrlAsStr(seller);
+        log.debug("url=".concat(url));
+        return guarded("fetchTotalNumberOfProducts", url, () -> parseTotal(this.fetcher.fetchDocument(url, userAgent)));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompletableFuture<Product> fetchByProductIdAsync(final YAProduct.IdAndCategory idAndCategory) {
+        final var userAgent = getRandomUserAgent();
+        final var url = createUrlAsStr(idAndCategory.getId());
+        return guardedAsync("fetchByProductId", url, () -> this.fetcher.fetchPageAsync(url, userAgent, (in, charset, baseUri) -> parseProduct(in, charset, baseUri, idAndCategory)));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompletableFuture<Set<YAProduct.IdAndCategory>> fetchProductNameListPageBySellerAsync(final String seller, final int limit, final int offset) {
+        final var userAgent = getRandomUserAgent();
+        final var url = createUrlAsStr(seller, limit, offset);
+        return guardedAsync("fetchProductNameListPageBySeller", url, () -> this.fetcher.fetchPageAsync(url, userAgent, Jsoup::parse).thenApply(this::parseIdAndCategory));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompletableFuture<byte[]> fetchProductImgDataAsync(final URL imageUrl) {
+        final var userAgent = getRandomUserAgent();
+        final URL url;
+        try {
+            url = this.imageUrlRewriter.rewrite(imageUrl);
+        } catch (final MalformedURLException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        log.debug("url=".concat(url.toString()));
+        return guardedAsync("fetchProductImgData", url.toString(), () -> this.fetcher.fetchBytesAsync(url, userAgent));
+    }
 
-        final var title = document.getElementsByClass(TITLE_CLASS).text();
-        final var description = document.getElementsByClass(DESCRIPTION_CLASS).tagName(TABLE).text();
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompletableFuture<Integer> fetchTotalNumberOfProductsAsync(final String seller) {
+        final var userAgent = getRandomUserAgent();
+        final var url = createSellerTopUrlAsStr(seller);
+        log.debug("url=".concat(url));
+        return guardedAsync("fetchTotalNumberOfProducts", url, () -> this.fetcher.fetchPageAsync(url, userAgent, Jsoup::parse).thenApply(this::parseTotal));
+    }
 
-        String startingPriceTmp = null;
+    /**
+     * 処理を再送とサーキットブレーカーで保護し、1回毎の時間をメトリクスへ記録します。
+     *
+     * @param method メソッド名
+     * @param url    リクエスト先
+     * @param call   処理
+     * @param <T>    処理結果の型
+     * @return 処理結果
+     * @throws IOException
+     */
+    private <T> T guarded(final String method, final String url, final IOCall<T> call) throws IOException {
+        return this.guard.call(MeteredHttpTransport.hostOf(url), () -> timed(method, call));
+    }
+
+    /**
+     * 非同期の処理を再送とサーキットブレーカーで保護し、1回毎の時間をメトリクスへ記録します。
+     *
+     * @param method メソッド名
+     * @param url    リクエスト先
+     * @param call   処理
+     * @param <T>    処理結果の型
+     * @return 処理結果
+     */
+    private <T> CompletableFuture<T> guardedAsync(final String method, final String url, final Supplier<CompletableFuture<T>> call) {
+        return this.guard.callAsync(MeteredHttpTransport.hostOf(url), () -> timedAsync(method, call));
+    }
+
+    /**
+     * 処理の時間を、メソッド名と成否毎にメトリクスへ記録します。
+     *
+     * @param method メソッド名
+     * @param call   処理
+     * @param <T>    処理結果の型
+     * @return 処理結果
+     * @throws IOException
+     */
+    private static <T> T timed(final String method, final IOCall<T> call) throws IOException {
+        final var sample = Timer.start();
+        var outcome = FAILURE;
         try {
-            startingPriceTmp = document.getElementsByClass(STARTING_PRICE_CLASS).tagName(SPAN_TAG).eachText().get(9);
-        } catch (final IndexOutOfBoundsException e) {
-            log.error("Catch YARepositoryImpl.fetchByProductId", e);
-            startingPriceTmp = "0".concat(YEN);
+            final var result = call.call();
+            outcome = SUCCESS;
+            return result;
+        } finally {
+            sample.stop(methodTimer(method, outcome));
         }
+    }
+
+    /**
+     * 非同期の処理が完了するまでの時間を、メソッド名と成否毎にメトリクスへ記録します。
+     *
+     * @param method メソッド名
+     * @param call   処理
+     * @param <T>    処理結果の型
+     * @return 処理結果
+     */
+    private static <T> CompletableFuture<T> timedAsync(final String method, final Supplier<CompletableFuture<T>> call) {
+        final var sample = Timer.start();
+        return call.get().whenComplete((result, e) -> sample.stop(methodTimer(method, e == null ? SUCCESS : FAILURE)));
+    }
+
+    /**
+     * メソッドの処理時間のメトリクスを取得します。
+     *
+     * @param method  メソッド名
+     * @param outcome 成否
+     * @return Timer
+     */
+    private static Timer methodTimer(final String method, final String outcome) {
+        return Timer.builder(METHOD_TIMER)
+                .description("YARepositoryImpl method latency including rate limiting and parsing")
+                .tags("method", method, "outcome", outcome)
+                .publishPercentileHistogram()
+                .register(Metrics.globalRegistry);
+    }
+
+    /**
+     * 出品者のトップページのURLを作成します。
+     *
+     * @param seller 出品者
+     * @return URL
+     */
+    private String createSellerTopUrlAsStr(final String seller) {
+        final var urlBlr = new StringBuilder(this.sellerUrl);
+        urlBlr.append(SLASH);
+        urlBlr.append(seller);
+        return urlBlr.toString();
+    }
+
+    /**
+     * 商品ページから商品を抜き出します。
+     *
+     * @param in            商品ページ
+     * @param charset       文字コード
+     * @param baseUri       商品ページのURL
+     * @param idAndCategory IDとカテゴリ
+     * @return 商品
+     * @throws IOException
+     */
+    Product parseProduct(final InputStream in, final String charset, final String baseUri, final YAProduct.IdAndCategory idAndCategory) throws IOException {
+        final var page = this.productPageExtractor.extract(in, charset, baseUri);
+        final var startingPriceIndex = this.rules.getStartingPriceIndex();
 
-        final var startingPrice = startingPriceTmp;
-        final var buyoutPrice = document.getElementsByClass(BUYNOW_PRICE_CLASS).text();
-        final var imgIterator = document.getElementsByClass(IMG_CLASS).tagName(IMG_TAG).iterator();
-        final var imgUrls = new HashSet<URL>();
-        while (imgIterator.hasNext()) {
-            final var p = imgIterator.next();
-            final var imgs = p.getElementsByTag(IMG_TAG);
-            for (final var e : imgs) {
-                final var urlAsStr = e.absUrl(SRC_ATTR);
-                if (StringUtils.isNotBlank(urlAsStr)) {
-                    final var imgUrl = new URL(urlAsStr);
-                    imgUrls.add(imgUrl);
-                }
-            }
+        final String startingPrice;
+        if (page.getDetails().size() > startingPriceIndex) {
+            startingPrice = page.getDetails().get(startingPriceIndex);
+        } else {
+            log.error("Catch YARepositoryImpl.fetchByProductId. starting price not found. id=".concat(idAndCategory.getId()));
+            startingPrice = "0".concat(YEN);
         }
 
         final YAProduct product = YAProduct.builder()
                 .idAndCategory(idAndCategory)
-                .title(title)
-                .description(description)
+                .title(page.getTitle())
+                .description(page.getDescription())
                 .startingPrice(convertToNum(startingPrice))
-                .buyoutPrice(convertToNum(buyoutPrice))
-                .imageUrl(imgUrls)
+                .buyoutPrice(convertToNum(page.getBuyoutPrice()))
+                .imageUri(page.getImageUri())
                 .build();
 
         return product;
     }
 
     /**
-     * {@inheritDoc}
+     * 出品者ページから商品のIDとカテゴリを抜き出します。
+     *
+     * @param document 出品者ページ
+     * @return IDとカテゴリ
      */
-    @Override
-    public Set<YAProduct.IdAndCategory> fetchProductNameListPageBySeller(final String seller, final int limit, final int offset) throws IOException {
-        final var userAgent = getRandomUserAgent();
-        final var url = createUrlAsStr(seller, limit, offset);
-        final var document = Jsoup.connect(url).userAgent(userAgent).timeout(60000).get();
-        final var idAndCategorySet = document.getElementsByTag(A_TAG).stream()
+    Set<YAProduct.IdAndCategory> parseIdAndCategory(final Document document) {
+        final var idAndCategorySet = document.select(this.rules.getSellerItem()).stream()
                 .map(x -> {
-                    final String id = x.getElementsByAttribute(AUCTION_ID).attr(AUCTION_ID);
-                    final String category = x.getElementsByAttribute(AUCTION_ID).attr(AUCTION_CATEGORY);
+                    final String id = x.attr(this.rules.getIdAttr());
+                    final String category = x.attr(this.rules.getCategoryAttr());
                     if (StringUtils.isBlank(id) || StringUtils.isBlank(category)) {
                         return null;
                     }
@@ -179,31 +394,13 @@ public class YARepositoryImpl implements WebContentRepository<Product, YAProduct
     }
 
     /**
-     * {@inheritDoc}
-     */
-    @Override
-    public byte[] fetchProductImgData(final URL url) throws IOException {
-        final var userAgent = getRandomUserAgent();
-        final var binaryData = Jsoup.connect(url.toString()).userAgent(userAgent).timeout(60000).ignoreContentType(true).execute().bodyAsBytes();
-        log.debug("url=".concat(url.toString()));
-        return binaryData;
-    }
-
-    /**
-     * {@inheritDoc}
+     * 出品者ページから商品の合計数を抜き出します。
      *
-     * @return
+     * @param document 出品者ページ
+     * @return 合計数
      */
-    @Override
-    public int fetchTotalNumberOfProducts(final String seller) throws IOException {
-
-        final var userAgent = getRandomUserAgent();
-        final var urlBlr = new StringBuilder(SELLER_URL);
-        urlBlr.append(SLASH);
-        urlBlr.append(seller);
-        log.debug("url=".concat(urlBlr.toString()));
-        final var document = Jsoup.connect(urlBlr.toString()).userAgent(userAgent).timeout(60000).get();
-        final var elementsWithTotal = document.getElementsByClass(PU_CLASS).tagName(SELECT_TAG).tagName(OPTION_TAG).eachText();
+    int parseTotal(final Document document) {
+        final var elementsWithTotal = document.select(this.rules.getTotal()).eachText();
         final int total;
         if (!CollectionUtils.isEmpty(elementsWithTotal)) {
             final String[] splitedSpaceAry = elementsWithTotal.get(0).split(SPCAE);
@@ -215,7 +412,6 @@ public class YARepositoryImpl implements WebContentRepository<Product, YAProduct
         return total;
     }
 
-
     /**
      * 出品者ページのURLを作成します。
      *
@@ -227,7 +423,7 @@ public class YARepositoryImpl implements WebContentRepository<Product, YAProduct
     String createUrlAsStr(final String seller, final int limit, final int offset) {
 
         final var sb = new StringBuilder();
-        sb.append(SELLER_URL);
+        sb.append(this.sellerUrl);
         sb.append(SLASH);
         sb.append(seller);
         sb.append(QUERY_PARAM_KEY);
@@ -259,7 +455,7 @@ public class YARepositoryImpl implements WebContentRepository<Product, YAProduct
     String createUrlAsStr(final String auctionId) {
 
         final var sb = new StringBuilder();
-        sb.append(PRODUCT_URL);
+        sb.append(this.productUrl);
         sb.append(SLASH);
         sb.append(auctionId);
         final var url = sb.toString();
@@ -272,9 +468,12 @@ public class YARepositoryImpl implements WebContentRepository<Product, YAProduct
      * ヤフオクから取得した価格を数値だけ抜き取ります。
      *
      * @param target
-     * @return 数値
+     * @return 数値。価格が無い場合はnull
      */
     Long convertToNum(final String target) {
+        if (StringUtils.isBlank(target)) {
+            return null;
+        }
         final var yenIndex = target.indexOf(YEN);
         final var priceIndex = target.indexOf(PRICE);
         final var startUntilYen = priceIndex == -1 ? target.substring(0, yenIndex) : target.substring(priceIndex, yenIndex);
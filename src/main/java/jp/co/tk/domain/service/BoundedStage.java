@@ -0,0 +1,271 @@
+package jp.co.tk.domain.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * パイプラインの1段を表します。
+ * 同時実行数と待ち行列の長さを制限し、上限に達した場合は投入側を待機させます。
+ * <p>
+ * 仮想スレッドのモードでは、タスク毎に仮想スレッドを1つ生成し、同時実行数はセマフォのみで制限します。
+ * 仮想スレッドはJava21以降で使用でき、それ以前のJavaではプラットフォームスレッドで動作します。
+ */
+@Slf4j
+public class BoundedStage implements AutoCloseable {
+
+    /**
+     * 段の名前です。
+     */
+    private final String name;
+
+    /**
+     * タスクを実行するスレッドプールです。
+     */
+    private final ExecutorService executor;
+
+    /**
+     * 実行中と待機中のタスク数を制限するセマフォです。
+     */
+    private final Semaphore permits;
+
+    /**
+     * 実行中と待機中を合わせたタスク数の上限です。
+     */
+    private final int maxPermits;
+
+    /**
+     * 投入側が空きを待った時間です。
+     */
+    private final Timer submitWait;
+
+    /**
+     * 実行中と待機中のタスク数のメトリクスです。
+     */
+    private final Gauge tasks;
+
+    /**
+     * タスク数のメトリクス名です。
+     */
+    static final String TASKS_GAUGE = "scraper.stage.tasks";
+
+    /**
+     * 投入側が待った時間のメトリクス名です。
+     */
+    static final String SUBMIT_WAIT_TIMER = "scraper.stage.submit.wait";
+
+    /**
+     * 仮想スレッドを生成するExecutorServiceのファクトリーです。Java21未満の場合はnullです。
+     */
+    private static final VirtualThreadExecutorFactory VIRTUAL_THREAD_FACTORY = VirtualThreadExecutorFactory.lookup();
+
+    /**
+     * プラットフォームスレッドのプールで実行する段を生成します。
+     *
+     * @param name          段の名前
+     * @param concurrency   同時実行数
+     * @param queueCapacity 実行待ちにできるタスク数
+     */
+    public BoundedStage(final String name, final int concurrency, final int queueCapacity) {
+        this(name, Executors.newFixedThreadPool(concurrency, new CustomizableThreadFactory(name.concat("-"))), concurrency + Math.max(queueCapacity, 0));
+    }
+
+    /**
+     * @param name     段の名前
+     * @param executor タスクを実行するExecutorService
+     * @param permits  実行中と待機中を合わせたタスク数の上限
+     */
+    BoundedStage(final String name, final ExecutorService executor, final int permits) {
+        this.name = name;
+        this.executor = executor;
+        this.permits = new Semaphore(permits);
+        this.maxPermits = permits;
+        this.submitWait = submitWaitTimer(name);
+        this.tasks = Gauge.builder(TASKS_GAUGE, this, s -> s.maxPermits - s.permits.availablePermits())
+                .description("Tasks running or queued in the pipeline stage")
+                .tags("stage", name, "state", "pending")
+                .register(Metrics.globalRegistry);
+    }
+
+    /**
+     * 投入側が空きを待った時間のメトリクスを取得します。
+     *
+     * @param name 段の名前
+     * @return Timer
+     */
+    static Timer submitWaitTimer(final String name) {
+        return Timer.builder(SUBMIT_WAIT_TIMER)
+                .description("Time producers were blocked by a full pipeline stage")
+                .tag("stage", name)
+                .register(Metrics.globalRegistry);
+    }
+
+    /**
+     * 仮想スレッドで実行する段を生成します。
+     * 仮想スレッドが使用できない場合は、プラットフォームスレッドのプールで実行する段を生成します。
+     *
+     * @param name        段の名前
+     * @param concurrency 同時実行数
+     * @return 段
+     */
+    public static BoundedStage virtual(final String name, final int concurrency) {
+        if (!isVirtualThreadSupported()) {
+            log.warn("virtual threads are not supported on this JVM. stage=".concat(name));
+            return new BoundedStage(name, concurrency, 0);
+        }
+        return new BoundedStage(name, newVirtualThreadExecutor(name.concat("-")), concurrency);
+    }
+
+    /**
+     * タスク毎に仮想スレッドを生成するExecutorServiceを生成します。
+     * 仮想スレッドが使用できることを確認してから呼び出します。
+     *
+     * @param prefix スレッド名の接頭辞
+     * @return ExecutorService
+     */
+    static ExecutorService newVirtualThreadExecutor(final String prefix) {
+        return VIRTUAL_THREAD_FACTORY.create(prefix);
+    }
+
+    /**
+     * 仮想スレッドが使用できるかを返却します。
+     *
+     * @return Java21以降の場合はtrue
+     */
+    public static boolean isVirtualThreadSupported() {
+        return VIRTUAL_THREAD_FACTORY != null;
+    }
+
+    /**
+     * タスクを投入します。
+     * 実行中と待機中のタスク数が上限に達している場合は、空きが出るまで待機します。
+     *
+     * @param task タスク
+     * @return タスクの結果
+     */
+    public <T> CompletableFuture<T> submit(final Callable<T> task) {
+        final var result = new CompletableFuture<T>();
+        final var waitStarted = System.nanoTime();
+        try {
+            this.permits.acquire();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            result.completeExceptionally(e);
+            return result;
+        }
+        this.submitWait.record(System.nanoTime() - waitStarted, TimeUnit.NANOSECONDS);
+        this.executor.execute(() -> {
+            try {
+                result.complete(task.call());
+            } catch (final Throwable e) {
+                result.completeExceptionally(e);
+            } finally {
+                this.permits.release();
+            }
+        });
+        return result;
+    }
+
+    /**
+     * 段の名前を取得します。
+     *
+     * @return 段の名前
+     */
+    public String getName() {
+        return this.name;
+    }
+
+    /**
+     * 実行中のタスクの完了を待ってから停止します。
+     */
+    @Override
+    public void close() {
+        Metrics.globalRegistry.remove(this.tasks);
+        this.executor.shutdown();
+        try {
+            if (!this.executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                log.warn("stage did not terminate. name=".concat(this.name));
+                this.executor.shutdownNow();
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            this.executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Java21の Thread.ofVirtual() と Executors.newThreadPerTaskExecutor() をリフレクションで呼び出します。
+     * Java11でコンパイルできるように、APIを直接参照しません。
+     */
+    @RequiredArgsConstructor
+    static class VirtualThreadExecutorFactory {
+
+        /**
+         * Thread.ofVirtual()
+         */
+        private final Method ofVirtual;
+
+        /**
+         * Thread.Builder.name(String, long)
+         */
+        private final Method name;
+
+        /**
+         * Thread.Builder.factory()
+         */
+        private final Method factory;
+
+        /**
+         * Executors.newThreadPerTaskExecutor(ThreadFactory)
+         */
+        private final Method newThreadPerTaskExecutor;
+
+        /**
+         * 仮想スレッドのAPIを探します。
+         *
+         * @return 見つからない場合はnull
+         */
+        static VirtualThreadExecutorFactory lookup() {
+            try {
+                final var builderClass = Class.forName("java.lang.Thread$Builder");
+                return new VirtualThreadExecutorFactory(
+                        Thread.class.getMethod("ofVirtual"),
+                        builderClass.getMethod("name", String.class, long.class),
+                        builderClass.getMethod("factory"),
+                        Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class));
+            } catch (final ReflectiveOperationException e) {
+                return null;
+            }
+        }
+
+        /**
+         * タスク毎に仮想スレッドを生成するExecutorServiceを生成します。
+         *
+         * @param prefix スレッド名の接頭辞
+         * @return ExecutorService
+         */
+        ExecutorService create(final String prefix) {
+            try {
+                final var builder = this.name.invoke(this.ofVirtual.invoke(null), prefix, 1L);
+                final var threadFactory = (ThreadFactory) this.factory.invoke(builder);
+                return (ExecutorService) this.newThreadPerTaskExecutor.invoke(null, threadFactory);
+            } catch (final ReflectiveOperationException e) {
+                throw new IllegalStateException("failed to create virtual thread executor.", e);
+            }
+        }
+
+    }
+
+}
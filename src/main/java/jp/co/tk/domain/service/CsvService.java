@@ -1,21 +1,26 @@
 package jp.co.tk.domain.service;
 
+import jp.co.tk.config.ScrapingProperties;
+import jp.co.tk.domain.model.CsvRowWriter;
 import jp.co.tk.domain.model.Seller;
+import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 
-import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 
 /**
  * CSVファイルするサービスクラスです。
  */
 @Slf4j
 @Service
+@RequiredArgsConstructor
 public class CsvService {
 
     /**
@@ -39,19 +44,28 @@ public class CsvService {
     private static final String EXTENSION = ".csv";
 
     /**
-     * 改行コード
+     * カンマを表すフィールドです。
      */
-    private static final String LF = "\r\n";
+    private final static String COMMA = ",";
 
     /**
-     * 出品者のファイルパス
+     * CSVファイルの設定です。
      */
-    private final static String SELLER_PATH = "./in/seller.csv";
+    private final ScrapingProperties properties;
 
     /**
-     * カンマを表すフィールドです。
+     * 出品者の商品を1行ずつ追記するCSVファイルを開きます。
+     * ファイル名は「出品者名_開始時刻_連番.csv」です。
+     *
+     * @param sellerName 出品者名
+     * @param outputDir  出力先のディレクトリ
+     * @return CSVファイル
      */
-    private final static String COMMA = ",";
+    public CsvSink open(final String sellerName, final String outputDir) {
+        final var config = this.properties.getCsv();
+        final var prefix = sellerName.concat(UNDERBAR).concat(String.valueOf(System.currentTimeMillis()));
+        return new CsvSink(Paths.get(outputDir), prefix, Charset.forName(CSV_CHARSET), config.getMaxRows(), config.getMaxSizeMb() * 1024 * 1024);
+    }
 
     /**
      * 出品者情報を基にCSVファイルを生成します。
@@ -67,16 +81,16 @@ public class CsvService {
         fileBlr.append(EXTENSION);
 
         final var filePath = outputDir.concat(SLASH).concat(fileBlr.toString());
-        try (final var fw = new FileWriter(filePath, Charset.forName(CSV_CHARSET))) {
+        final var row = new CsvRowWriter(Charset.forName(CSV_CHARSET));
+        try (final var channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
             var isFirst = true;
             for (final var p : seller.getProduct()) {
                 if (isFirst) {
-                    fw.write(p.csvHeader());
-                    fw.write(LF);
+                    row.raw(p.csvHeader()).endRow();
                     isFirst = false;
                 }
-                fw.write(p.csvData());
-                fw.write(LF);
+                p.writeCsvData(row);
+                row.endRow().writeTo(channel);
             }
         }
         log.debug("generate csv. path=".concat(filePath));
@@ -89,7 +103,7 @@ public class CsvService {
      * @throws IOException
      */
     public String[] readSellerList() throws IOException {
-        final Path file = Paths.get(SELLER_PATH);
+        final Path file = Paths.get(this.properties.getCsv().getSellerFile());
         return Files.readString(file, Charset.forName(CSV_CHARSET)).split(COMMA);
     }
 
@@ -0,0 +1,150 @@
+package jp.co.tk.domain.service;
+
+import jp.co.tk.domain.model.CsvRowWriter;
+import jp.co.tk.domain.model.Product;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 出品者1人分のCSVファイルに、商品を取得した順に1行ずつ追記します。
+ * 行数またはファイルサイズが上限に達した場合は、次のファイルに切り替えます。
+ * 1行毎にファイルへ書き出すため、処理が中断されても書き込み済みの行は失われません。
+ * 行は{@link CsvRowWriter}のバッファから直接文字コードへ変換して書き出します。
+ */
+@Slf4j
+public class CsvSink implements AutoCloseable {
+
+    /**
+     * アンダーバー
+     */
+    private static final String UNDERBAR = "_";
+
+    /**
+     * csvの拡張子
+     */
+    private static final String EXTENSION = ".csv";
+
+    /**
+     * 出力先のディレクトリです。
+     */
+    private final Path outputDir;
+
+    /**
+     * ファイル名の接頭辞です。
+     */
+    private final String filePrefix;
+
+    /**
+     * 行を書き込むバッファです。
+     */
+    private final CsvRowWriter row;
+
+    /**
+     * 1ファイルあたりの行数の上限です。0以下の場合は制限しません。
+     */
+    private final long maxRows;
+
+    /**
+     * 1ファイルあたりのバイト数の上限です。0以下の場合は制限しません。
+     */
+    private final long maxBytes;
+
+    /**
+     * 現在のファイルの番号です。
+     */
+    private int part;
+
+    /**
+     * 現在のファイルに書き込んだ行数です。ヘッダーは含みません。
+     */
+    private long rows;
+
+    /**
+     * 現在のファイルに書き込んだバイト数です。
+     */
+    private long bytes;
+
+    /**
+     * 現在のファイルです。
+     */
+    private FileChannel channel;
+
+    /**
+     * @param outputDir  出力先のディレクトリ
+     * @param filePrefix ファイル名の接頭辞
+     * @param charset    文字コード
+     * @param maxRows    1ファイルあたりの行数の上限
+     * @param maxBytes   1ファイルあたりのバイト数の上限
+     */
+    CsvSink(final Path outputDir, final String filePrefix, final Charset charset, final long maxRows, final long maxBytes) {
+        this.outputDir = outputDir;
+        this.filePrefix = filePrefix;
+        this.row = new CsvRowWriter(charset);
+        this.maxRows = maxRows;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * 商品を1行追記し、ファイルへ書き出します。
+     *
+     * @param product 商品
+     * @throws IOException
+     */
+    public synchronized void append(final Product product) throws IOException {
+        if (this.channel == null || isFull()) {
+            roll(product);
+        }
+        product.writeCsvData(this.row);
+        this.bytes += this.row.endRow().writeTo(this.channel);
+        this.rows++;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (this.channel != null) {
+            this.channel.close();
+            this.channel = null;
+        }
+    }
+
+    /**
+     * 現在のファイルが上限に達しているかを返却します。
+     *
+     * @return 上限に達している場合はtrue
+     */
+    private boolean isFull() {
+        return (this.maxRows > 0 && this.rows >= this.maxRows)
+                || (this.maxBytes > 0 && this.bytes >= this.maxBytes);
+    }
+
+    /**
+     * 次のファイルを開き、ヘッダーを書き込みます。
+     *
+     * @param product ヘッダーを取得する商品
+     * @throws IOException
+     */
+    private void roll(final Product product) throws IOException {
+        close();
+        Files.createDirectories(this.outputDir);
+        final var fileBlr = new StringBuilder(this.filePrefix);
+        fileBlr.append(UNDERBAR);
+        fileBlr.append(this.part++);
+        fileBlr.append(EXTENSION);
+        final var filePath = this.outputDir.resolve(fileBlr.toString());
+
+        this.channel = FileChannel.open(filePath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        this.bytes = this.row.raw(product.csvHeader()).endRow().writeTo(this.channel);
+        this.rows = 0;
+        log.debug("generate csv. path=".concat(filePath.toString()));
+    }
+
+}
@@ -0,0 +1,335 @@
+package jp.co.tk.domain.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToIntFunction;
+
+/**
+ * タスクをキー(出品者)毎の待ち行列に分け、キーの間で順番にタスクを実行するパイプラインの1段です。
+ * <p>
+ * 同時実行数は段全体で共有し、空きが出るたびに次のキーの待ち行列から重みの数だけタスクを取り出します。
+ * 実行中と待機中のタスク数の上限はキー毎に設けるため、タスクの多いキーが待ち行列を埋めても、
+ * 他のキーの投入側は待機しません。
+ * キーの待ち行列は、投入したタスクがすべて完了した時点で削除するため、処理を終えたキーは保持しません。
+ */
+@Slf4j
+public class FairStage implements AutoCloseable {
+
+    /**
+     * 段の名前です。
+     */
+    private final String name;
+
+    /**
+     * タスクを実行するスレッドプールです。
+     */
+    private final ExecutorService executor;
+
+    /**
+     * 同時実行数です。
+     */
+    private final int concurrency;
+
+    /**
+     * キー毎の、実行中と待機中を合わせたタスク数の上限です。
+     */
+    private final int permitsPerKey;
+
+    /**
+     * キー毎の重みです。設定されていないキーの重みは1です。
+     */
+    private final Map<String, Integer> weights;
+
+    /**
+     * キー毎の待ち行列です。タスクを投入中、待機中、実行中のキーのみ保持します。
+     */
+    private final Map<String, Lane> lanes = new HashMap<>();
+
+    /**
+     * 待機中のタスクを持つ待ち行列です。先頭から順にタスクを取り出します。
+     */
+    private final ArrayDeque<Lane> ready = new ArrayDeque<>();
+
+    /**
+     * 実行中のタスク数です。
+     */
+    private int running;
+
+    /**
+     * 待機中のタスク数です。
+     */
+    private int queued;
+
+    /**
+     * 投入側が空きを待った時間です。
+     */
+    private final Timer submitWait;
+
+    /**
+     * 実行中と待機中のタスク数のメトリクスです。
+     */
+    private final List<Gauge> gauges;
+
+    /**
+     * プラットフォームスレッドのプールで実行する段を生成します。
+     *
+     * @param name          段の名前
+     * @param concurrency   同時実行数
+     * @param queueCapacity キー毎に実行待ちにできるタスク数
+     * @param weights       キー毎の重み
+     */
+    public FairStage(final String name, final int concurrency, final int queueCapacity, final Map<String, Integer> weights) {
+        this(name, Executors.newFixedThreadPool(concurrency, new CustomizableThreadFactory(name.concat("-"))), concurrency, concurrency + Math.max(queueCapacity, 0), weights);
+    }
+
+    /**
+     * @param name          段の名前
+     * @param executor      タスクを実行するExecutorService
+     * @param concurrency   同時実行数
+     * @param permitsPerKey キー毎の、実行中と待機中を合わせたタスク数の上限
+     * @param weights       キー毎の重み
+     */
+    FairStage(final String name, final ExecutorService executor, final int concurrency, final int permitsPerKey, final Map<String, Integer> weights) {
+        this.name = name;
+        this.executor = executor;
+        this.concurrency = concurrency;
+        this.permitsPerKey = permitsPerKey;
+        this.weights = weights == null ? Collections.emptyMap() : weights;
+        this.submitWait = BoundedStage.submitWaitTimer(name);
+        this.gauges = List.of(gauge("running", s -> s.running), gauge("queued", s -> s.queued));
+    }
+
+    /**
+     * タスク数のメトリクスを登録します。
+     *
+     * @param state 状態
+     * @param value タスク数を取得する関数
+     * @return Gauge
+     */
+    private Gauge gauge(final String state, final ToIntFunction<FairStage> value) {
+        return Gauge.builder(BoundedStage.TASKS_GAUGE, this, s -> {
+                    synchronized (s) {
+                        return value.applyAsInt(s);
+                    }
+                })
+                .description("Tasks running or queued in the pipeline stage")
+                .tags("stage", this.name, "state", state)
+                .register(Metrics.globalRegistry);
+    }
+
+    /**
+     * 仮想スレッドで実行する段を生成します。
+     * 仮想スレッドが使用できない場合は、プラットフォームスレッドのプールで実行する段を生成します。
+     *
+     * @param name        段の名前
+     * @param concurrency 同時実行数
+     * @param weights     キー毎の重み
+     * @return 段
+     */
+    public static FairStage virtual(final String name, final int concurrency, final Map<String, Integer> weights) {
+        if (!BoundedStage.isVirtualThreadSupported()) {
+            log.warn("virtual threads are not supported on this JVM. stage=".concat(name));
+            return new FairStage(name, concurrency, 0, weights);
+        }
+        return new FairStage(name, BoundedStage.newVirtualThreadExecutor(name.concat("-")), concurrency, concurrency, weights);
+    }
+
+    /**
+     * キーを指定してタスクを投入します。
+     * キーの実行中と待機中のタスク数が上限に達している場合は、空きが出るまで待機します。
+     *
+     * @param key  キー
+     * @param task タスク
+     * @return タスクの結果
+     */
+    public <T> CompletableFuture<T> submit(final String key, final Callable<T> task) {
+        final var result = new CompletableFuture<T>();
+        final Lane lane;
+        final var waitStarted = System.nanoTime();
+        synchronized (this) {
+            lane = this.lanes.computeIfAbsent(key, k -> new Lane(this.permitsPerKey, Math.max(this.weights.getOrDefault(k, 1), 1)));
+            lane.refs++;
+        }
+        try {
+            lane.permits.acquire();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            release(key, lane);
+            result.completeExceptionally(e);
+            return result;
+        }
+        this.submitWait.record(System.nanoTime() - waitStarted, TimeUnit.NANOSECONDS);
+        synchronized (this) {
+            this.queued++;
+            lane.tasks.add(() -> {
+                // 結果を待つ側が同じキーで投入し直せるよう、待ち行列を解放してから完了させる
+                T value = null;
+                Throwable error = null;
+                try {
+                    value = task.call();
+                } catch (final Throwable e) {
+                    error = e;
+                } finally {
+                    lane.permits.release();
+                    release(key, lane);
+                }
+                if (error == null) {
+                    result.complete(value);
+                } else {
+                    result.completeExceptionally(error);
+                }
+            });
+            if (lane.tasks.size() == 1) {
+                this.ready.add(lane);
+            }
+            dispatch();
+        }
+        return result;
+    }
+
+    /**
+     * 段の名前を取得します。
+     *
+     * @return 段の名前
+     */
+    public String getName() {
+        return this.name;
+    }
+
+    /**
+     * 保持しているキーの待ち行列の数を取得します。
+     *
+     * @return 待ち行列の数
+     */
+    synchronized int getLaneCount() {
+        return this.lanes.size();
+    }
+
+    /**
+     * キーの待ち行列への参照を1つ解放し、参照がなくなった待ち行列を削除します。
+     * 参照は投入したタスク毎に持つため、参照がなくなった待ち行列は待機中のタスクを持ちません。
+     *
+     * @param key  キー
+     * @param lane 待ち行列
+     */
+    private synchronized void release(final String key, final Lane lane) {
+        lane.refs--;
+        if (lane.refs == 0) {
+            this.lanes.remove(key, lane);
+        }
+    }
+
+    /**
+     * 待機中のタスクを順番に取り出し、同時実行数の上限まで実行を開始します。
+     * 1つのキーから続けて取り出すのは、キーの重みの数までです。
+     */
+    private synchronized void dispatch() {
+        while (this.running < this.concurrency && !this.ready.isEmpty()) {
+            final var lane = this.ready.peek();
+            final var task = lane.tasks.poll();
+            this.queued--;
+            lane.served++;
+            if (lane.tasks.isEmpty()) {
+                this.ready.poll();
+                lane.served = 0;
+            } else if (lane.served >= lane.weight) {
+                this.ready.add(this.ready.poll());
+                lane.served = 0;
+            }
+            this.running++;
+            this.executor.execute(() -> {
+                try {
+                    task.run();
+                } finally {
+                    finish();
+                }
+            });
+        }
+    }
+
+    /**
+     * タスクの完了を記録し、次のタスクの実行を開始します。
+     */
+    private synchronized void finish() {
+        this.running--;
+        dispatch();
+        notifyAll();
+    }
+
+    /**
+     * 待機中と実行中のタスクの完了を待ってから停止します。
+     */
+    @Override
+    public void close() {
+        final var deadline = System.nanoTime() + TimeUnit.MINUTES.toNanos(1);
+        try {
+            synchronized (this) {
+                while (this.running > 0 || !this.ready.isEmpty()) {
+                    final var remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                    if (remaining <= 0) {
+                        log.warn("stage did not terminate. name=".concat(this.name));
+                        break;
+                    }
+                    wait(remaining);
+                }
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        this.gauges.forEach(Metrics.globalRegistry::remove);
+        this.executor.shutdownNow();
+    }
+
+    /**
+     * キー毎の待ち行列です。
+     */
+    private static class Lane {
+
+        /**
+         * 実行中と待機中のタスク数を制限するセマフォです。
+         */
+        private final Semaphore permits;
+
+        /**
+         * 1回の順番で続けて取り出すタスク数です。
+         */
+        private final int weight;
+
+        /**
+         * 待機中のタスクです。
+         */
+        private final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+
+        /**
+         * 今回の順番で取り出したタスク数です。
+         */
+        private int served;
+
+        /**
+         * 投入中、待機中、実行中のタスク数です。0になった時点で待ち行列を削除します。
+         */
+        private int refs;
+
+        private Lane(final int permits, final int weight) {
+            this.permits = new Semaphore(permits);
+            this.weight = weight;
+        }
+
+    }
+
+}
@@ -0,0 +1,313 @@
+package jp.co.tk.domain.service;
+
+import io.micrometer.core.instrument.Metrics;
+import jp.co.tk.config.ScrapingProperties;
+import jp.co.tk.domain.repo.ImageStore;
+import jp.co.tk.domain.repo.YARepositoryImpl;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 画像のダウンロードと出力を行うサービスクラスです。
+ * 画像1枚毎にタスクを投入し、待ち行列が一杯の場合は投入側を待機させます。
+ * 画像はデコードせず、レスポンスボディをそのままファイルへ書き込みます。
+ * {@link ImageStore}が有効な場合は、取得済みの画像をダウンロードせずに出力先へハードリンクします。
+ * この場合はHTTPレスポンスのキャッシュを経由せず、ダウンロード時に計算したSHA-256でストアへ保存します。
+ */
+@Slf4j
+@Service
+public class ImageDownloadService implements DisposableBean {
+
+    /**
+     * 画像の形式を判定するために読み込むバイト数です。
+     */
+    private final static int HEADER_LENGTH = 12;
+
+    /**
+     * JPEG、PNG、GIFのファイルの先頭のバイトです。
+     */
+    private final static byte[][] SIGNATURES = {
+            {(byte) 0xFF, (byte) 0xD8, (byte) 0xFF},
+            {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'},
+            {'G', 'I', 'F', '8'},
+    };
+
+    /**
+     * WebPのファイルの先頭のバイトです。
+     */
+    private final static byte[] RIFF = {'R', 'I', 'F', 'F'};
+
+    /**
+     * WebPのファイルの9バイト目からのバイトです。
+     */
+    private final static byte[] WEBP = {'W', 'E', 'B', 'P'};
+
+    /**
+     * 出力した画像数のメトリクス名です。
+     */
+    private final static String IMAGES = "scraper.images";
+
+    /**
+     * 進捗をログに出力する間隔(画像数)です。
+     */
+    private final static long PROGRESS_LOG_INTERVAL = 100;
+
+    /**
+     * ヤフオクからデータを取得するクラスです。
+     */
+    private final YARepositoryImpl repo;
+
+    /**
+     * 画像を内容のハッシュで保存するストアです。
+     */
+    private final ImageStore store;
+
+    /**
+     * 画像のダウンロードを実行する段です。
+     */
+    private final BoundedStage stage;
+
+    /**
+     * trueの場合、出力した画像の先頭のバイトを検証します。
+     */
+    private final boolean validateHeader;
+
+    /**
+     * 投入された画像数です。
+     */
+    private final AtomicLong submitted = new AtomicLong();
+
+    /**
+     * 出力が完了した画像数です。
+     */
+    private final AtomicLong completed = new AtomicLong();
+
+    /**
+     * 失敗した画像数です。
+     */
+    private final AtomicLong failed = new AtomicLong();
+
+    /**
+     * 全ての画像の完了を待つためのロックです。
+     */
+    private final Object idleLock = new Object();
+
+    public ImageDownloadService(final YARepositoryImpl repo, final ImageStore store, final ScrapingProperties properties) {
+        this.repo = repo;
+        this.store = store;
+        final var config = properties.getImage().getDownload();
+        this.validateHeader = properties.getImage().isValidateHeader();
+        if (properties.getPipeline().isVirtualThreads()) {
+            this.stage = BoundedStage.virtual("ImageStage", config.getConcurrency());
+        } else {
+            this.stage = new BoundedStage("ImageStage", config.getConcurrency(), config.getQueueCapacity());
+        }
+    }
+
+    /**
+     * 画像のダウンロードを投入します。
+     * 待ち行列が一杯の場合は、空きが出るまで待機します。
+     *
+     * @param url      画像のURL
+     * @param fileName 出力するファイル名
+     * @param filePath 出力先のディレクトリ
+     * @return 画像1枚の処理結果
+     */
+    public CompletableFuture<Void> submit(final URL url, final String fileName, final String filePath) {
+        this.submitted.incrementAndGet();
+        final var result = this.stage.<Void>submit(() -> {
+            try {
+                final var path = Paths.get(filePath, fileName);
+                if (this.store.isEnabled()) {
+                    download(url, path);
+                } else {
+                    this.repo.fetchProductImgDataTo(url, path);
+                    if (this.validateHeader) {
+                        validateHeader(path);
+                    }
+                }
+                log.debug("Generated img. imgPath=".concat(path.toString()));
+                return null;
+            } catch (final IOException e) {
+                log.error("Catch ImageDownloadService.submit. url=".concat(url.toString()), e);
+                throw e;
+            }
+        });
+        // 待機中のスレッドが結果を参照できるよう、完了後に数を更新する
+        result.whenComplete((x, e) -> finish(e == null));
+        return result;
+    }
+
+    /**
+     * 取得済みのURLの場合はストアの画像を、未取得の場合はダウンロードしてストアへ保存した画像を出力先へハードリンクします。
+     * 画像はストアにのみ保存し、HTTPレスポンスのキャッシュには保存しません。
+     *
+     * @param url  画像のURL
+     * @param path 出力先のファイル
+     * @throws IOException
+     */
+    private void download(final URL url, final Path path) throws IOException {
+        var blob = this.store.find(url);
+        if (blob == null) {
+            final var temp = this.store.createTempFile();
+            try {
+                final var sha = this.repo.fetchProductImgDigestTo(url, temp);
+                if (this.validateHeader) {
+                    validateHeader(temp);
+                }
+                blob = this.store.put(url, temp, sha);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        }
+        this.store.link(blob, path);
+    }
+
+    /**
+     * 投入済みの全ての画像の処理が完了するまで待機します。
+     *
+     * @throws InterruptedException
+     */
+    public void awaitIdle() throws InterruptedException {
+        synchronized (this.idleLock) {
+            while (getPending() > 0) {
+                this.idleLock.wait();
+            }
+        }
+        log.info(progress());
+    }
+
+    /**
+     * 投入された画像数を取得します。
+     *
+     * @return 画像数
+     */
+    public long getSubmittedCount() {
+        return this.submitted.get();
+    }
+
+    /**
+     * 出力が完了した画像数を取得します。
+     *
+     * @return 画像数
+     */
+    public long getCompletedCount() {
+        return this.completed.get();
+    }
+
+    /**
+     * 失敗した画像数を取得します。
+     *
+     * @return 画像数
+     */
+    public long getFailedCount() {
+        return this.failed.get();
+    }
+
+    /**
+     * 未完了の画像数を取得します。
+     *
+     * @return 画像数
+     */
+    public long getPending() {
+        return this.submitted.get() - this.completed.get() - this.failed.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void destroy() {
+        this.stage.close();
+    }
+
+    /**
+     * 画像1枚の処理の完了を記録します。
+     *
+     * @param success 成功した場合はtrue
+     */
+    private void finish(final boolean success) {
+        final var done = success ? this.completed.incrementAndGet() : this.failed.incrementAndGet();
+        Metrics.counter(IMAGES, "outcome", success ? "SUCCESS" : "FAILURE").increment();
+        if (done % PROGRESS_LOG_INTERVAL == 0) {
+            log.debug(progress());
+        }
+        synchronized (this.idleLock) {
+            this.idleLock.notifyAll();
+        }
+    }
+
+    /**
+     * 進捗を文字列で取得します。
+     *
+     * @return 進捗
+     */
+    private String progress() {
+        return "images submitted=" + getSubmittedCount() + " completed=" + getCompletedCount() + " failed=" + getFailedCount();
+    }
+
+    /**
+     * ファイルの先頭のバイトが画像の形式(JPEG、PNG、GIF、WebP)であるかを検証します。
+     * 画像ではない場合はファイルを削除します。
+     *
+     * @param path ファイル
+     * @throws IOException 画像ではない場合
+     */
+    void validateHeader(final Path path) throws IOException {
+        final var header = ByteBuffer.allocate(HEADER_LENGTH);
+        try (final var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            while (header.hasRemaining() && channel.read(header) >= 0) {
+                // ヘッダーの長さまで読み込む
+            }
+        }
+        if (!isImageHeader(header.array(), header.position())) {
+            Files.deleteIfExists(path);
+            throw new IOException("not an image. path=".concat(path.toString()));
+        }
+    }
+
+    /**
+     * 先頭のバイトが画像の形式であるかを判定します。
+     *
+     * @param header 先頭のバイト
+     * @param length 読み込めたバイト数
+     * @return 画像の場合はtrue
+     */
+    static boolean isImageHeader(final byte[] header, final int length) {
+        for (final var signature : SIGNATURES) {
+            if (startsWith(header, length, signature, 0)) {
+                return true;
+            }
+        }
+        // WebPは RIFF????WEBP
+        return startsWith(header, length, RIFF, 0) && startsWith(header, length, WEBP, 8);
+    }
+
+    /**
+     * 指定した位置からシグネチャと一致するかを判定します。
+     */
+    private static boolean startsWith(final byte[] header, final int length, final byte[] signature, final int offset) {
+        if (length < offset + signature.length) {
+            return false;
+        }
+        for (int i = 0; i < signature.length; i++) {
+            if (header[offset + i] != signature[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
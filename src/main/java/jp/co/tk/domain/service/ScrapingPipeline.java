@@ -0,0 +1,546 @@
+package jp.co.tk.domain.service;
+
+import jp.co.tk.config.ScrapingProperties;
+import jp.co.tk.domain.model.ImageJob;
+import jp.co.tk.domain.model.YAProduct;
+import jp.co.tk.domain.repo.CheckpointStore;
+import jp.co.tk.domain.repo.DeadLetterStore;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+/**
+ * 出品者の商品数取得 → 一覧ページ取得 → 商品詳細取得・CSV追記 → 画像出力 の順に処理するパイプラインです。
+ * 各段は同時実行数と待ち行列の長さが制限されており、後段が詰まると前段が待機します。
+ * <p>
+ * 複数の出品者を同時に処理し、一覧ページと商品詳細の段では出品者の間で順番にリクエストを送信するため、
+ * 商品の多い出品者の処理中でも、商品の少ない出品者の処理が待たされません。
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class ScrapingPipeline {
+
+    /**
+     * ヤフオクからデータを取得するなどの処理を提供します。
+     */
+    private final YAService yaServ;
+
+    /**
+     * CSVファイルを生成する処理を提供します。
+     */
+    private final CsvService csvServ;
+
+    /**
+     * 画像のダウンロードと出力を行うクラスです。
+     */
+    private final ImageDownloadService imageServ;
+
+    /**
+     * 処理済みの一覧ページ、商品、画像と、CSVファイルへ書き込み済みの商品を記録するクラスです。
+     */
+    private final CheckpointStore checkpoint;
+
+    /**
+     * 再送しても失敗した処理を記録し、次の実行で再び取得するためのクラスです。
+     */
+    private final DeadLetterStore deadLetter;
+
+    /**
+     * パイプラインの設定です。
+     */
+    private final ScrapingProperties properties;
+
+    /**
+     * 出品者名をキーとした進捗です。
+     */
+    private final ConcurrentMap<String, SellerProgress> progress = new ConcurrentHashMap<>();
+
+    /**
+     * ディレクトリ名
+     */
+    private static final String BASE_DIR;
+
+    /**
+     * スラッシュ
+     */
+    private static final String SLASH = System.getProperty("file.separator");
+
+    static {
+        BASE_DIR = ".".concat(SLASH).concat("out");
+    }
+
+    /**
+     * 出品者の商品を全て取得し、CSVと画像を出力します。
+     * 全ての出品者の処理が完了するまで待機します。
+     * 処理済みの一覧ページと商品はチェックポイントに記録され、中断後の実行では取得しません。
+     * 前回の実行で失敗した商品と画像は最初に再び取得し、商品数または一覧ページを取得できなかった出品者は処理の対象に加えます。
+     *
+     * @param sellers 出品者
+     * @param limit   1ページあたりの商品数
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public void run(final List<String> sellers, final int limit) throws IOException, InterruptedException {
+        this.checkpoint.open();
+        final var deadLetters = this.deadLetter.open();
+        this.progress.clear();
+        final var config = this.properties.getPipeline();
+        final var incomplete = new AtomicBoolean();
+        final var activeSellers = new Semaphore(config.getMaxActiveSellers());
+        try (final var sellerStage = createStage("SellerStage", new ScrapingProperties.Stage(config.getMaxActiveSellers(), 0));
+             final var listingStage = createFairStage("ListingStage", config.getListing());
+             final var detailStage = createFairStage("DetailStage", config.getDetail());
+             final var sinkStage = createStage("SinkStage", config.getSink())) {
+
+            final var stages = new Stages(listingStage, detailStage, sinkStage, incomplete);
+            replay(deadLetters, stages);
+
+            final var targets = new LinkedHashSet<>(sellers);
+            for (final var entry : deadLetters) {
+                if (entry.getType() == DeadLetterStore.Type.SELLER || entry.getType() == DeadLetterStore.Type.PAGE) {
+                    targets.add(entry.getSeller());
+                }
+            }
+            final var sellerResults = new ArrayList<CompletableFuture<Void>>();
+            for (final var seller : targets) {
+                activeSellers.acquire();
+                final var sellerProgress = new SellerProgress(seller);
+                this.progress.put(seller, sellerProgress);
+                final var result = sellerStage.submit(() -> crawlSeller(seller, limit, stages))
+                        .thenCompose(Function.identity())
+                        .exceptionally(e -> {
+                            log.error("Catch ScrapingPipeline.run. seller=".concat(seller), e);
+                            this.deadLetter.recordSeller(seller);
+                            incomplete.set(true);
+                            return null;
+                        })
+                        .whenComplete((x, e) -> {
+                            sellerProgress.finish();
+                            log.info("seller finished. ".concat(sellerProgress.toString()));
+                            activeSellers.release();
+                        });
+                sellerResults.add(result);
+            }
+            CompletableFuture.allOf(sellerResults.toArray(new CompletableFuture[0])).join();
+        }
+        this.imageServ.awaitIdle();
+        this.deadLetter.commit();
+
+        if (incomplete.get()) {
+            log.warn("some pages were not completed. they will be resumed on the next run.");
+        } else {
+            this.checkpoint.complete();
+        }
+    }
+
+    /**
+     * 出品者の商品数を取得し、一覧ページの取得と商品詳細の取得を後段に投入します。
+     * 一覧ページは設定した数だけ先に取得しておき、前のページの商品詳細を投入し終えた時点で、
+     * 取得済みの一覧ページの商品詳細を続けて投入します。
+     * 出品者のCSVファイルは全ページの処理が終わった時点で閉じます。
+     *
+     * @param seller 出品者
+     * @param limit  1ページあたりの商品数
+     * @param stages 後段
+     * @return 出品者の全ページの処理結果
+     * @throws IOException
+     */
+    CompletableFuture<Void> crawlSeller(final String seller, final int limit, final Stages stages) throws IOException {
+        final var total = this.yaServ.count(seller);
+        log.debug(seller + " owned " + total + " products");
+        final var offset = Math.max(Math.ceil((double) total / (double) limit), 1.0);
+        getProgress(seller).start(total, (int) offset);
+        final var csvSink = this.csvServ.open(seller, BASE_DIR.concat(SLASH).concat(seller));
+        final var lookahead = Math.max(this.properties.getPipeline().getListingLookahead(), 0);
+        final var listings = new ArrayDeque<Listing>(lookahead + 1);
+        final var pageResults = new ArrayList<CompletableFuture<Void>>();
+        for (int i = 0; i < offset; i++) {
+            final var page = i;
+            listings.add(new Listing(page, stages.listing.submit(seller, () -> fetchListing(seller, limit, page, total))));
+            if (listings.size() > lookahead) {
+                pageResults.add(dispatchPage(seller, listings.poll(), csvSink, stages));
+            }
+        }
+        while (!listings.isEmpty()) {
+            pageResults.add(dispatchPage(seller, listings.poll(), csvSink, stages));
+        }
+        return CompletableFuture.allOf(pageResults.toArray(new CompletableFuture[0]))
+                .whenComplete((x, e) -> {
+                    try {
+                        csvSink.close();
+                    } catch (final IOException ex) {
+                        log.error("Catch ScrapingPipeline.crawlSeller. seller=".concat(seller), ex);
+                        stages.incomplete.set(true);
+                    }
+                });
+    }
+
+    /**
+     * 一覧ページの取得を待ち、商品詳細の取得を後段に投入します。
+     * 一覧ページの取得に失敗した場合は、ページを未完了とします。
+     *
+     * @param seller  出品者
+     * @param listing 一覧ページ
+     * @param csvSink 出品者のCSVファイル
+     * @param stages  後段
+     * @return ページの処理結果
+     */
+    private CompletableFuture<Void> dispatchPage(final String seller, final Listing listing, final CsvSink csvSink, final Stages stages) {
+        try {
+            return crawlPage(seller, listing.page, listing.idAndCategory.join(), csvSink, stages)
+                    .exceptionally(e -> {
+                        log.error("Catch ScrapingPipeline.crawlSeller. seller=" + seller + " page=" + listing.page, e);
+                        stages.incomplete.set(true);
+                        return null;
+                    });
+        } catch (final CompletionException e) {
+            log.error("Catch ScrapingPipeline.crawlSeller. seller=" + seller + " page=" + listing.page, e.getCause());
+            this.deadLetter.recordPage(seller, listing.page);
+            stages.incomplete.set(true);
+            return CompletableFuture.completedFuture(null);
+        }
+    }
+
+    /**
+     * 一覧ページから商品のIDとカテゴリを取得します。
+     *
+     * @param seller 出品者
+     * @param limit  1ページあたりの商品数
+     * @param page   ページ番号
+     * @param total  出品者の商品数
+     * @return IDとカテゴリ。処理済みのページ、または商品がない場合はnull
+     * @throws IOException
+     */
+    Set<YAProduct.IdAndCategory> fetchListing(final String seller, final int limit, final int page, final int total) throws IOException {
+        if (this.checkpoint.isPageDone(seller, page)) {
+            log.debug("skip page. seller=" + seller + " page=" + page);
+            return null;
+        }
+
+        if (total == 0) {
+            log.debug("product is empty. seller=".concat(seller));
+            this.checkpoint.markPageDone(seller, page);
+            return null;
+        }
+
+        return this.yaServ.findIdAndCategoryList(seller, limit, limit * page);
+    }
+
+    /**
+     * 一覧ページの商品詳細の取得を後段に投入します。
+     * 出品者の商品詳細の待ち行列が一杯の場合は、空きが出るまで待機します。
+     * 商品詳細はCSVファイルへ取得した順に追記され、ページ内の全ての商品詳細が揃った時点で、画像の出力を後段に投入します。
+     *
+     * @param seller           出品者
+     * @param page             ページ番号
+     * @param idAndCategorySet 一覧ページのIDとカテゴリ。nullの場合はページを処理済みとします
+     * @param csvSink          出品者のCSVファイル
+     * @param stages           後段
+     * @return ページの処理結果
+     */
+    CompletableFuture<Void> crawlPage(final String seller, final int page, final Set<YAProduct.IdAndCategory> idAndCategorySet, final CsvSink csvSink, final Stages stages) {
+        return crawlPage(seller, page, idAndCategorySet, csvSink, stages, true);
+    }
+
+    /**
+     * 商品詳細の取得を後段に投入します。
+     *
+     * @param seller           出品者
+     * @param page             ページ番号
+     * @param idAndCategorySet 商品のIDとカテゴリ。nullの場合はページを処理済みとします
+     * @param csvSink          出品者のCSVファイル
+     * @param stages           後段
+     * @param wholePage        一覧ページの全ての商品である場合はtrue。falseの場合はページを処理済みとして記録しません
+     * @return ページの処理結果
+     */
+    private CompletableFuture<Void> crawlPage(final String seller, final int page, final Set<YAProduct.IdAndCategory> idAndCategorySet, final CsvSink csvSink,
+                                              final Stages stages, final boolean wholePage) {
+        final var sellerProgress = getProgress(seller);
+        if (idAndCategorySet == null) {
+            sellerProgress.pageDone();
+            return CompletableFuture.completedFuture(null);
+        }
+
+        final var productResults = new ArrayList<CompletableFuture<ImageJob>>(idAndCategorySet.size());
+        for (final var idAndCategory : idAndCategorySet) {
+            if (this.checkpoint.isProductDone(seller, idAndCategory.getId())) {
+                sellerProgress.productDone(true);
+                continue;
+            }
+            productResults.add(stages.detail.submit(seller, () -> fetchProduct(idAndCategory, page, csvSink, sellerProgress)));
+        }
+        if (productResults.isEmpty()) {
+            if (wholePage) {
+                this.checkpoint.markPageDone(seller, page);
+                sellerProgress.pageDone();
+            }
+            return CompletableFuture.completedFuture(null);
+        }
+
+        final var jobs = new ArrayList<ImageJob>(productResults.size());
+        return CompletableFuture.allOf(productResults.toArray(new CompletableFuture[0]))
+                .thenCompose(x -> {
+                    for (final var result : productResults) {
+                        final var job = result.join();
+                        if (Objects.nonNull(job)) {
+                            jobs.add(job);
+                        }
+                    }
+                    return stages.sink.submit(() -> output(seller, jobs, page));
+                })
+                .thenCompose(Function.identity())
+                .thenRun(() -> {
+                    if (jobs.size() != productResults.size()) {
+                        stages.incomplete.set(true);
+                    } else if (wholePage) {
+                        this.checkpoint.markPageDone(seller, page);
+                    }
+                    if (wholePage) {
+                        sellerProgress.pageDone();
+                        log.info("progress ".concat(sellerProgress.toString()));
+                    }
+                });
+    }
+
+    /**
+     * 商品詳細を取得し、CSVファイルに追記します。非検査例外を含めて失敗した場合は記録し、nullを返却します。
+     * 前回の実行でCSVファイルへ書き込み済みの商品は追記せず、出力できていない画像のみを出力します。
+     * 画像の出力を待つ間は商品を保持せず、画像のURLと画像名だけを保持します。
+     *
+     * @param idAndCategory IDとカテゴリ
+     * @param page          ページ番号
+     * @param csvSink       出品者のCSVファイル
+     * @param progress      出品者の進捗
+     * @return 商品の画像
+     */
+    private ImageJob fetchProduct(final YAProduct.IdAndCategory idAndCategory, final int page, final CsvSink csvSink, final SellerProgress progress) {
+        try {
+            final var product = this.yaServ.findProduct(idAndCategory);
+            final var seller = progress.getSeller();
+            if (!this.checkpoint.isRowWritten(seller, idAndCategory.getId())) {
+                csvSink.append(product);
+                this.checkpoint.markRowWritten(seller, idAndCategory.getId());
+            }
+            progress.productDone(true);
+            return ((YAProduct) product).toImageJob();
+        } catch (final IOException | RuntimeException e) {
+            // 想定外の例外もここで止め、同じページの他の商品の出力を妨げないようにする
+            log.error("Catch ScrapingPipeline.fetchProduct. id=".concat(idAndCategory.toString()), e);
+            this.deadLetter.recordProduct(progress.getSeller(), page, idAndCategory);
+            progress.productDone(false);
+            return null;
+        }
+    }
+
+    /**
+     * 前回の実行で失敗した商品と画像を再び取得し、完了するまで待機します。
+     * 商品は出品者毎の新しいCSVファイルへ追記し、画像は記録した出力先へ出力します。
+     * 一覧ページの一部の商品であるため、ページは処理済みとして記録しません。
+     *
+     * @param deadLetters 前回の実行で失敗した処理
+     * @param stages      後段
+     */
+    void replay(final List<DeadLetterStore.Entry> deadLetters, final Stages stages) {
+        final var products = new LinkedHashMap<String, Map<Integer, Set<YAProduct.IdAndCategory>>>();
+        final var results = new ArrayList<CompletableFuture<Void>>();
+        for (final var entry : deadLetters) {
+            if (entry.getType() == DeadLetterStore.Type.PRODUCT) {
+                products.computeIfAbsent(entry.getSeller(), x -> new LinkedHashMap<>())
+                        .computeIfAbsent(entry.getPage(), x -> new HashSet<>())
+                        .add(entry.getIdAndCategory());
+            } else if (entry.getType() == DeadLetterStore.Type.IMAGE) {
+                results.add(replayImage(entry, stages));
+            }
+        }
+
+        for (final var sellerProducts : products.entrySet()) {
+            final var seller = sellerProducts.getKey();
+            final var csvSink = this.csvServ.open(seller, BASE_DIR.concat(SLASH).concat(seller));
+            final var pageResults = new ArrayList<CompletableFuture<Void>>();
+            for (final var pageProducts : sellerProducts.getValue().entrySet()) {
+                pageResults.add(crawlPage(seller, pageProducts.getKey(), pageProducts.getValue(), csvSink, stages, false));
+            }
+            results.add(CompletableFuture.allOf(pageResults.toArray(new CompletableFuture[0]))
+                    .whenComplete((x, e) -> {
+                        try {
+                            csvSink.close();
+                        } catch (final IOException ex) {
+                            log.error("Catch ScrapingPipeline.replay. seller=".concat(seller), ex);
+                        }
+                    }));
+        }
+
+        for (final var result : results) {
+            try {
+                result.join();
+            } catch (final CompletionException e) {
+                log.error("Catch ScrapingPipeline.replay.", e.getCause());
+                stages.incomplete.set(true);
+            }
+        }
+    }
+
+    /**
+     * 前回の実行で出力できなかった画像を再び出力します。失敗した場合は再び記録します。
+     *
+     * @param entry  失敗した画像
+     * @param stages 後段
+     * @return 画像の出力結果
+     */
+    private CompletableFuture<Void> replayImage(final DeadLetterStore.Entry entry, final Stages stages) {
+        final URL url;
+        try {
+            url = new URL(entry.getUrl());
+        } catch (final IOException e) {
+            log.error("Catch ScrapingPipeline.replayImage. url=".concat(entry.getUrl()), e);
+            return CompletableFuture.completedFuture(null);
+        }
+        return this.imageServ.submit(url, entry.getImageName(), entry.getDir())
+                .handle((x, e) -> {
+                    if (e != null) {
+                        log.error("Catch ScrapingPipeline.replayImage. url=".concat(entry.getUrl()), e);
+                        this.deadLetter.recordImage(entry.getSeller(), entry.getAuctionId(), entry.getImageName(), url, entry.getDir());
+                        stages.incomplete.set(true);
+                    } else {
+                        this.checkpoint.markImageDone(entry.getSeller(), entry.getAuctionId(), entry.getImageName());
+                    }
+                    return null;
+                });
+    }
+
+    /**
+     * 出品者毎の進捗を取得します。
+     *
+     * @return 出品者名をキーとした進捗
+     */
+    public Map<String, SellerProgress> getProgress() {
+        return Collections.unmodifiableMap(this.progress);
+    }
+
+    /**
+     * 出品者の進捗を取得します。{@link #run(List, int)}を経由せずに呼び出された場合は生成します。
+     *
+     * @param seller 出品者
+     * @return 進捗
+     */
+    private SellerProgress getProgress(final String seller) {
+        return this.progress.computeIfAbsent(seller, SellerProgress::new);
+    }
+
+    /**
+     * ページのディレクトリに画像の生成を開始します。
+     *
+     * @param seller 出品者
+     * @param jobs   商品毎の画像
+     * @param page   ページ番号
+     * @return 画像生成の結果
+     * @throws IOException
+     */
+    private CompletableFuture<Void> output(final String seller, final List<ImageJob> jobs, final int page) throws IOException {
+        final var baseDirWithSellerName = BASE_DIR.concat(SLASH).concat(seller);
+        final var filePath = Paths.get(baseDirWithSellerName.concat(SLASH).concat(String.valueOf(page)));
+        if (!Files.exists(filePath)) {
+            Files.createDirectories(filePath);
+        }
+        return this.yaServ.generateImg(seller, jobs, filePath.toString());
+    }
+
+    /**
+     * 設定を基に段を生成します。
+     *
+     * @param name   段の名前
+     * @param config 段の設定
+     * @return 段
+     */
+    private BoundedStage createStage(final String name, final ScrapingProperties.Stage config) {
+        if (this.properties.getPipeline().isVirtualThreads()) {
+            return BoundedStage.virtual(name, config.getConcurrency());
+        }
+        return new BoundedStage(name, config.getConcurrency(), config.getQueueCapacity());
+    }
+
+    /**
+     * 設定を基に、出品者の間で順番にタスクを実行する段を生成します。
+     *
+     * @param name   段の名前
+     * @param config 段の設定
+     * @return 段
+     */
+    private FairStage createFairStage(final String name, final ScrapingProperties.Stage config) {
+        final var weights = this.properties.getPipeline().getSellerWeights();
+        if (this.properties.getPipeline().isVirtualThreads()) {
+            return FairStage.virtual(name, config.getConcurrency(), weights);
+        }
+        return new FairStage(name, config.getConcurrency(), config.getQueueCapacity(), weights);
+    }
+
+    /**
+     * 取得を開始した一覧ページです。
+     */
+    @RequiredArgsConstructor
+    private static class Listing {
+
+        /**
+         * ページ番号です。
+         */
+        final int page;
+
+        /**
+         * 一覧ページのIDとカテゴリです。
+         */
+        final CompletableFuture<Set<YAProduct.IdAndCategory>> idAndCategory;
+
+    }
+
+    /**
+     * 出品者の段より後ろの段と、実行中の状態をまとめたクラスです。
+     */
+    @RequiredArgsConstructor
+    static class Stages {
+
+        /**
+         * 一覧ページを取得する段です。
+         */
+        final FairStage listing;
+
+        /**
+         * 商品詳細を取得する段です。
+         */
+        final FairStage detail;
+
+        /**
+         * 画像を出力する段です。
+         */
+        final BoundedStage sink;
+
+        /**
+         * 未完了のページがある場合はtrueです。
+         */
+        final AtomicBoolean incomplete;
+
+    }
+
+}
@@ -0,0 +1,164 @@
+package jp.co.tk.domain.service;
+
+import lombok.Getter;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 出品者毎の処理の進捗を表します。
+ */
+public class SellerProgress {
+
+    /**
+     * 出品者です。
+     */
+    @Getter
+    private final String seller;
+
+    /**
+     * 出品者の商品数です。取得前は-1です。
+     */
+    @Getter
+    private volatile int totalProducts = -1;
+
+    /**
+     * 一覧ページの数です。取得前は-1です。
+     */
+    @Getter
+    private volatile int totalPages = -1;
+
+    /**
+     * 処理が完了した一覧ページの数です。
+     */
+    private final AtomicInteger pagesDone = new AtomicInteger();
+
+    /**
+     * 取得した、または処理済みのため取得しなかった商品数です。
+     */
+    private final AtomicInteger productsDone = new AtomicInteger();
+
+    /**
+     * 取得に失敗した商品数です。
+     */
+    private final AtomicInteger productsFailed = new AtomicInteger();
+
+    /**
+     * 処理を開始した時刻(ナノ秒)です。
+     */
+    @Getter
+    private final long startedNanos = System.nanoTime();
+
+    /**
+     * 処理が完了した時刻(ナノ秒)です。未完了の場合は0です。
+     */
+    @Getter
+    private volatile long finishedNanos;
+
+    /**
+     * @param seller 出品者
+     */
+    SellerProgress(final String seller) {
+        this.seller = seller;
+    }
+
+    /**
+     * 商品数と一覧ページの数を記録します。
+     *
+     * @param totalProducts 商品数
+     * @param totalPages    一覧ページの数
+     */
+    void start(final int totalProducts, final int totalPages) {
+        this.totalProducts = totalProducts;
+        this.totalPages = totalPages;
+    }
+
+    /**
+     * 一覧ページの完了を記録します。
+     */
+    void pageDone() {
+        this.pagesDone.incrementAndGet();
+    }
+
+    /**
+     * 商品の完了を記録します。
+     *
+     * @param success 取得できた場合、または処理済みの場合はtrue
+     */
+    void productDone(final boolean success) {
+        if (success) {
+            this.productsDone.incrementAndGet();
+        } else {
+            this.productsFailed.incrementAndGet();
+        }
+    }
+
+    /**
+     * 処理の完了を記録します。
+     */
+    void finish() {
+        this.finishedNanos = System.nanoTime();
+    }
+
+    /**
+     * 処理が完了しているかを返却します。
+     *
+     * @return 完了している場合はtrue
+     */
+    public boolean isFinished() {
+        return this.finishedNanos != 0;
+    }
+
+    /**
+     * 処理が完了した一覧ページの数を取得します。
+     *
+     * @return ページ数
+     */
+    public int getPagesDone() {
+        return this.pagesDone.get();
+    }
+
+    /**
+     * 取得した、または処理済みのため取得しなかった商品数を取得します。
+     *
+     * @return 商品数
+     */
+    public int getProductsDone() {
+        return this.productsDone.get();
+    }
+
+    /**
+     * 取得に失敗した商品数を取得します。
+     *
+     * @return 商品数
+     */
+    public int getProductsFailed() {
+        return this.productsFailed.get();
+    }
+
+    /**
+     * 処理を開始してからの経過時間を取得します。完了している場合は、完了までの時間です。
+     *
+     * @return 経過時間(ミリ秒)
+     */
+    public long getElapsedMillis() {
+        final var end = isFinished() ? this.finishedNanos : System.nanoTime();
+        return TimeUnit.NANOSECONDS.toMillis(end - this.startedNanos);
+    }
+
+    /**
+     * 進捗を文字列で取得します。
+     *
+     * @return 進捗
+     */
+    @Override
+    public String toString() {
+        return "seller=" + this.seller
+                + " pages=" + this.pagesDone.get() + "/" + this.totalPages
+                + " products=" + this.productsDone.get() + "/" + this.totalProducts
+                + " failed=" + this.productsFailed.get()
+                + " elapsed=" + getElapsedMillis() + "ms"
+                + (isFinished() ? " finished" : "");
+    }
+
+}
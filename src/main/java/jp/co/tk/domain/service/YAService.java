@@ -1,21 +1,30 @@
 package jp.co.tk.domain.service;
 
+import io.micrometer.core.instrument.Metrics;
+import jp.co.tk.config.ScrapingProperties;
+import jp.co.tk.domain.model.ImageJob;
 import jp.co.tk.domain.model.Product;
 import jp.co.tk.domain.model.Seller;
 import jp.co.tk.domain.model.YAProduct;
+import jp.co.tk.domain.repo.CheckpointStore;
+import jp.co.tk.domain.repo.DeadLetterStore;
 import jp.co.tk.domain.repo.YARepositoryImpl;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
 import org.springframework.util.CollectionUtils;
 
-import javax.imageio.ImageIO;
-import java.io.ByteArrayInputStream;
-import java.io.File;
 import java.io.IOException;
-import java.util.*;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Queue;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 /**
  * ヤフオクから取得したデータを取得等をするサービスクラスです。
@@ -25,25 +34,50 @@ import java.util.concurrent.CompletableFuture;
 @RequiredArgsConstructor
 public class YAService {
 
+    /**
+     * 取得した商品数のメトリクス名です。
+     */
+    private static final String PRODUCTS = "scraper.products";
+
+    /**
+     * 成否を表すメトリクスのタグです。
+     */
+    private static final String OUTCOME = "outcome";
+
+    /**
+     * 成功を表すメトリクスのタグの値です。
+     */
+    private static final String SUCCESS = "SUCCESS";
+
+    /**
+     * 失敗を表すメトリクスのタグの値です。
+     */
+    private static final String FAILURE = "FAILURE";
+
     /**
      * ヤフオクからデータを取得するクラスです。
      */
     private final YARepositoryImpl repo;
 
     /**
-     * スリープ時間をランダムで取得するためのオブジェクトです。
+     * 画像のダウンロードと出力を行うクラスです。
+     */
+    private final ImageDownloadService imageServ;
+
+    /**
+     * 処理済みの商品と画像を記録するクラスです。
      */
-    private final static Random random = new Random();
+    private final CheckpointStore checkpoint;
 
     /**
-     * 画像の拡張子のリストを表します。
+     * 出力できなかった画像を記録するクラスです。
      */
-    private final static List<String> EXTENSION_LIST = Arrays.asList("jpg", "jpeg", "png");
+    private final DeadLetterStore deadLetter;
 
     /**
-     * /の記号を表します。
+     * 商品詳細の同時実行数を参照する設定です。
      */
-    private final static String SLASH = System.getProperty("file.separator");
+    private final ScrapingProperties properties;
 
     /**
      * 出品者に紐づく、商品の個数を返却します。
@@ -63,25 +97,21 @@ public class YAService {
      * @param total
      * @return 出品者情報と商品
      * @throws IOException
-     * @throws InterruptedException
      */
-    public Seller findSellerBySellerName(final String seller, final int total, final int offset) throws IOException, InterruptedException {
+    public Seller findSellerBySellerName(final String seller, final int total, final int offset) throws IOException {
 
         if (total == 0) {
             return new Seller(seller, Collections.emptySet());
         }
 
         final var products = new HashSet<Product>();
-        final var idAndCategory = this.repo.fetchProductNameListPageBySeller(seller, total, offset);
-        Thread.sleep(getSleepTime());
+        final var idAndCategory = findIdAndCategoryList(seller, total, offset);
         for (final var id : idAndCategory) {
             try {
-                final var product = this.repo.fetchByProductId(id);
+                final var product = findProduct(id);
                 products.add(product);
             } catch (final IOException e) {
                 log.error("Catch YAService.findSellerBySellerName. id=".concat(id.toString()), e);
-            } finally {
-                Thread.sleep(getSleepTime());
             }
         }
 
@@ -89,76 +119,193 @@ public class YAService {
     }
 
     /**
-     * ヤフオクから画像を取得後、画像を生成します。
+     * 出品者の一覧ページから、商品のIDとカテゴリを取得します。
      *
      * @param seller
+     * @param limit
+     * @param offset
+     * @return IDとカテゴリ
      * @throws IOException
-     * @throws InterruptedException
      */
-    @Async("GenImgThread")
-    public CompletableFuture<Void> generateImg(final Seller seller, final String filePath) throws IOException, InterruptedException {
+    public Set<YAProduct.IdAndCategory> findIdAndCategoryList(final String seller, final int limit, final int offset) throws IOException {
+        return this.repo.fetchProductNameListPageBySeller(seller, limit, offset);
+    }
 
-        if (CollectionUtils.isEmpty(seller.getProduct())) {
-            log.debug("product is empty. seller=".concat(seller.getName()));
-            return CompletableFuture.completedFuture(null);
+    /**
+     * 商品ページから商品を取得します。
+     *
+     * @param idAndCategory
+     * @return 商品
+     * @throws IOException
+     */
+    public Product findProduct(final YAProduct.IdAndCategory idAndCategory) throws IOException {
+        try {
+            final var product = this.repo.fetchByProductId(idAndCategory);
+            Metrics.counter(PRODUCTS, OUTCOME, SUCCESS).increment();
+            return product;
+        } catch (final IOException e) {
+            Metrics.counter(PRODUCTS, OUTCOME, FAILURE).increment();
+            throw e;
         }
+    }
 
-        for (final var p : seller.getProduct()) {
-            final var yap = (YAProduct) p;
-            final var imgUrls = new ArrayList<>(yap.getImageUrl());
-            final var imgNames = new ArrayList<>(yap.getImageName());
-            for (int i = 0, len = imgUrls.size(); i < len; i++) {
-                final byte[] imgBinaryData;
-                try {
-                    imgBinaryData = this.repo.fetchProductImgData(imgUrls.get(i));
-                } catch (final IOException e) {
-                    log.error("YAService.generateImg.", e);
-                    continue;
-                } finally {
-                    Thread.sleep(getSleepTime());
-                }
+    /**
+     * 出品者に紐づく、商品の個数を非同期に返却します。
+     *
+     * @param seller
+     * @return 商品数
+     */
+    public CompletableFuture<Integer> countAsync(final String seller) {
+        return this.repo.fetchTotalNumberOfProductsAsync(seller);
+    }
+
+    /**
+     * 出品者に紐づく、商品を非同期に取得します。
+     * 一覧ページの取得後、商品ページへのリクエストを商品詳細の同時実行数まで同時に送信し、
+     * 1件完了する毎に次の商品ページへのリクエストを送信します。
+     * 取得に失敗した商品はログを出力し、結果に含めません。
+     *
+     * @param seller
+     * @param total
+     * @param offset
+     * @return 出品者情報と商品。一覧ページの取得に失敗した場合は例外で完了します。
+     */
+    public CompletableFuture<Seller> findSellerBySellerNameAsync(final String seller, final int total, final int offset) {
+
+        if (total == 0) {
+            return CompletableFuture.completedFuture(new Seller(seller, Collections.emptySet()));
+        }
 
-                outputImg(imgBinaryData, imgNames.get(i), filePath);
+        return findIdAndCategoryListAsync(seller, total, offset).thenCompose(idAndCategory -> {
+            final var pending = new ConcurrentLinkedQueue<>(idAndCategory);
+            final var products = Collections.synchronizedSet(new HashSet<Product>());
+            final var concurrency = Math.min(Math.max(this.properties.getPipeline().getDetail().getConcurrency(), 1), idAndCategory.size());
+            final var lanes = new ArrayList<CompletableFuture<Void>>(concurrency);
+            for (int i = 0; i < concurrency; i++) {
+                lanes.add(findNextProductAsync(pending, products));
             }
+            return CompletableFuture.allOf(lanes.toArray(new CompletableFuture[0]))
+                    .thenApply(v -> new Seller(seller, new HashSet<>(products)));
+        });
+    }
 
+    /**
+     * 待ち行列の商品を1件ずつ非同期に取得し、待ち行列が空になった時点で完了します。
+     *
+     * @param pending  取得していない商品
+     * @param products 取得した商品
+     * @return 待ち行列が空になった時点で完了するFuture
+     */
+    private CompletableFuture<Void> findNextProductAsync(final Queue<YAProduct.IdAndCategory> pending, final Set<Product> products) {
+        final var id = pending.poll();
+        if (id == null) {
+            return CompletableFuture.completedFuture(null);
         }
+        return findProductAsync(id)
+                .handle((product, e) -> {
+                    if (e != null) {
+                        log.error("Catch YAService.findSellerBySellerNameAsync. id=".concat(id.toString()), e);
+                    } else {
+                        products.add(product);
+                    }
+                    return null;
+                })
+                .thenCompose(v -> findNextProductAsync(pending, products));
+    }
+
+    /**
+     * 出品者の一覧ページから、商品のIDとカテゴリを非同期に取得します。
+     *
+     * @param seller
+     * @param limit
+     * @param offset
+     * @return IDとカテゴリ
+     */
+    public CompletableFuture<Set<YAProduct.IdAndCategory>> findIdAndCategoryListAsync(final String seller, final int limit, final int offset) {
+        return this.repo.fetchProductNameListPageBySellerAsync(seller, limit, offset);
+    }
 
-        return CompletableFuture.completedFuture(null);
+    /**
+     * 商品ページから商品を非同期に取得します。
+     *
+     * @param idAndCategory
+     * @return 商品
+     */
+    public CompletableFuture<Product> findProductAsync(final YAProduct.IdAndCategory idAndCategory) {
+        return this.repo.fetchByProductIdAsync(idAndCategory)
+                .whenComplete((product, e) -> Metrics.counter(PRODUCTS, OUTCOME, e == null ? SUCCESS : FAILURE).increment());
     }
 
     /**
-     * バイトデータから画像を出力します。
+     * ヤフオクから画像を取得後、画像を生成します。
      *
-     * @param imgBinaryData
+     * @param seller
      * @param filePath
-     * @throws IOException
+     * @return 出品者の全ての画像の処理結果。1枚でも失敗した場合は例外で完了します。
+     * @see #generateImg(String, Collection, String)
      */
-    private void outputImg(final byte[] imgBinaryData, final String fileName, final String filePath) throws IOException {
-        try (final ByteArrayInputStream bis = new ByteArrayInputStream(imgBinaryData)) {
-            final var image = ImageIO.read(bis);
-            for (final var extension : EXTENSION_LIST) {
-                if (fileName.endsWith(extension)) {
-                    final var path = filePath.concat(SLASH).concat(fileName);
-                    try {
-                        ImageIO.write(image, extension, new File(path));
-                        log.debug("Generated img. imgPath=".concat(path));
-                    } catch (IOException e) {
-                        log.error("Catch YAService.generateImg. fileName=".concat(fileName), e);
-                    }
-                    break;
-                }
-            }
+    public CompletableFuture<Void> generateImg(final Seller seller, final String filePath) {
+
+        if (CollectionUtils.isEmpty(seller.getProduct())) {
+            log.debug("product is empty. seller=".concat(seller.getName()));
+            return CompletableFuture.completedFuture(null);
         }
-    }
 
+        final var jobs = new ArrayList<ImageJob>(seller.getProduct().size());
+        for (final var p : seller.getProduct()) {
+            jobs.add(((YAProduct) p).toImageJob());
+        }
+        return generateImg(seller.getName(), jobs, filePath);
+    }
 
     /**
-     * 2000~3000の間の数値を取得します。
+     * ヤフオクから画像を取得後、画像を生成します。
+     * 画像は1枚毎に画像のダウンロードの段へ投入され、待ち行列が一杯の場合は待機します。
+     * 商品の全ての画像が出力された時点で、商品を処理済みとして記録します。
+     * 出力できなかった画像は、次の実行で再び出力するために記録します。
      *
-     * @return 2000~3000
+     * @param seller   出品者名
+     * @param jobs     商品毎の画像
+     * @param filePath 出力先のディレクトリ
+     * @return 全ての画像の処理結果。1枚でも失敗した場合は例外で完了します。
      */
-    private long getSleepTime() {
-        return random.nextInt(1001) + 2000;
+    public CompletableFuture<Void> generateImg(final String seller, final Collection<ImageJob> jobs, final String filePath) {
+
+        if (CollectionUtils.isEmpty(jobs)) {
+            log.debug("product is empty. seller=".concat(seller));
+            return CompletableFuture.completedFuture(null);
+        }
+
+        final var productResults = new ArrayList<CompletableFuture<Void>>(jobs.size());
+        for (final var job : jobs) {
+            final var id = job.getAuctionId();
+            final var imgResults = new ArrayList<CompletableFuture<Void>>();
+            for (final var image : job.getImages()) {
+                final var imgName = image.getName();
+                if (this.checkpoint.isImageDone(seller, id, imgName)) {
+                    continue;
+                }
+                final URL imgUrl;
+                try {
+                    imgUrl = image.toUrl();
+                } catch (final MalformedURLException e) {
+                    log.error("Catch YAService.generateImg. url=".concat(image.getSource().toString()), e);
+                    imgResults.add(CompletableFuture.failedFuture(e));
+                    continue;
+                }
+                imgResults.add(this.imageServ.submit(imgUrl, imgName, filePath)
+                        .whenComplete((x, e) -> {
+                            if (e != null) {
+                                this.deadLetter.recordImage(seller, id, imgName, imgUrl, filePath);
+                            }
+                        })
+                        .thenRun(() -> this.checkpoint.markImageDone(seller, id, imgName)));
+            }
+            productResults.add(CompletableFuture.allOf(imgResults.toArray(new CompletableFuture[0]))
+                    .thenRun(() -> this.checkpoint.markProductDone(seller, id)));
+        }
+
+        return CompletableFuture.allOf(productResults.toArray(new CompletableFuture[0]));
     }
 
 }
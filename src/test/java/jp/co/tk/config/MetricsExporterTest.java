@@ -0,0 +1,94 @@
+package jp.co.tk.config;
+
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.prometheus.PrometheusConfig;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import jp.co.tk.domain.repo.JdkHttpTransport;
+import jp.co.tk.domain.repo.MeteredHttpTransport;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class MetricsExporterTest {
+
+    @TempDir
+    Path tempDir;
+
+    private HttpServer server;
+
+    private String baseUrl;
+
+    private PrometheusMeterRegistry registry;
+
+    private MetricsExporter exporter;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        this.server.createContext("/page", exchange -> {
+            final var body = "<html><body>page</body></html>".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        this.server.start();
+        this.baseUrl = "http://127.0.0.1:" + this.server.getAddress().getPort();
+
+        final var properties = new ScrapingProperties();
+        try (var socket = new ServerSocket(0)) {
+            properties.getMetrics().setPort(socket.getLocalPort());
+        }
+        properties.getMetrics().setFile(this.tempDir.resolve("metrics.prom").toString());
+        this.registry = new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
+        Metrics.addRegistry(this.registry);
+        this.exporter = new MetricsExporter(this.registry, properties);
+        this.exporter.afterPropertiesSet();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        this.exporter.destroy();
+        this.server.stop(0);
+    }
+
+    @Test
+    public void リクエストの時間と受信したバイト数をホスト毎に収集できること() throws Exception {
+        final var transport = new MeteredHttpTransport(new JdkHttpTransport(new ScrapingProperties.Http()));
+        try (var response = transport.get(this.baseUrl + "/page", "test", Collections.emptyMap())) {
+            response.bodyAsBytes();
+        }
+        transport.destroy();
+
+        final var request = HttpRequest.newBuilder(URI.create("http://127.0.0.1:" + this.exporter.getPort() + "/metrics")).build();
+        final var scraped = HttpClient.newHttpClient().send(request, HttpResponse.BodyHandlers.ofString()).body();
+
+        assertThat(scraped).contains("scraper_http_requests_seconds_count{host=\"127.0.0.1\",status=\"2xx\",} 1.0");
+        assertThat(scraped).contains("scraper_http_requests_seconds_bucket{host=\"127.0.0.1\"");
+        assertThat(scraped).contains("scraper_http_response_bytes_sum{host=\"127.0.0.1\",} 30.0");
+    }
+
+    @Test
+    public void 終了時にファイルへ書き出すこと() throws Exception {
+        Metrics.counter("scraper.products", "outcome", "SUCCESS").increment();
+
+        this.exporter.destroy();
+
+        assertThat(Files.readString(this.tempDir.resolve("metrics.prom"))).contains("scraper_products_total{outcome=\"SUCCESS\",}");
+    }
+
+}
@@ -0,0 +1,160 @@
+package jp.co.tk.domain.model;
+
+import org.apache.commons.lang3.RegExUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 従来のcsvData()による行の生成と文字コード変換と、{@link CsvRowWriter}による書き込みを比較します。
+ * 1秒あたりの行数と、GCプロファイラの gc.alloc.rate.norm (1行あたりの割り当てバイト数)を確認してください。
+ * <p>
+ * mvn -Pbenchmark test -Djmh.args="CsvRowBenchmark -prof gc"
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CsvRowBenchmark {
+
+    @Param({"Shift-JIS", "UTF-8"})
+    public String charset;
+
+    private YAProduct product;
+
+    private Writer legacyWriter;
+
+    private CsvRowWriter rowWriter;
+
+    private WritableByteChannel channel;
+
+    @Setup
+    public void setup() throws Exception {
+        final var imageUrl = new LinkedHashSet<URI>();
+        for (int i = 0; i < 8; i++) {
+            imageUrl.add(URI.create("https://auctions.c.yimg.jp/images.auctions.yahoo.co.jp/image/dr000/auc0000/users/abc/i-img1200x900-" + i + ".jpg"));
+        }
+        this.product = YAProduct.builder()
+                .idAndCategory(new YAProduct.IdAndCategory("x123456789", "アンティーク、コレクション > 雑貨"))
+                .title("【美品】ヴィンテージ 置時計, 動作確認済み")
+                .description("ご覧いただきありがとうございます。".repeat(40) + "サイズ, 幅20cm")
+                .startingPrice(1000L)
+                .buyoutPrice(5000L)
+                .imageUri(imageUrl)
+                .build();
+
+        final var cs = Charset.forName(this.charset);
+        this.legacyWriter = new BufferedWriter(new OutputStreamWriter(OutputStream.nullOutputStream(), cs));
+        this.rowWriter = new CsvRowWriter(cs);
+        this.channel = new NullChannel();
+    }
+
+    /**
+     * 従来の方法で1行を生成し、文字コードを変換して書き込みます。
+     */
+    @Benchmark
+    public void legacy() throws IOException {
+        this.legacyWriter.write(legacyCsvData(this.product));
+        this.legacyWriter.write("\r\n");
+        this.legacyWriter.flush();
+    }
+
+    /**
+     * {@link CsvRowWriter}で1行を書き込みます。
+     */
+    @Benchmark
+    public long rowWriter() throws IOException {
+        this.product.writeCsvData(this.rowWriter);
+        return this.rowWriter.endRow().writeTo(this.channel);
+    }
+
+    /**
+     * 変更前のYAProduct.csvData()と同じ方法で1行を生成します。
+     */
+    private static String legacyCsvData(final YAProduct p) {
+        final var sb = new StringBuilder();
+        sb.append(p.getIdAndCategory().getCategory());
+        sb.append(Product.COMMA);
+        sb.append(RegExUtils.replaceAll(p.getTitle(), Product.COMMA, Product.TOHTEN));
+        sb.append(Product.COMMA);
+        sb.append(RegExUtils.replaceAll(p.getDescription(), Product.COMMA, Product.TOHTEN));
+        sb.append(Product.COMMA);
+        sb.append(p.getStartingPrice());
+        sb.append(Product.COMMA);
+        sb.append(p.getBuyoutPrice());
+        sb.append(Product.COMMA);
+
+        final var imgNameLen = p.getImages().size();
+        final var imageList = new ArrayList<>(p.getImages());
+        for (int i = 0; i < imgNameLen; i++) {
+            sb.append(imageList.get(i).getName());
+            sb.append(Product.COMMA);
+        }
+        for (int i = 0, max = 10 - imgNameLen; i < max; i++) {
+            sb.append(Product.COMMA);
+        }
+
+        final int sbLen = sb.length();
+        sb.delete(sbLen - 1, sbLen);
+        return sb.toString();
+    }
+
+    /**
+     * 書き込んだバイトを捨てるチャネルです。
+     */
+    private static class NullChannel implements WritableByteChannel {
+
+        @Override
+        public int write(final ByteBuffer src) {
+            final var len = src.remaining();
+            src.position(src.limit());
+            return len;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        final var opt = new OptionsBuilder()
+                .include(CsvRowBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(opt).run();
+    }
+
+}
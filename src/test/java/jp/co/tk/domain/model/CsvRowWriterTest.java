@@ -0,0 +1,58 @@
+package jp.co.tk.domain.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.net.URI;
+import java.nio.channels.Channels;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CsvRowWriterTest {
+
+    @Test
+    public void 区切り文字を含む値がダブルクォートで囲まれること() {
+        var writer = new CsvRowWriter(StandardCharsets.UTF_8);
+        writer.field("a,b").field("say \"hi\"").field("line1\r\nline2").field("plain");
+        assertThat(writer.toString()).isEqualTo("\"a,b\",\"say \"\"hi\"\"\",\"line1\r\nline2\",plain");
+    }
+
+    @Test
+    public void 数値と空の値が書き込めること() {
+        var writer = new CsvRowWriter(StandardCharsets.UTF_8);
+        writer.field(0L).field(-1200L).field(Long.MAX_VALUE).field((Long) null).emptyField().field((String) null);
+        assertThat(writer.toString()).isEqualTo("0,-1200," + Long.MAX_VALUE + ",,,");
+    }
+
+    @Test
+    public void 指定の文字コードで書き出せること() throws Exception {
+        var sjis = Charset.forName("Shift-JIS");
+        var writer = new CsvRowWriter(sjis);
+        var out = new ByteArrayOutputStream();
+        var longText = "商品説明,".repeat(2000);
+
+        var written = writer.field("カテゴリ").field(longText).endRow().writeTo(Channels.newChannel(out));
+
+        assertThat(written).isEqualTo(out.size());
+        assertThat(new String(out.toByteArray(), sjis)).isEqualTo("カテゴリ,\"" + longText + "\"\r\n");
+        assertThat(writer.toString()).isEmpty();
+    }
+
+    @Test
+    public void 商品の行が15列で出力されること() throws Exception {
+        var product = YAProduct.builder()
+                .idAndCategory(new YAProduct.IdAndCategory("x1", "本"))
+                .title("タイトル,その1")
+                .description("説明")
+                .startingPrice(100L)
+                .buyoutPrice(200L)
+                .imageUri(List.of(URI.create("https://example.com/i/a-1.jpg")))
+                .build();
+
+        assertThat(product.csvData()).isEqualTo("本,\"タイトル,その1\",説明,100,200,1.jpg,,,,,,,,,");
+    }
+
+}
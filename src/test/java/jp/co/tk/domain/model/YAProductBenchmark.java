@@ -0,0 +1,78 @@
+package jp.co.tk.domain.model;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * YAProductの画像名の生成と、CSVの1行の生成を計測します。
+ * <p>
+ * mvn -Pbenchmark test -Djmh.args="YAProductBenchmark -prof gc"
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class YAProductBenchmark {
+
+    private List<URI> imageUri;
+
+    private YAProduct product;
+
+    @Setup
+    public void setup() throws Exception {
+        this.imageUri = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            this.imageUri.add(URI.create("https://auctions.c.yimg.jp/images.auctions.yahoo.co.jp/image/dr000/auc0304/users/db78dcdb3b6b11c522fb507729f2f1b712ce01df/i-img1200x900-16500834183vqiii" + i + ".jpg"));
+        }
+        this.product = builder().build();
+    }
+
+    /**
+     * 画像URLから画像名を生成します。
+     */
+    @Benchmark
+    public YAProduct imageUri() {
+        return builder().build();
+    }
+
+    /**
+     * CSVの1行を文字列で生成します。
+     */
+    @Benchmark
+    public String csvData() {
+        return this.product.csvData();
+    }
+
+    private YAProduct.YAProductBuilder builder() {
+        return YAProduct.builder()
+                .idAndCategory(new YAProduct.IdAndCategory("x123456789", "2084000000"))
+                .title("【美品】ヴィンテージ 置時計, 動作確認済み")
+                .description("ご覧いただきありがとうございます。".repeat(40))
+                .startingPrice(1000L)
+                .buyoutPrice(5000L)
+                .imageUri(this.imageUri);
+    }
+
+    public static void main(final String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(YAProductBenchmark.class.getSimpleName()).build()).run();
+    }
+
+}
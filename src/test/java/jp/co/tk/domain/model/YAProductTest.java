@@ -0,0 +1,49 @@
+package jp.co.tk.domain.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.URI;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class YAProductTest {
+
+    @Test
+    public void 画像のURLと画像名がページ内の順に組で保持されること() throws Exception {
+        final var urls = List.of(
+                URI.create("https://example.com/i/x1-3.jpg"),
+                URI.create("https://example.com/i/x1-1.jpg"),
+                URI.create("https://example.com/other/x1-3.jpg"),
+                URI.create("https://example.com/i/x1-2.jpg"));
+
+        final var product = YAProduct.builder()
+                .idAndCategory(new YAProduct.IdAndCategory("x1", "本"))
+                .imageUri(urls)
+                .build();
+
+        // 画像名が重複する画像は最初の画像のみ保持すること
+        assertThat(product.getImages()).extracting(YAProduct.Image::getName).containsExactly("3.jpg", "1.jpg", "2.jpg");
+        assertThat(product.getImages()).extracting(YAProduct.Image::getSource).containsExactly(urls.get(0), urls.get(1), urls.get(3));
+        assertThat(product.getImages()).extracting(YAProduct.Image::getIndex).containsExactly(0, 1, 2);
+    }
+
+    @Test
+    public void 画像の出力が商品の画像を共有すること() throws Exception {
+        final var product = YAProduct.builder()
+                .idAndCategory(new YAProduct.IdAndCategory("x1", "本"))
+                .title("タイトル")
+                .description("説明".repeat(10000))
+                .startingPrice(100L)
+                .buyoutPrice(200L)
+                .imageUri(List.of(URI.create("https://example.com/i/x1-1.jpg"), URI.create("https://example.com/i/x1-2.jpg")))
+                .build();
+
+        final var job = product.toImageJob();
+
+        assertThat(job.getAuctionId()).isEqualTo("x1");
+        assertThat(job.getImages()).containsExactlyElementsOf(product.getImages());
+        assertThat(job.getImages().get(0)).isSameAs(product.getImages().get(0));
+    }
+
+}
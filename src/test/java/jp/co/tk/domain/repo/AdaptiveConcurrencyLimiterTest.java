@@ -0,0 +1,151 @@
+package jp.co.tk.domain.repo;
+
+import com.sun.net.httpserver.HttpServer;
+import jp.co.tk.config.ScrapingProperties;
+import org.jsoup.HttpStatusException;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetSocketAddress;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class AdaptiveConcurrencyLimiterTest {
+
+    private static final String HOST = "example.com";
+
+    private static AdaptiveConcurrencyLimiter newLimiter() {
+        final var properties = new ScrapingProperties();
+        properties.getAdaptiveLimit().setInitialLimit(2);
+        properties.getAdaptiveLimit().setMaxLimit(8);
+        properties.getAdaptiveLimit().setLatencyTolerance(1000);
+        return new AdaptiveConcurrencyLimiter(properties);
+    }
+
+    @Test
+    public void 成功が続くと上限が増え429で半分になること() throws Exception {
+        final var limiter = newLimiter();
+        for (var round = 0; round < 8; round++) {
+            final var permits = new ArrayList<AdaptiveConcurrencyLimiter.Permit>();
+            final var limit = (int) limiter.getLimit(HOST);
+            for (var i = 0; i < limit; i++) {
+                permits.add(limiter.acquire(HOST));
+            }
+            // 上限を超える分は許可されずに待つこと
+            assertThat(limiter.acquireAsync(HOST).cancel(false)).isTrue();
+            permits.forEach(p -> p.release(null));
+        }
+        final var grown = limiter.getLimit(HOST);
+        assertThat(grown).isGreaterThanOrEqualTo(5);
+
+        final var first = limiter.acquire(HOST);
+        final var second = limiter.acquire(HOST);
+        first.release(new ThrottledException(ThrottledException.TOO_MANY_REQUESTS, "http://example.com/", -1));
+        // 同じ窓の中の拒否では、1回だけ減らすこと
+        second.release(new ThrottledException(ThrottledException.TOO_MANY_REQUESTS, "http://example.com/", -1));
+        assertThat(limiter.getLimit(HOST)).isEqualTo(grown / 2);
+
+        // 404はサーバーの負荷と関係ないため、上限を変えないこと
+        limiter.acquire(HOST).release(new HttpStatusException("HTTP error fetching URL", 404, "http://example.com/"));
+        assertThat(limiter.getLimit(HOST)).isEqualTo(grown / 2);
+    }
+
+    @Test
+    public void 同じ窓の中でレスポンスの時間が続けて延びても上限は1回だけ減ること() throws Exception {
+        final var properties = new ScrapingProperties();
+        properties.getAdaptiveLimit().setInitialLimit(8);
+        properties.getAdaptiveLimit().setMaxLimit(8);
+        final var limiter = new AdaptiveConcurrencyLimiter(properties);
+        for (var i = 0; i < 4; i++) {
+            limiter.acquire(HOST).release(null);
+        }
+        assertThat(limiter.getLimit(HOST)).isEqualTo(8);
+
+        final var permits = new ArrayList<AdaptiveConcurrencyLimiter.Permit>();
+        for (var i = 0; i < 8; i++) {
+            permits.add(limiter.acquire(HOST));
+        }
+        Thread.sleep(50);
+        permits.forEach(p -> p.release(null));
+        assertThat(limiter.getLimit(HOST)).isEqualTo(8 * 0.9);
+
+        // 減らした後に許可したリクエストが遅れた場合は、次の窓として減らすこと
+        final var next = limiter.acquire(HOST);
+        Thread.sleep(500);
+        next.release(null);
+        assertThat(limiter.getLimit(HOST)).isEqualTo(8 * 0.9 * 0.9);
+    }
+
+    @Test
+    public void プロファイルの同時リクエスト数を上限とすること() throws Exception {
+        final var properties = new ScrapingProperties();
+        properties.getAdaptiveLimit().setMaxLimit(8);
+        properties.getAdaptiveLimit().setLatencyTolerance(1000);
+        final var profile = new ScrapingProperties.EndpointProfile();
+        profile.setMaxConcurrency(3);
+        properties.getEndpoint().getProfiles().put("local", profile);
+        properties.getEndpoint().setActive("local");
+        final var limiter = new AdaptiveConcurrencyLimiter(properties);
+
+        for (var round = 0; round < 20; round++) {
+            final var permits = new ArrayList<AdaptiveConcurrencyLimiter.Permit>();
+            for (var i = 0; i < (int) limiter.getLimit(HOST); i++) {
+                permits.add(limiter.acquire(HOST));
+            }
+            permits.forEach(p -> p.release(null));
+        }
+        assertThat(limiter.getLimit(HOST)).isEqualTo(3);
+    }
+
+    @Test
+    public void Retry_Afterの間は許可されないこと() throws Exception {
+        final var limiter = newLimiter();
+        limiter.acquire(HOST).release(new ThrottledException(ThrottledException.SERVICE_UNAVAILABLE, "http://example.com/", 500));
+
+        final var started = System.nanoTime();
+        final var waiting = limiter.acquireAsync(HOST);
+        assertThat(waiting).isNotDone();
+        waiting.get(5, TimeUnit.SECONDS).release(null);
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started)).isGreaterThanOrEqualTo(400);
+        // 別のホストは止めないこと
+        assertThat(limiter.acquireAsync("other.example.com")).isDone();
+    }
+
+    @Test
+    public void Retry_Afterの秒数と日付を解釈できること() {
+        final var now = ZonedDateTime.of(2022, 4, 1, 0, 0, 0, 0, ZoneOffset.UTC);
+        final var nowMillis = now.toInstant().toEpochMilli();
+        assertThat(ThrottledException.parseRetryAfter("120", nowMillis)).isEqualTo(120_000);
+        assertThat(ThrottledException.parseRetryAfter(DateTimeFormatter.RFC_1123_DATE_TIME.format(now.plusSeconds(30)), nowMillis)).isEqualTo(30_000);
+        assertThat(ThrottledException.parseRetryAfter("soon", nowMillis)).isEqualTo(-1);
+        assertThat(ThrottledException.parseRetryAfter(null, nowMillis)).isEqualTo(-1);
+    }
+
+    @Test
+    public void ステータス429のレスポンスはRetry_Afterを持つ例外となること() throws Exception {
+        final var server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", exchange -> {
+            exchange.getResponseHeaders().add("Retry-After", "3");
+            exchange.sendResponseHeaders(ThrottledException.TOO_MANY_REQUESTS, -1);
+            exchange.close();
+        });
+        server.start();
+        final var properties = new ScrapingProperties();
+        final var transport = new JdkHttpTransport(properties.getHttp());
+        try {
+            final var url = "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+            assertThatThrownBy(() -> transport.get(url, "test", Collections.emptyMap()))
+                    .isInstanceOfSatisfying(ThrottledException.class, e -> assertThat(e.getRetryAfterMillis()).isEqualTo(3000));
+        } finally {
+            transport.destroy();
+            server.stop(0);
+        }
+    }
+
+}
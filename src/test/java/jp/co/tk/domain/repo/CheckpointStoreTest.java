@@ -0,0 +1,90 @@
+package jp.co.tk.domain.repo;
+
+import jp.co.tk.config.ScrapingProperties;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CheckpointStoreTest {
+
+    @TempDir
+    Path tempDir;
+
+    private CheckpointStore open(final ScrapingProperties.Checkpoint.Mode mode) throws Exception {
+        final var properties = new ScrapingProperties();
+        properties.getCheckpoint().setDir(this.tempDir.toString());
+        properties.getCheckpoint().setMode(mode);
+        final var store = new CheckpointStore(properties);
+        store.open();
+        return store;
+    }
+
+    @Test
+    public void 中断後に処理済みのページと商品と画像が復元されること() throws Exception {
+        final var store = open(ScrapingProperties.Checkpoint.Mode.RESUME);
+        store.markPageDone("seller", 0);
+        store.markProductDone("seller", "a1");
+        store.markImageDone("seller", "a2", "1.jpg");
+        store.markRowWritten("seller", "a2");
+        store.destroy();
+
+        final var resumed = open(ScrapingProperties.Checkpoint.Mode.RESUME);
+        assertThat(resumed.isPageDone("seller", 0)).isTrue();
+        assertThat(resumed.isPageDone("seller", 1)).isFalse();
+        assertThat(resumed.isProductDone("seller", "a1")).isTrue();
+        assertThat(resumed.isProductDone("seller", "a2")).isFalse();
+        assertThat(resumed.isImageDone("seller", "a2", "1.jpg")).isTrue();
+        assertThat(resumed.isRowWritten("seller", "a2")).isTrue();
+        assertThat(resumed.isRowWritten("seller", "a1")).isFalse();
+        assertThat(resumed.isPageDone("other", 0)).isFalse();
+        resumed.destroy();
+    }
+
+    @Test
+    public void 完了後の実行では最初から取得すること() throws Exception {
+        final var store = open(ScrapingProperties.Checkpoint.Mode.RESUME);
+        store.markPageDone("seller", 0);
+        store.markProductDone("seller", "a1");
+        store.complete();
+        store.destroy();
+
+        final var next = open(ScrapingProperties.Checkpoint.Mode.RESUME);
+        assertThat(next.isPageDone("seller", 0)).isFalse();
+        assertThat(next.isProductDone("seller", "a1")).isFalse();
+        assertThat(this.tempDir.resolve("seller.log")).doesNotExist();
+        next.destroy();
+    }
+
+    @Test
+    public void 前回以降のモードでは過去に取得したオークションIDを取得しないこと() throws Exception {
+        final var store = open(ScrapingProperties.Checkpoint.Mode.SINCE_LAST_RUN);
+        store.markProductDone("seller", "a1");
+        store.complete();
+        store.destroy();
+
+        final var next = open(ScrapingProperties.Checkpoint.Mode.SINCE_LAST_RUN);
+        assertThat(next.isProductDone("seller", "a1")).isTrue();
+        assertThat(next.isProductDone("other", "a1")).isTrue();
+        assertThat(next.isProductDone("seller", "a2")).isFalse();
+        assertThat(Files.readAllLines(this.tempDir.resolve("seen-auction-ids"))).containsExactly("a1");
+        next.destroy();
+    }
+
+    @Test
+    public void 無効の場合は何も記録しないこと() throws Exception {
+        final var properties = new ScrapingProperties();
+        properties.getCheckpoint().setEnabled(false);
+        properties.getCheckpoint().setDir(this.tempDir.resolve("disabled").toString());
+        final var store = new CheckpointStore(properties);
+        store.open();
+        store.markPageDone("seller", 0);
+
+        assertThat(store.isPageDone("seller", 0)).isFalse();
+        assertThat(this.tempDir.resolve("disabled")).doesNotExist();
+    }
+
+}
@@ -0,0 +1,107 @@
+package jp.co.tk.domain.repo;
+
+import com.sun.net.httpserver.HttpServer;
+import jp.co.tk.config.ScrapingProperties;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.Collections;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class HostRateLimiterTest {
+
+    private HttpServer server;
+
+    private YARepositoryImpl repo;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        this.server = HttpServer.create(new InetSocketAddress(0), 0);
+        this.server.createContext("/", exchange -> {
+            final var body = new byte[]{1, 2, 3};
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        this.server.setExecutor(Executors.newCachedThreadPool());
+        this.server.start();
+
+        final var properties = new ScrapingProperties();
+        properties.getRateLimit().setPermitsPerSecond(20);
+        properties.getRateLimit().setJitterMillis(0);
+        final var localhost = new ScrapingProperties.Bucket();
+        localhost.setPermitsPerSecond(10);
+        localhost.setJitterMillis(0);
+        properties.getRateLimit().getHosts().put("localhost", localhost);
+        properties.getCache().setEnabled(false);
+        // クライアントの初期化に掛かる時間が間隔の計測に含まれないよう、間隔制御を通さずに1回送信しておく
+        final var transport = new JdkHttpTransport(properties.getHttp());
+        transport.get("http://127.0.0.1:" + this.server.getAddress().getPort() + "/img.jpg", "test", Collections.emptyMap()).close();
+        this.repo = new YARepositoryImpl(new WebFetcher(new HostRateLimiter(properties), new HttpResponseCache(properties), transport), new ExtractionRules(properties), new ResilienceGuard(properties), properties);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        this.server.stop(0);
+    }
+
+    @Test
+    public void ホスト毎の設定値の間隔でリクエストされること() throws Exception {
+        final var port = this.server.getAddress().getPort();
+        final var executor = Executors.newFixedThreadPool(2);
+        try {
+            final var started = System.nanoTime();
+            final var loopback = executor.submit(fetch(new URL("http://127.0.0.1:" + port + "/img.jpg"), 21));
+            final var localhost = executor.submit(fetch(new URL("http://localhost:" + port + "/img.jpg"), 11));
+
+            // 20req/sで21回 = 約1秒、10req/sで11回 = 約1秒
+            final double loopbackRate = 20 / (loopback.get() / 1e9);
+            final double localhostRate = 10 / (localhost.get() / 1e9);
+            final var totalSeconds = (System.nanoTime() - started) / 1e9;
+
+            assertThat(loopbackRate).isBetween(15.0, 21.0);
+            assertThat(localhostRate).isBetween(7.5, 10.5);
+            // 異なるホストは並行してリクエストされること
+            assertThat(totalSeconds).isLessThan(1.8);
+        } finally {
+            executor.shutdownNow();
+            executor.awaitTermination(1, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void バーストの範囲内では待機しないこと() throws Exception {
+        final var properties = new ScrapingProperties();
+        properties.getRateLimit().setPermitsPerSecond(1);
+        properties.getRateLimit().setBurst(3);
+        properties.getRateLimit().setJitterMillis(0);
+        final var limiter = new HostRateLimiter(properties);
+
+        assertThat(limiter.reserve("example.com")).isZero();
+        assertThat(limiter.reserve("example.com")).isZero();
+        assertThat(limiter.reserve("example.com")).isZero();
+        assertThat(limiter.reserve("example.com")).isGreaterThan(TimeUnit.MILLISECONDS.toNanos(500));
+        assertThat(limiter.reserve("example.org")).isZero();
+    }
+
+    /**
+     * 全てのリクエストが完了するまでの経過時間(ナノ秒)を返却するタスクを生成します。
+     */
+    private Callable<Long> fetch(final URL url, final int count) {
+        return () -> {
+            final var started = System.nanoTime();
+            for (int i = 0; i < count; i++) {
+                this.repo.fetchProductImgData(url);
+            }
+            return System.nanoTime() - started;
+        };
+    }
+
+}
@@ -0,0 +1,176 @@
+package jp.co.tk.domain.repo;
+
+import com.sun.net.httpserver.HttpServer;
+import jp.co.tk.config.ScrapingProperties;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class HttpResponseCacheTest {
+
+    private static final String ETAG = "\"v1\"";
+
+    @TempDir
+    Path tempDir;
+
+    private HttpServer server;
+
+    private String baseUrl;
+
+    private final AtomicInteger imageRequests = new AtomicInteger();
+
+    private final AtomicInteger htmlRequests = new AtomicInteger();
+
+    private final AtomicInteger notModified = new AtomicInteger();
+
+    private ScrapingProperties properties;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        this.server.createContext("/img", exchange -> {
+            this.imageRequests.incrementAndGet();
+            final var body = new byte[]{(byte) 0xFF, (byte) 0xD8, (byte) 0xFF, 1, 2, 3};
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        this.server.createContext("/html", exchange -> {
+            this.htmlRequests.incrementAndGet();
+            if (ETAG.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                this.notModified.incrementAndGet();
+                exchange.sendResponseHeaders(304, -1);
+                exchange.close();
+                return;
+            }
+            final var body = "<html><body><p class=\"ProductTitle__text\">タイトル</p></body></html>".getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "text/html; charset=UTF-8");
+            exchange.getResponseHeaders().add("ETag", ETAG);
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        this.server.start();
+        this.baseUrl = "http://127.0.0.1:" + this.server.getAddress().getPort();
+
+        this.properties = new ScrapingProperties();
+        this.properties.getRateLimit().setPermitsPerSecond(0);
+        this.properties.getCache().setDir(this.tempDir.resolve("cache").toString());
+    }
+
+    @AfterEach
+    public void tearDown() {
+        this.server.stop(0);
+    }
+
+    @Test
+    public void 画像は2回目以降はネットワークにアクセスしないこと() throws Exception {
+        final var cache = new HttpResponseCache(this.properties);
+        final var fetcher = new WebFetcher(new HostRateLimiter(this.properties), cache, new JdkHttpTransport(this.properties.getHttp()));
+        final var url = new URL(this.baseUrl + "/img/1.jpg");
+
+        fetcher.fetchTo(url, this.tempDir.resolve("a.jpg"), "test");
+        fetcher.fetchTo(url, this.tempDir.resolve("b.jpg"), "test");
+        final var bytes = fetcher.fetchBytes(url, "test");
+
+        assertThat(this.imageRequests.get()).isEqualTo(1);
+        assertThat(cache.getMissCount()).isEqualTo(1);
+        assertThat(cache.getHitCount()).isEqualTo(2);
+        assertThat(Files.readAllBytes(this.tempDir.resolve("b.jpg"))).isEqualTo(bytes);
+        cache.destroy();
+    }
+
+    @Test
+    public void HTMLはETagで再検証されること() throws Exception {
+        final var cache = new HttpResponseCache(this.properties);
+        final var fetcher = new WebFetcher(new HostRateLimiter(this.properties), cache, new JdkHttpTransport(this.properties.getHttp()));
+
+        final var first = fetcher.fetchDocument(this.baseUrl + "/html", "test");
+        final var second = fetcher.fetchDocument(this.baseUrl + "/html", "test");
+
+        assertThat(this.htmlRequests.get()).isEqualTo(2);
+        assertThat(this.notModified.get()).isEqualTo(1);
+        assertThat(cache.getRevalidatedCount()).isEqualTo(1);
+        assertThat(second.getElementsByClass("ProductTitle__text").text()).isEqualTo("タイトル");
+        assertThat(second.html()).isEqualTo(first.html());
+        cache.destroy();
+    }
+
+    @Test
+    public void 再起動後もキャッシュが使用されること() throws Exception {
+        final var url = new URL(this.baseUrl + "/img/1.jpg");
+        final var cache = new HttpResponseCache(this.properties);
+        new WebFetcher(new HostRateLimiter(this.properties), cache, new JdkHttpTransport(this.properties.getHttp())).fetchBytes(url, "test");
+        cache.destroy();
+
+        final var reopened = new HttpResponseCache(this.properties);
+        new WebFetcher(new HostRateLimiter(this.properties), reopened, new JdkHttpTransport(this.properties.getHttp())).fetchBytes(url, "test");
+
+        assertThat(this.imageRequests.get()).isEqualTo(1);
+        assertThat(reopened.getHitCount()).isEqualTo(1);
+        reopened.destroy();
+    }
+
+    @Test
+    public void 上限を超えた場合は参照の古いものから削除されること() throws Exception {
+        this.properties.getCache().setMaxSizeMb(1);
+        final var cache = new HttpResponseCache(this.properties);
+        final var half = new byte[400 * 1024];
+
+        half[0] = 1;
+        cache.put("http://example.com/1", half, null, null, null);
+        half[0] = 2;
+        cache.put("http://example.com/2", half, null, null, null);
+        assertThat(cache.get("http://example.com/1")).isNotNull();
+        half[0] = 3;
+        cache.put("http://example.com/3", half, null, null, null);
+
+        assertThat(cache.get("http://example.com/1")).isNotNull();
+        assertThat(cache.get("http://example.com/2")).isNull();
+        assertThat(cache.get("http://example.com/3")).isNotNull();
+        assertThat(cache.getSize()).isEqualTo(800 * 1024);
+        cache.destroy();
+    }
+
+    @Test
+    public void 同じ内容は1つのファイルを共有すること() throws Exception {
+        final var cache = new HttpResponseCache(this.properties);
+        final var body = "same".getBytes(StandardCharsets.UTF_8);
+
+        final var a = cache.put("http://example.com/a", body, null, null, null);
+        final var b = cache.put("http://example.com/b", body, null, null, null);
+        cache.remove("http://example.com/a");
+
+        assertThat(a.getSha()).isEqualTo(b.getSha());
+        assertThat(cache.getSize()).isEqualTo(body.length);
+        assertThat(cache.blobPath(b)).exists();
+        cache.destroy();
+    }
+
+    @Test
+    public void 同じURLに同じ内容を保存し直してもファイルが残ること() throws Exception {
+        final var cache = new HttpResponseCache(this.properties);
+        final var body = "same".getBytes(StandardCharsets.UTF_8);
+
+        cache.put("http://example.com/a", body, null, null, null);
+        cache.put("http://example.com/a", body, "\"v2\"", null, null);
+
+        final var entry = cache.get("http://example.com/a");
+        assertThat(entry).isNotNull();
+        assertThat(entry.getEtag()).isEqualTo("\"v2\"");
+        assertThat(cache.blobPath(entry)).exists();
+        assertThat(cache.getSize()).isEqualTo(body.length);
+        cache.destroy();
+    }
+
+}
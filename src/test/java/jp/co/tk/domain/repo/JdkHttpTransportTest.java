@@ -0,0 +1,127 @@
+package jp.co.tk.domain.repo;
+
+import com.sun.net.httpserver.HttpServer;
+import jp.co.tk.config.ScrapingProperties;
+import org.jsoup.HttpStatusException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.net.InetSocketAddress;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPOutputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class JdkHttpTransportTest {
+
+    /**
+     * "hello brotli" を非圧縮のメタブロックでbrotli形式にしたものです。
+     */
+    private static final byte[] BROTLI_HELLO = Base64.getDecoder().decode("sAAQaGVsbG8gYnJvdGxpAw==");
+
+    private HttpServer server;
+
+    private String baseUrl;
+
+    private final Set<Integer> remotePorts = ConcurrentHashMap.newKeySet();
+
+    private JdkHttpTransport transport;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        this.server.createContext("/gzip", exchange -> {
+            this.remotePorts.add(exchange.getRemoteAddress().getPort());
+            final var out = new ByteArrayOutputStream();
+            try (var gzip = new GZIPOutputStream(out)) {
+                gzip.write("<p>こんにちは</p>".getBytes(StandardCharsets.UTF_8));
+            }
+            exchange.getResponseHeaders().add("Content-Type", "text/html; charset=UTF-8");
+            exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+            exchange.sendResponseHeaders(200, out.size());
+            exchange.getResponseBody().write(out.toByteArray());
+            exchange.close();
+        });
+        this.server.createContext("/br", exchange -> {
+            exchange.getResponseHeaders().add("Content-Encoding", "br");
+            exchange.sendResponseHeaders(200, BROTLI_HELLO.length);
+            exchange.getResponseBody().write(BROTLI_HELLO);
+            exchange.close();
+        });
+        this.server.createContext("/missing", exchange -> {
+            exchange.sendResponseHeaders(404, -1);
+            exchange.close();
+        });
+        this.server.createContext("/slow", exchange -> {
+            try {
+                Thread.sleep(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            exchange.sendResponseHeaders(200, -1);
+            exchange.close();
+        });
+        this.server.setExecutor(Executors.newCachedThreadPool());
+        this.server.start();
+        this.baseUrl = "http://127.0.0.1:" + this.server.getAddress().getPort();
+
+        final var properties = new ScrapingProperties();
+        properties.getHttp().setReadTimeoutMillis(300);
+        this.transport = new JdkHttpTransport(properties.getHttp());
+    }
+
+    @AfterEach
+    public void tearDown() {
+        this.server.stop(0);
+    }
+
+    @Test
+    public void gzipのレスポンスを展開し接続を再利用すること() throws Exception {
+        // 平文のHTTP/2はUpgradeを試みた最初の接続を再利用しないため、HTTP/1.1のKeep-Aliveで確認する
+        final var properties = new ScrapingProperties();
+        properties.getHttp().setHttp2(false);
+        final var http11 = new JdkHttpTransport(properties.getHttp());
+        for (int i = 0; i < 5; i++) {
+            try (var response = http11.get(this.baseUrl + "/gzip", "test", Collections.emptyMap())) {
+                assertThat(response.statusCode()).isEqualTo(200);
+                assertThat(response.charset()).isEqualTo("UTF-8");
+                assertThat(new String(response.bodyAsBytes(), StandardCharsets.UTF_8)).isEqualTo("<p>こんにちは</p>");
+            }
+        }
+        assertThat(this.remotePorts).hasSize(1);
+    }
+
+    @Test
+    public void brのレスポンスを展開すること() throws Exception {
+        try (var response = this.transport.get(this.baseUrl + "/br", "test", Map.of("If-None-Match", "\"x\""))) {
+            assertThat(new String(response.bodyAsBytes(), StandardCharsets.US_ASCII)).isEqualTo("hello brotli");
+        }
+    }
+
+    @Test
+    public void エラーのステータスとタイムアウトは例外となること() {
+        assertThatThrownBy(() -> this.transport.get(this.baseUrl + "/missing", "test", Collections.emptyMap()))
+                .isInstanceOfSatisfying(HttpStatusException.class, e -> assertThat(e.getStatusCode()).isEqualTo(404));
+        assertThatThrownBy(() -> this.transport.get(this.baseUrl + "/slow", "test", Collections.emptyMap()))
+                .isInstanceOf(HttpTimeoutException.class);
+    }
+
+    @Test
+    public void Content_Typeから文字コードを取得できること() {
+        assertThat(HttpTransport.charsetOf("text/html; charset=\"Shift_JIS\"")).isEqualTo("Shift_JIS");
+        assertThat(HttpTransport.charsetOf("text/html;charset=utf-8; foo=bar")).isEqualTo("utf-8");
+        assertThat(HttpTransport.charsetOf("image/jpeg")).isNull();
+        assertThat(HttpTransport.charsetOf(null)).isNull();
+    }
+
+}
@@ -0,0 +1,140 @@
+package jp.co.tk.domain.repo;
+
+import jp.co.tk.config.ScrapingProperties;
+import org.jsoup.select.Selector;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class ProductPageExtractorTest {
+
+    private final ProductPageExtractor extractor = new ProductPageExtractor(new ExtractionRules(new ScrapingProperties()));
+
+    @Test
+    public void 説明文の後は読み込まずに項目を抜き出せること() throws Exception {
+        final String html;
+        try (var in = ProductPageExtractorTest.class.getResourceAsStream("/fixtures/yahoo-product.html")) {
+            html = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+        var reader = new CountingReader(new StringReader(html));
+
+        var actual = this.extractor.extract(reader, "https://page.auctions.yahoo.co.jp/jp/auction/x1");
+
+        assertThat(actual.getTitle()).isEqualTo("【美品】ヴィンテージ 置時計 アンティーク 動作確認済み");
+        assertThat(actual.getDetails().get(9)).isEqualTo("：1,000円");
+        assertThat(actual.getBuyoutPrice()).startsWith("即決 即決価格 5,000円");
+        assertThat(actual.getImageUri()).hasSize(10);
+        assertThat(reader.count).isLessThan(html.length());
+    }
+
+    @Test
+    public void 即決価格が無い場合も説明文の後は読み込まずに項目を抜き出せること() throws Exception {
+        final String html;
+        try (var in = ProductPageExtractorTest.class.getResourceAsStream("/fixtures/yahoo-product-no-buynow.html")) {
+            html = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+        var reader = new CountingReader(new StringReader(html));
+
+        var actual = this.extractor.extract(reader, "https://page.auctions.yahoo.co.jp/jp/auction/x1");
+
+        assertThat(actual.getTitle()).isEqualTo("【美品】ヴィンテージ 置時計 アンティーク 動作確認済み");
+        assertThat(actual.getDetails().get(9)).isEqualTo("：1,000円");
+        assertThat(actual.getBuyoutPrice()).isEmpty();
+        assertThat(actual.getImageUri()).hasSize(10);
+        assertThat(reader.count).isLessThan(html.length());
+    }
+
+    @Test
+    public void 画像が無い場合は最後まで読み込み相対URLを解決すること() throws Exception {
+        var html = "<html><body><h1 class=\"ProductTitle__text\">t</h1>"
+                + "<div class=\"Price--buynow\">100円</div>"
+                + "<div class=\"ProductExplanation__commentArea\"><p>a</p><p>b</p></div>"
+                + "<div class=\"ProductImage__image\"><img src=\"/img/1.jpg\"></div></body></html>";
+
+        var actual = this.extractor.extract(new StringReader(html), "https://example.com/jp/auction/x1");
+
+        assertThat(actual.getDescription()).isEqualTo("a b");
+        assertThat(actual.getDetails()).isEmpty();
+        assertThat(actual.getImageUri()).extracting(Object::toString).containsExactly("https://example.com/img/1.jpg");
+    }
+
+    @Test
+    public void 説明文の後の画像も画像の領域が閉じるまで読み込むこと() throws Exception {
+        var properties = new ScrapingProperties();
+        properties.getExtraction().getProduct().setStartingPriceIndex(0);
+        var html = "<html><body><h1 class=\"ProductTitle__text\">t</h1>"
+                + "<div class=\"Price--buynow\">100円</div><dd class=\"ProductDetail__description\">：1円</dd>"
+                + "<div class=\"ProductImage\"><div class=\"ProductImage__image\"><img src=\"/img/1.jpg\"></div>"
+                + "<div class=\"ProductExplanation__commentArea\"><p>a</p></div>"
+                + "<div class=\"ProductImage__image\"><img src=\"/img/2.jpg\"></div></div>"
+                + "<footer>" + "f".repeat(100000) + "</footer></body></html>";
+        var reader = new CountingReader(new StringReader(html));
+
+        var actual = new ProductPageExtractor(new ExtractionRules(properties)).extract(reader, "https://example.com/");
+
+        assertThat(actual.getDescription()).isEqualTo("a");
+        assertThat(actual.getImageUri()).extracting(Object::toString).containsExactly("https://example.com/img/1.jpg", "https://example.com/img/2.jpg");
+        assertThat(reader.count).isLessThan(html.length());
+    }
+
+    @Test
+    public void 設定したルールで項目を抜き出せること() throws Exception {
+        var properties = new ScrapingProperties();
+        var product = properties.getExtraction().getProduct();
+        product.setTitle("#item > h2");
+        product.setImage("ul.gallery img[data-src]");
+        product.setImageAttr("data-src");
+        var html = "<html><body><div id=\"item\"><h2>new title</h2></div>"
+                + "<ul class=\"gallery\"><li><img src=\"/dummy.gif\" data-src=\"/img/1.jpg\"></li><li><img src=\"/dummy.gif\"></li></ul>"
+                + "<h2>other</h2></body></html>";
+
+        var actual = new ProductPageExtractor(new ExtractionRules(properties)).extract(new StringReader(html), "https://example.com/");
+
+        assertThat(actual.getTitle()).isEqualTo("new title");
+        assertThat(actual.getImageUri()).extracting(Object::toString).containsExactly("https://example.com/img/1.jpg");
+    }
+
+    @Test
+    public void 誤ったルールは起動時に例外となること() {
+        var properties = new ScrapingProperties();
+        properties.getExtraction().getSeller().setItem("a[data-auction-id");
+
+        assertThatThrownBy(() -> new ExtractionRules(properties)).isInstanceOf(Selector.SelectorParseException.class);
+    }
+
+    /**
+     * 読み込んだ文字数を数えます。
+     */
+    private static class CountingReader extends Reader {
+
+        private final Reader in;
+
+        private long count;
+
+        CountingReader(final Reader in) {
+            this.in = in;
+        }
+
+        @Override
+        public int read(final char[] cbuf, final int off, final int len) throws IOException {
+            final var n = this.in.read(cbuf, off, len);
+            if (n > 0) {
+                this.count += n;
+            }
+            return n;
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.in.close();
+        }
+
+    }
+
+}
@@ -0,0 +1,106 @@
+package jp.co.tk.domain.repo;
+
+import jp.co.tk.config.ScrapingProperties;
+import org.jsoup.HttpStatusException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class ResilienceGuardTest {
+
+    private static final String HOST = "example.com";
+
+    private ScrapingProperties properties;
+
+    @BeforeEach
+    public void setUp() {
+        this.properties = new ScrapingProperties();
+        this.properties.getRetry().setMaxAttempts(3);
+        this.properties.getRetry().setInitialBackoffMillis(10);
+        this.properties.getRetry().setMaxBackoffMillis(100);
+        this.properties.getCircuitBreaker().setFailureThreshold(3);
+        this.properties.getCircuitBreaker().setOpenSeconds(1);
+    }
+
+    @Test
+    public void ホストの障害は再送され404は再送されないこと() throws Exception {
+        final var guard = new ResilienceGuard(this.properties);
+        final var calls = new AtomicInteger();
+
+        final var result = guard.call(HOST, () -> {
+            if (calls.incrementAndGet() < 3) {
+                throw new HttpStatusException("HTTP error fetching URL", 502, "http://example.com/");
+            }
+            return "ok";
+        });
+        assertThat(result).isEqualTo("ok");
+        assertThat(calls.get()).isEqualTo(3);
+
+        calls.set(0);
+        assertThatThrownBy(() -> guard.call(HOST, () -> {
+            calls.incrementAndGet();
+            throw new HttpStatusException("HTTP error fetching URL", 404, "http://example.com/");
+        })).isInstanceOf(HttpStatusException.class);
+        assertThat(calls.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void 失敗が続くとリクエストを送信せずに失敗し一定時間後に再開すること() throws Exception {
+        final var guard = new ResilienceGuard(this.properties);
+        final var calls = new AtomicInteger();
+        final IOCall<String> down = () -> {
+            calls.incrementAndGet();
+            throw new ConnectException("down");
+        };
+
+        // 3回目の失敗でサーキットブレーカーが開き、残りの再送は送信しないこと
+        assertThatThrownBy(() -> guard.call(HOST, down)).isInstanceOf(ConnectException.class);
+        assertThatThrownBy(() -> guard.call(HOST, down)).isInstanceOf(CircuitOpenException.class);
+        assertThat(calls.get()).isEqualTo(3);
+        assertThat(guard.isOpen(HOST)).isTrue();
+        // 別のホストは止めないこと
+        assertThat(guard.call("other.example.com", () -> "ok")).isEqualTo("ok");
+
+        TimeUnit.MILLISECONDS.sleep(1100);
+        assertThat(guard.call(HOST, () -> "ok")).isEqualTo("ok");
+        assertThat(guard.isOpen(HOST)).isFalse();
+    }
+
+    @Test
+    public void 非同期の処理も再送されること() {
+        final var guard = new ResilienceGuard(this.properties);
+        final var calls = new AtomicInteger();
+
+        final var result = guard.callAsync(HOST, () -> calls.incrementAndGet() == 1
+                ? CompletableFuture.failedFuture(new CompletionException(new ThrottledException(ThrottledException.TOO_MANY_REQUESTS, "http://example.com/", 50)))
+                : CompletableFuture.completedFuture("ok"));
+
+        assertThat(result.join()).isEqualTo("ok");
+        assertThat(calls.get()).isEqualTo(2);
+        // 429はサーキットブレーカーの失敗に数えないこと
+        assertThat(guard.isOpen(HOST)).isFalse();
+    }
+
+    @Test
+    public void 待機時間は倍率で延びRetry_Afterに従うこと() {
+        this.properties.getRetry().setJitter(0);
+        this.properties.getRetry().setMaxBackoffMillis(1000);
+        final var guard = new ResilienceGuard(this.properties);
+        final IOException cause = new ConnectException("down");
+
+        assertThat(guard.backoffMillis(1, cause)).isEqualTo(10);
+        assertThat(guard.backoffMillis(3, cause)).isEqualTo(40);
+        assertThat(guard.backoffMillis(20, cause)).isEqualTo(1000);
+        assertThat(guard.backoffMillis(1, new ThrottledException(ThrottledException.SERVICE_UNAVAILABLE, "http://example.com/", 500))).isEqualTo(500);
+    }
+
+}
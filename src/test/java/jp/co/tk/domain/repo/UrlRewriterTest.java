@@ -0,0 +1,47 @@
+package jp.co.tk.domain.repo;
+
+import jp.co.tk.config.ScrapingProperties;
+import org.junit.jupiter.api.Test;
+
+import java.net.URL;
+import java.util.Collections;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class UrlRewriterTest {
+
+    private static ScrapingProperties.UrlRewrite rule(final String from, final String to) {
+        final var rule = new ScrapingProperties.UrlRewrite();
+        rule.setFrom(from);
+        rule.setTo(to);
+        return rule;
+    }
+
+    @Test
+    public void 最初に一致したルールで先頭を書き換えること() throws Exception {
+        final var rewriter = new UrlRewriter(List.of(
+                rule("https://auctions.c.yimg.jp/images.auctions.yahoo.co.jp/", "http://localhost:8080/images/"),
+                rule("https://auctions.c.yimg.jp/", "https://edge.example.com/")));
+
+        assertThat(rewriter.rewrite(new URL("https://auctions.c.yimg.jp/images.auctions.yahoo.co.jp/image/dr000/a.jpg")))
+                .hasToString("http://localhost:8080/images/image/dr000/a.jpg");
+        assertThat(rewriter.rewrite(new URL("https://auctions.c.yimg.jp/other/b.jpg")))
+                .hasToString("https://edge.example.com/other/b.jpg");
+        // 一致しないURLはそのまま返却すること
+        final var unmatched = new URL("https://example.com/c.jpg");
+        assertThat(rewriter.rewrite(unmatched)).isSameAs(unmatched);
+        assertThat(new UrlRewriter(Collections.emptyList()).rewrite(unmatched)).isSameAs(unmatched);
+    }
+
+    @Test
+    public void 存在しないプロファイルを指定した場合は失敗すること() {
+        final var properties = new ScrapingProperties();
+        assertThat(properties.getEndpoint().getActiveProfile()).isSameAs(properties.getEndpoint());
+
+        properties.getEndpoint().setActive("missing");
+        assertThatThrownBy(() -> properties.getEndpoint().getActiveProfile()).isInstanceOf(IllegalStateException.class);
+    }
+
+}
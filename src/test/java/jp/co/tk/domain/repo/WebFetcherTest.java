@@ -0,0 +1,195 @@
+package jp.co.tk.domain.repo;
+
+import com.sun.net.httpserver.HttpServer;
+import jp.co.tk.config.ScrapingProperties;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class WebFetcherTest {
+
+    private static final int LATENCY_MILLIS = 200;
+
+    private static final String ETAG = "\"v1\"";
+
+    private static final String HEAD = "<html><body><p>head</p>";
+
+    private static final String TAIL = "<p>tail</p></body></html>";
+
+    @TempDir
+    Path tempDir;
+
+    private HttpServer server;
+
+    private ExecutorService serverExecutor;
+
+    private String baseUrl;
+
+    private final AtomicInteger notModified = new AtomicInteger();
+
+    private ScrapingProperties properties;
+
+    private volatile long tailDelayMillis;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 256);
+        this.server.createContext("/slow", exchange -> {
+            try {
+                Thread.sleep(LATENCY_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            final var body = ("<html><body><p>" + exchange.getRequestURI().getQuery() + "</p></body></html>").getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "text/html; charset=UTF-8");
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        this.server.createContext("/html", exchange -> {
+            if (ETAG.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                this.notModified.incrementAndGet();
+                exchange.sendResponseHeaders(304, -1);
+                exchange.close();
+                return;
+            }
+            final var body = "<html><body><p>タイトル</p></body></html>".getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "text/html; charset=UTF-8");
+            exchange.getResponseHeaders().add("ETag", ETAG);
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        this.server.createContext("/stream", exchange -> {
+            exchange.getResponseHeaders().add("Content-Type", "text/html; charset=UTF-8");
+            exchange.sendResponseHeaders(200, 0);
+            try (final var out = exchange.getResponseBody()) {
+                out.write(HEAD.getBytes(StandardCharsets.UTF_8));
+                out.flush();
+                Thread.sleep(this.tailDelayMillis);
+                out.write(TAIL.getBytes(StandardCharsets.UTF_8));
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (final IOException e) {
+                // クライアントが途中で閉じた場合
+            }
+        });
+        this.serverExecutor = Executors.newCachedThreadPool();
+        this.server.setExecutor(this.serverExecutor);
+        this.server.start();
+        this.baseUrl = "http://127.0.0.1:" + this.server.getAddress().getPort();
+
+        this.properties = new ScrapingProperties();
+        this.properties.getRateLimit().setPermitsPerSecond(0);
+        this.properties.getCache().setDir(this.tempDir.resolve("cache").toString());
+        this.properties.getHttp().setHttp2(false);
+        this.properties.getHttp().setClientThreads(2);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        this.server.stop(0);
+        this.serverExecutor.shutdownNow();
+    }
+
+    @Test
+    public void 少ないスレッドで多数のリクエストを同時に処理できること() throws Exception {
+        this.properties.getCache().setEnabled(false);
+        final var transport = new JdkHttpTransport(this.properties.getHttp());
+        final var fetcher = new WebFetcher(new HostRateLimiter(this.properties), new HttpResponseCache(this.properties), transport);
+        final var requests = 200;
+
+        final var start = System.nanoTime();
+        final var results = new ArrayList<CompletableFuture<Document>>(requests);
+        for (int i = 0; i < requests; i++) {
+            results.add(fetcher.fetchPageAsync(this.baseUrl + "/slow?" + i, "test", Jsoup::parse));
+        }
+        CompletableFuture.allOf(results.toArray(new CompletableFuture[0])).get(30, TimeUnit.SECONDS);
+        final var elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        transport.destroy();
+
+        for (int i = 0; i < requests; i++) {
+            assertThat(results.get(i).join().select("p").text()).isEqualTo(String.valueOf(i));
+        }
+        // 直列に処理した場合は 200 * 200ms = 40秒かかる
+        assertThat(elapsedMillis).isLessThan(requests * LATENCY_MILLIS / 4);
+    }
+
+    @Test
+    public void 非同期でもHTMLはETagで再検証されること() throws Exception {
+        final var cache = new HttpResponseCache(this.properties);
+        final var fetcher = new WebFetcher(new HostRateLimiter(this.properties), cache, new JdkHttpTransport(this.properties.getHttp()));
+        final var url = this.baseUrl + "/html";
+
+        final var first = fetcher.fetchPageAsync(url, "test", Jsoup::parse).get(10, TimeUnit.SECONDS);
+        final var second = fetcher.fetchPageAsync(url, "test", Jsoup::parse).get(10, TimeUnit.SECONDS);
+
+        assertThat(first.select("p").text()).isEqualTo("タイトル");
+        assertThat(second.select("p").text()).isEqualTo("タイトル");
+        assertThat(this.notModified.get()).isEqualTo(1);
+        assertThat(cache.getRevalidatedCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void キャッシュが無効の場合は解析を止めた時点で残りを受信しないこと() throws Exception {
+        this.tailDelayMillis = 3000;
+        this.properties.getCache().setEnabled(false);
+        final var transport = new JdkHttpTransport(this.properties.getHttp());
+        final var fetcher = new WebFetcher(new HostRateLimiter(this.properties), new HttpResponseCache(this.properties), transport);
+
+        final var start = System.nanoTime();
+        final var head = fetcher.fetchPage(this.baseUrl + "/stream", "test", (in, charset, baseUri) -> readHead(in));
+        final var elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        transport.destroy();
+
+        assertThat(head).isEqualTo(HEAD);
+        assertThat(elapsedMillis).isLessThan(this.tailDelayMillis);
+    }
+
+    @Test
+    public void 解析を途中で止めてもキャッシュにはボディ全体が保存されること() throws Exception {
+        final var cache = new HttpResponseCache(this.properties);
+        final var fetcher = new WebFetcher(new HostRateLimiter(this.properties), cache, new JdkHttpTransport(this.properties.getHttp()));
+        final var url = this.baseUrl + "/stream";
+
+        final var head = fetcher.fetchPage(url, "test", (in, charset, baseUri) -> readHead(in));
+
+        assertThat(head).isEqualTo(HEAD);
+        assertThat(Files.readString(cache.blobPath(cache.get(url)))).isEqualTo(HEAD + TAIL);
+        cache.destroy();
+    }
+
+    /**
+     * 最初の段落の終わりまで読み込み、以降は読み込みません。
+     */
+    private static String readHead(final InputStream in) throws IOException {
+        final var sb = new StringBuilder();
+        while (!sb.toString().endsWith("</p>")) {
+            final var b = in.read();
+            if (b == -1) {
+                break;
+            }
+            sb.append((char) b);
+        }
+        return sb.toString();
+    }
+
+}
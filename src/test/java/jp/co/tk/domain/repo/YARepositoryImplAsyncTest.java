@@ -0,0 +1,78 @@
+package jp.co.tk.domain.repo;
+
+import jp.co.tk.config.ScrapingProperties;
+import jp.co.tk.domain.model.YAProduct;
+import jp.co.tk.loadtest.MockAuctionServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.net.URL;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class YARepositoryImplAsyncTest {
+
+    @TempDir
+    Path tempDir;
+
+    private MockAuctionServer server;
+
+    private JdkHttpTransport transport;
+
+    private YARepositoryImpl repo;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        this.server = new MockAuctionServer();
+        this.server.setProductsPerSeller(12);
+        this.server.setImagesPerProduct(2);
+        this.server.setImageBytes(1024);
+        this.server.setDescriptionLength(100);
+        this.server.setLatencyMillis(5);
+        this.server.start(0);
+
+        final var properties = new ScrapingProperties();
+        properties.getRateLimit().setPermitsPerSecond(0);
+        properties.getCache().setDir(this.tempDir.resolve("cache").toString());
+        properties.getEndpoint().setSellerUrl(this.server.getSellerUrl());
+        properties.getEndpoint().setProductUrl(this.server.getProductUrl());
+        this.transport = new JdkHttpTransport(properties.getHttp());
+        this.repo = new YARepositoryImpl(new WebFetcher(new HostRateLimiter(properties), new HttpResponseCache(properties), this.transport),
+                new ExtractionRules(properties), new ResilienceGuard(properties), properties);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        this.transport.destroy();
+        this.server.close();
+    }
+
+    @Test
+    public void 非同期で商品数と一覧と商品と画像を取得できること() throws Exception {
+        final var total = this.repo.fetchTotalNumberOfProductsAsync("async-seller").get(10, TimeUnit.SECONDS);
+        final var ids = this.repo.fetchProductNameListPageBySellerAsync("async-seller", 5, 0).get(10, TimeUnit.SECONDS);
+        final var id = ids.iterator().next();
+        final var product = (YAProduct) this.repo.fetchByProductIdAsync(id).get(10, TimeUnit.SECONDS);
+        final var image = this.repo.fetchProductImgDataAsync(product.getImages().get(0).toUrl()).get(10, TimeUnit.SECONDS);
+
+        assertThat(total).isEqualTo(12);
+        assertThat(ids).hasSize(5);
+        assertThat(product.getIdAndCategory()).isEqualTo(id);
+        assertThat(product.getImages()).hasSize(2);
+        assertThat(image).hasSize(1024);
+        assertThat(this.server.getProductPages().get()).isEqualTo(1);
+        assertThat(this.server.getImages().get()).isEqualTo(1);
+    }
+
+    @Test
+    public void 存在しない画像は例外で完了すること() throws Exception {
+        final var result = this.repo.fetchProductImgDataAsync(new URL(this.server.getBaseUrl() + "/missing.jpg"));
+
+        assertThat(result).failsWithin(10, TimeUnit.SECONDS);
+    }
+
+}
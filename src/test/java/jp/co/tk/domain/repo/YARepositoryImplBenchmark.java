@@ -0,0 +1,149 @@
+package jp.co.tk.domain.repo;
+
+import jp.co.tk.config.ScrapingProperties;
+import jp.co.tk.domain.model.Product;
+import jp.co.tk.domain.model.YAProduct;
+import org.apache.commons.lang3.StringUtils;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 保存したHTMLを使い、YARepositoryImplの解析処理を計測します。
+ * 商品ページは、DOMを構築してから検索する従来の方法(parseProductDom)と、
+ * 1回の走査で抜き出す方法(parseProduct)を比較します。
+ * DOMの構築だけのコストは parseHtml で確認してください。
+ * <p>
+ * mvn -Pbenchmark test -Djmh.args="YARepositoryImplBenchmark -prof gc"
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class YARepositoryImplBenchmark {
+
+    private static final String BASE_URI = "https://page.auctions.yahoo.co.jp/jp/auction/";
+
+    private final YARepositoryImpl repo = new YARepositoryImpl(null, new ExtractionRules(new ScrapingProperties()), new ResilienceGuard(new ScrapingProperties()), new ScrapingProperties());
+
+    private final YAProduct.IdAndCategory idAndCategory = new YAProduct.IdAndCategory("x123456789", "2084000000");
+
+    private String productHtml;
+
+    private byte[] productBytes;
+
+    private String sellerHtml;
+
+    private Document sellerDocument;
+
+    @Setup
+    public void setup() throws IOException {
+        this.productHtml = read("yahoo-product.html");
+        this.productBytes = this.productHtml.getBytes(StandardCharsets.UTF_8);
+        this.sellerHtml = read("yahoo-seller.html");
+        this.sellerDocument = Jsoup.parse(this.sellerHtml, BASE_URI);
+    }
+
+    /**
+     * 商品ページのHTMLの解析のみを行います。
+     */
+    @Benchmark
+    public Document parseHtml() {
+        return Jsoup.parse(this.productHtml, BASE_URI);
+    }
+
+    /**
+     * 変更前のfetchByProductIdと同じ方法で、DOMを構築してから商品を抜き出します。
+     */
+    @Benchmark
+    public Product parseProductDom() throws IOException {
+        final var document = Jsoup.parse(new ByteArrayInputStream(this.productBytes), "UTF-8", BASE_URI);
+        final var title = document.getElementsByClass("ProductTitle__text").text();
+        final var description = document.getElementsByClass("ProductExplanation__commentArea").tagName("table").text();
+        final var startingPrice = document.getElementsByClass("ProductDetail__description").tagName("span").eachText().get(9);
+        final var buyoutPrice = document.getElementsByClass("Price--buynow").text();
+        final var imgUrls = new HashSet<URI>();
+        for (final var p : document.getElementsByClass("ProductImage__image").tagName("img")) {
+            for (final var e : p.getElementsByTag("img")) {
+                final var urlAsStr = e.absUrl("src");
+                if (StringUtils.isNotBlank(urlAsStr)) {
+                    imgUrls.add(URI.create(urlAsStr));
+                }
+            }
+        }
+        return YAProduct.builder()
+                .idAndCategory(this.idAndCategory)
+                .title(title)
+                .description(description)
+                .startingPrice(this.repo.convertToNum(startingPrice))
+                .buyoutPrice(this.repo.convertToNum(buyoutPrice))
+                .imageUri(imgUrls)
+                .build();
+    }
+
+    /**
+     * 商品ページを1回の走査で解析し、商品を抜き出します。
+     */
+    @Benchmark
+    public Product parseProduct() throws IOException {
+        return this.repo.parseProduct(new ByteArrayInputStream(this.productBytes), "UTF-8", BASE_URI, this.idAndCategory);
+    }
+
+    /**
+     * 解析済みの出品者ページから、すべての a タグを走査してIDとカテゴリを抜き出します。
+     */
+    @Benchmark
+    public Set<YAProduct.IdAndCategory> parseIdAndCategory() {
+        return this.repo.parseIdAndCategory(this.sellerDocument);
+    }
+
+    /**
+     * 出品者ページのHTMLを解析し、IDとカテゴリを抜き出します。
+     */
+    @Benchmark
+    public Set<YAProduct.IdAndCategory> parseSellerPage() {
+        return this.repo.parseIdAndCategory(Jsoup.parse(this.sellerHtml, BASE_URI));
+    }
+
+    /**
+     * 価格の文字列を数値に変換します。
+     */
+    @Benchmark
+    public Long convertToNum() {
+        return this.repo.convertToNum("即決価格 5,000円（税 0 円）");
+    }
+
+    private static String read(final String name) throws IOException {
+        try (InputStream in = YARepositoryImplBenchmark.class.getResourceAsStream("/fixtures/" + name)) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    public static void main(final String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(YARepositoryImplBenchmark.class.getSimpleName()).build()).run();
+    }
+
+}
@@ -1,11 +1,15 @@
 package jp.co.tk.domain.repo;
 
 
+import jp.co.tk.domain.model.YAProduct;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.test.context.junit.jupiter.SpringJUnitConfig;
 
+import java.io.IOException;
 import java.net.URL;
 import java.util.ArrayList;
 
@@ -18,7 +22,7 @@ public class YARepositoryImplTest {
     @Autowired
     private YARepositoryImpl repo;
 
-    @ComponentScan("jp.co.tk.domain")
+    @ComponentScan({"jp.co.tk.domain", "jp.co.tk.config"})
     static class Config {
     }
 
@@ -77,4 +81,48 @@ public class YARepositoryImplTest {
         assertThat(actual).isNotNull();
     }
 
+    @Test
+    public void 保存した商品ページから各種情報を抜き出せること() throws Exception {
+        var idAndCategory = new YAProduct.IdAndCategory("x123456789", "2084000000");
+        YAProduct actual;
+        try (var in = YARepositoryImplTest.class.getResourceAsStream("/fixtures/yahoo-product.html")) {
+            actual = (YAProduct) this.repo.parseProduct(in, "UTF-8", "https://page.auctions.yahoo.co.jp/jp/auction/x123456789", idAndCategory);
+        }
+
+        assertThat(actual.getTitle()).isEqualTo("【美品】ヴィンテージ 置時計 アンティーク 動作確認済み");
+        assertThat(actual.getDescription()).startsWith("ご覧いただきありがとうございます。0段落目");
+        assertThat(actual.getStartingPrice()).isEqualTo(1000L);
+        assertThat(actual.getBuyoutPrice()).isEqualTo(5000L);
+        assertThat(actual.getImages()).hasSize(10);
+        assertThat(actual.getImages()).extracting(YAProduct.Image::getName).doesNotHaveDuplicates();
+    }
+
+    @Test
+    public void 即決価格の無い商品ページでは即決価格がnullとなること() throws Exception {
+        var idAndCategory = new YAProduct.IdAndCategory("x123456789", "2084000000");
+        YAProduct actual;
+        try (var in = YARepositoryImplTest.class.getResourceAsStream("/fixtures/yahoo-product-no-buynow.html")) {
+            actual = (YAProduct) this.repo.parseProduct(in, "UTF-8", "https://page.auctions.yahoo.co.jp/jp/auction/x123456789", idAndCategory);
+        }
+
+        assertThat(actual.getStartingPrice()).isEqualTo(1000L);
+        assertThat(actual.getBuyoutPrice()).isNull();
+        assertThat(actual.getImages()).hasSize(10);
+    }
+
+    @Test
+    public void 保存した出品者ページからIDとカテゴリと合計数を抜き出せること() throws Exception {
+        assertThat(this.repo.parseIdAndCategory(fixture("yahoo-seller.html"))).hasSize(100);
+        assertThat(this.repo.parseTotal(fixture("yahoo-seller.html"))).isEqualTo(100);
+    }
+
+    /**
+     * src/test/resources/fixtures に保存したHTMLを読み込みます。
+     */
+    static Document fixture(final String name) throws IOException {
+        try (var in = YARepositoryImplTest.class.getResourceAsStream("/fixtures/" + name)) {
+            return Jsoup.parse(in, "UTF-8", "https://page.auctions.yahoo.co.jp/jp/auction/");
+        }
+    }
+
 }
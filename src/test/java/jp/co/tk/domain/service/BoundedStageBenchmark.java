@@ -0,0 +1,116 @@
+package jp.co.tk.domain.service;
+
+import com.sun.net.httpserver.HttpServer;
+import org.jsoup.Jsoup;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 仮想スレッドとプラットフォームスレッドの段で、応答の遅いHTTPリクエストを処理する時間を比較します。
+ * 仮想スレッドのモードはJava21で実行してください。
+ * <p>
+ * mvn -Pjava21,benchmark test -Djmh.args=BoundedStageBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class BoundedStageBenchmark {
+
+    /**
+     * 1回のベンチマークで投入するリクエスト数です。
+     */
+    private static final int REQUESTS = 2000;
+
+    /**
+     * スタンドインのサーバーの応答時間(ミリ秒)です。
+     */
+    private static final int LATENCY_MILLIS = 50;
+
+    @Param({"PLATFORM", "VIRTUAL"})
+    public String mode;
+
+    @Param({"10", "200", "1000"})
+    public int concurrency;
+
+    private HttpServer server;
+
+    private String url;
+
+    private BoundedStage stage;
+
+    @Setup(Level.Trial)
+    public void startServer() throws Exception {
+        if ("VIRTUAL".equals(this.mode) && !BoundedStage.isVirtualThreadSupported()) {
+            throw new IllegalStateException("VIRTUAL mode requires Java21.");
+        }
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 4096);
+        this.server.createContext("/", exchange -> {
+            try {
+                Thread.sleep(LATENCY_MILLIS);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            final var body = "<html><body>ok</body></html>".getBytes();
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        this.server.setExecutor(Executors.newCachedThreadPool());
+        this.server.start();
+        this.url = "http://127.0.0.1:" + this.server.getAddress().getPort() + "/";
+    }
+
+    @Setup(Level.Iteration)
+    public void createStage() {
+        this.stage = "VIRTUAL".equals(this.mode)
+                ? BoundedStage.virtual("Bench", this.concurrency)
+                : new BoundedStage("Bench", this.concurrency, 0);
+    }
+
+    @TearDown(Level.Iteration)
+    public void closeStage() {
+        this.stage.close();
+    }
+
+    @TearDown(Level.Trial)
+    public void stopServer() {
+        this.server.stop(0);
+    }
+
+    @Benchmark
+    public void fetch() {
+        final var results = new ArrayList<CompletableFuture<Integer>>(REQUESTS);
+        for (int i = 0; i < REQUESTS; i++) {
+            results.add(this.stage.submit(() -> Jsoup.connect(this.url).timeout(60000).get().childNodeSize()));
+        }
+        CompletableFuture.allOf(results.toArray(new CompletableFuture[0])).join();
+    }
+
+    public static void main(final String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(BoundedStageBenchmark.class.getSimpleName()).build()).run();
+    }
+
+}
@@ -0,0 +1,102 @@
+package jp.co.tk.domain.service;
+
+import jp.co.tk.config.ScrapingProperties;
+import jp.co.tk.domain.model.Product;
+import jp.co.tk.domain.model.Seller;
+import jp.co.tk.domain.model.YAProduct;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 100商品の出品者をCSVファイルに出力する時間を計測します。
+ * <p>
+ * mvn -Pbenchmark test -Djmh.args="CsvServiceBenchmark -prof gc"
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CsvServiceBenchmark {
+
+    private static final int PRODUCTS = 100;
+
+    private final CsvService csvServ = new CsvService(new ScrapingProperties());
+
+    private Seller seller;
+
+    private Path outputDir;
+
+    @Setup
+    public void setup() throws Exception {
+        final var products = new HashSet<Product>();
+        for (int i = 0; i < PRODUCTS; i++) {
+            final var imageUrl = new HashSet<URI>();
+            for (int j = 0; j < 10; j++) {
+                imageUrl.add(URI.create("https://auctions.c.yimg.jp/images/i-img1200x900-" + i + "abc" + j + ".jpg"));
+            }
+            products.add(YAProduct.builder()
+                    .idAndCategory(new YAProduct.IdAndCategory("x" + i, "2084000000"))
+                    .title("【美品】ヴィンテージ 置時計, 動作確認済み " + i)
+                    .description("ご覧いただきありがとうございます。".repeat(40))
+                    .startingPrice(1000L)
+                    .buyoutPrice(5000L)
+                    .imageUri(imageUrl)
+                    .build());
+        }
+        this.seller = new Seller("seller", products);
+        this.outputDir = Files.createTempDirectory("csv-benchmark");
+    }
+
+    /**
+     * 出力したファイルを削除します。1回あたりが数ミリ秒の処理のため、Level.Invocationのオーバーヘッドは無視できます。
+     */
+    @TearDown(Level.Invocation)
+    public void deleteFiles() throws IOException {
+        try (var files = Files.list(this.outputDir)) {
+            for (final var file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        FileSystemUtils.deleteRecursively(this.outputDir);
+    }
+
+    /**
+     * 出品者の商品をCSVファイルに出力します。
+     */
+    @Benchmark
+    public void create() throws IOException {
+        this.csvServ.create(this.seller, this.outputDir.toString());
+    }
+
+    public static void main(final String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(CsvServiceBenchmark.class.getSimpleName()).build()).run();
+    }
+
+}
@@ -1,10 +1,22 @@
 package jp.co.tk.domain.service;
 
+import jp.co.tk.config.ScrapingProperties;
+import jp.co.tk.domain.model.YAProduct;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.test.context.junit.jupiter.SpringJUnitConfig;
 
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
 @SpringJUnitConfig(jp.co.tk.domain.service.YAServiceTest.Config.class)
 public class CsvServiceTest {
 
@@ -14,15 +26,68 @@ public class CsvServiceTest {
     @Autowired
     private YAService yaServ;
 
-    @ComponentScan("jp.co.tk.domain")
+    @ComponentScan({"jp.co.tk.domain", "jp.co.tk.config"})
     static class Config {
     }
 
+    @TempDir
+    Path tempDir;
+
     @Test
     public void CSVが生成出来るか() throws Exception {
         var seller = this.yaServ.findSellerBySellerName("tomomooo0716", 5, 0);
         csvServ.create(seller, "./out/tomomooo0716");
     }
 
+    @Test
+    public void 商品を追記するたびにファイルへ書き出されること() throws Exception {
+        try (var sink = this.csvServ.open("seller", this.tempDir.toString())) {
+            sink.append(product("1"));
+            sink.append(product("2"));
+
+            var files = listCsv();
+            assertThat(files).hasSize(1);
+            var lines = Files.readAllLines(files.get(0), Charset.forName("Shift-JIS"));
+            assertThat(lines).hasSize(3);
+            assertThat(lines.get(0)).isEqualTo(YAProduct.CSV_HEADER);
+        }
+    }
+
+    @Test
+    public void 行数の上限で次のファイルに切り替わること() throws Exception {
+        var properties = new ScrapingProperties();
+        properties.getCsv().setMaxRows(2);
+        try (var sink = new CsvService(properties).open("seller", this.tempDir.toString())) {
+            for (int i = 0; i < 5; i++) {
+                sink.append(product(String.valueOf(i)));
+            }
+        }
+
+        var files = listCsv();
+        assertThat(files).hasSize(3);
+        for (var file : files) {
+            var lines = Files.readAllLines(file, Charset.forName("Shift-JIS"));
+            assertThat(lines.get(0)).isEqualTo(YAProduct.CSV_HEADER);
+            assertThat(lines.size()).isLessThanOrEqualTo(3);
+        }
+    }
+
+    private List<Path> listCsv() throws Exception {
+        try (var files = Files.list(this.tempDir)) {
+            return files.sorted().collect(Collectors.toList());
+        }
+    }
+
+    private YAProduct product(String id) {
+        return YAProduct.builder()
+                .idAndCategory(new YAProduct.IdAndCategory(id, "category"))
+                .title("タイトル")
+                .description("説明")
+                .startingPrice(100L)
+                .buyoutPrice(200L)
+                .imageUri(new HashSet<>())
+                .build();
+    }
+
 
 }
@@ -0,0 +1,32 @@
+package jp.co.tk.domain.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class FairStageTest {
+
+    @Test
+    public void タスクがすべて完了したキーの待ち行列は削除されること() throws Exception {
+        try (final var stage = new FairStage("FairStageTest", 2, 4, Collections.emptyMap())) {
+            final var results = new ArrayList<CompletableFuture<Integer>>();
+            for (int i = 0; i < 100; i++) {
+                final var value = i;
+                results.add(stage.submit("seller-" + (i % 10), () -> value));
+            }
+            CompletableFuture.allOf(results.toArray(new CompletableFuture[0])).join();
+
+            assertThat(results).extracting(CompletableFuture::join).hasSize(100);
+            assertThat(stage.getLaneCount()).isZero();
+
+            // 削除した後も同じキーで投入できること
+            assertThat(stage.submit("seller-0", () -> 1).join()).isEqualTo(1);
+            assertThat(stage.getLaneCount()).isZero();
+        }
+    }
+
+}
@@ -0,0 +1,236 @@
+package jp.co.tk.domain.service;
+
+import com.sun.net.httpserver.HttpServer;
+import jp.co.tk.config.ScrapingProperties;
+import jp.co.tk.domain.repo.ExtractionRules;
+import jp.co.tk.domain.repo.HostRateLimiter;
+import jp.co.tk.domain.repo.HttpResponseCache;
+import jp.co.tk.domain.repo.ImageStore;
+import jp.co.tk.domain.repo.JdkHttpTransport;
+import jp.co.tk.domain.repo.ResilienceGuard;
+import jp.co.tk.domain.repo.WebFetcher;
+import jp.co.tk.domain.repo.YARepositoryImpl;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.FileSystemUtils;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ImageDownloadServiceTest {
+
+    @TempDir
+    Path tempDir;
+
+    private YARepositoryImpl repo;
+
+    private ImageDownloadService serv;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+
+    private final AtomicInteger downloads = new AtomicInteger();
+
+    private Path storeDir;
+
+    private ScrapingProperties properties;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        final var image = new BufferedImage(2, 2, BufferedImage.TYPE_INT_RGB);
+        final var bos = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", bos);
+        final var png = bos.toByteArray();
+
+        this.repo = mock(YARepositoryImpl.class);
+        when(this.repo.fetchProductImgDataTo(any(), any())).thenAnswer(invocation -> (long) download(invocation.getArgument(0), invocation.getArgument(1), png).length);
+        when(this.repo.fetchProductImgDigestTo(any(), any())).thenAnswer(invocation -> sha256(download(invocation.getArgument(0), invocation.getArgument(1), png)));
+
+        this.storeDir = Files.createTempDirectory("image-store");
+        this.properties = new ScrapingProperties();
+        this.properties.getImage().setDownload(new ScrapingProperties.Stage(2, 3));
+        this.properties.getImage().getStore().setDir(this.storeDir.toString());
+        this.serv = new ImageDownloadService(this.repo, new ImageStore(this.properties), this.properties);
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        this.serv.destroy();
+        FileSystemUtils.deleteRecursively(this.storeDir);
+    }
+
+    private byte[] download(final URL url, final Path target, final byte[] png) throws Exception {
+        this.downloads.incrementAndGet();
+        final var current = this.inFlight.incrementAndGet();
+        this.maxInFlight.accumulateAndGet(current, Math::max);
+        try {
+            Thread.sleep(20);
+        } finally {
+            this.inFlight.decrementAndGet();
+        }
+        if (url.toString().contains("broken")) {
+            throw new IOException("test");
+        }
+        final var body = url.toString().contains("html") ? "<html></html>".getBytes() : png;
+        Files.write(target, body);
+        return body;
+    }
+
+    private static String sha256(final byte[] body) throws Exception {
+        return String.format("%064x", new BigInteger(1, MessageDigest.getInstance("SHA-256").digest(body)));
+    }
+
+    @Test
+    public void 待ち行列を超える画像を投入しても拒否されずに全て出力されること() throws Exception {
+        for (int i = 0; i < 30; i++) {
+            this.serv.submit(new URL("http://localhost/img-" + i + ".png"), i + ".png", this.tempDir.toString());
+        }
+        this.serv.awaitIdle();
+
+        assertThat(this.serv.getSubmittedCount()).isEqualTo(30);
+        assertThat(this.serv.getCompletedCount()).isEqualTo(30);
+        assertThat(this.serv.getFailedCount()).isZero();
+        assertThat(this.maxInFlight.get()).isLessThanOrEqualTo(2);
+        try (final var files = Files.list(this.tempDir)) {
+            assertThat(files.count()).isEqualTo(30);
+        }
+    }
+
+    @Test
+    public void 失敗した画像は画像毎の結果と件数に反映されること() throws Exception {
+        final var ok = this.serv.submit(new URL("http://localhost/ok.png"), "ok.png", this.tempDir.toString());
+        final var ng = this.serv.submit(new URL("http://localhost/broken.png"), "broken.png", this.tempDir.toString());
+        this.serv.awaitIdle();
+
+        assertThat(ok).isCompleted();
+        assertThat(ng).isCompletedExceptionally();
+        assertThat(this.serv.getCompletedCount()).isEqualTo(1);
+        assertThat(this.serv.getFailedCount()).isEqualTo(1);
+        assertThat(this.serv.getPending()).isZero();
+    }
+
+    @Test
+    public void 取得済みの画像はダウンロードせずに同じファイルを共有すること() throws Exception {
+        final var page1 = Files.createDirectories(this.tempDir.resolve("page1"));
+        final var page2 = Files.createDirectories(this.tempDir.resolve("page2"));
+        final var url = new URL("http://localhost/shared.png");
+        this.serv.submit(url, "a.png", page1.toString()).join();
+        this.serv.submit(url, "b.png", page2.toString()).join();
+        // URLは異なるが内容が同じ画像
+        this.serv.submit(new URL("http://localhost/other.png"), "c.png", page2.toString()).join();
+
+        assertThat(this.downloads.get()).isEqualTo(2);
+        assertThat(Files.isSameFile(page1.resolve("a.png"), page2.resolve("b.png"))).isTrue();
+        assertThat(Files.isSameFile(page1.resolve("a.png"), page2.resolve("c.png"))).isTrue();
+        try (final var blobs = Files.list(this.storeDir.resolve("blobs"))) {
+            assertThat(blobs.count()).isEqualTo(1);
+        }
+
+        // 再起動後もURLと内容の対応が使用される
+        final var store = new ImageStore(this.properties);
+        assertThat(store.find(url)).isNotNull();
+        store.destroy();
+    }
+
+    @Test
+    public void 画像ではないデータは削除され失敗として扱われること() throws Exception {
+        final var result = this.serv.submit(new URL("http://localhost/error.html"), "error.jpg", this.tempDir.toString());
+        this.serv.awaitIdle();
+
+        assertThat(result).isCompletedExceptionally();
+        assertThat(this.tempDir.resolve("error.jpg")).doesNotExist();
+    }
+
+    @Test
+    public void レスポンスボディがデコードされずにそのまま書き込まれること() throws Exception {
+        final var body = new byte[256 * 1024];
+        new Random(1).nextBytes(body);
+        body[0] = (byte) 0xFF;
+        body[1] = (byte) 0xD8;
+        body[2] = (byte) 0xFF;
+        final var server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", exchange -> {
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        server.start();
+        try {
+            final var properties = new ScrapingProperties();
+            properties.getRateLimit().setPermitsPerSecond(0);
+            properties.getCache().setEnabled(false);
+            final var repo = new YARepositoryImpl(new WebFetcher(new HostRateLimiter(properties), new HttpResponseCache(properties), new JdkHttpTransport(properties.getHttp())), new ExtractionRules(properties), new ResilienceGuard(properties), properties);
+            properties.getImage().getStore().setDir(this.storeDir.toString());
+            final var serv = new ImageDownloadService(repo, new ImageStore(properties), properties);
+            try {
+                final var url = new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/i-img600x600-1.jpg");
+                serv.submit(url, "1.jpg", this.tempDir.toString()).join();
+            } finally {
+                serv.destroy();
+            }
+        } finally {
+            server.stop(0);
+        }
+
+        assertThat(Files.readAllBytes(this.tempDir.resolve("1.jpg"))).isEqualTo(body);
+        assertThat(this.tempDir.resolve("1.jpg.part")).doesNotExist();
+    }
+
+    @Test
+    public void ストアが有効な場合は画像をレスポンスのキャッシュに保存しないこと() throws Exception {
+        final var body = new byte[64 * 1024];
+        new Random(2).nextBytes(body);
+        body[0] = (byte) 0xFF;
+        body[1] = (byte) 0xD8;
+        body[2] = (byte) 0xFF;
+        final var server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", exchange -> {
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        server.start();
+        final var cacheDir = this.tempDir.resolve("cache");
+        try {
+            final var properties = new ScrapingProperties();
+            properties.getRateLimit().setPermitsPerSecond(0);
+            properties.getCache().setDir(cacheDir.toString());
+            final var cache = new HttpResponseCache(properties);
+            final var repo = new YARepositoryImpl(new WebFetcher(new HostRateLimiter(properties), cache, new JdkHttpTransport(properties.getHttp())), new ExtractionRules(properties), new ResilienceGuard(properties), properties);
+            properties.getImage().getStore().setDir(this.storeDir.toString());
+            final var serv = new ImageDownloadService(repo, new ImageStore(properties), properties);
+            try {
+                final var url = new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/i-img600x600-2.jpg");
+                serv.submit(url, "2.jpg", this.tempDir.toString()).join();
+            } finally {
+                serv.destroy();
+                cache.destroy();
+            }
+        } finally {
+            server.stop(0);
+        }
+
+        assertThat(Files.readAllBytes(this.tempDir.resolve("2.jpg"))).isEqualTo(body);
+        assertThat(this.storeDir.resolve("blobs").resolve(sha256(body))).exists();
+        assertThat(cacheDir.resolve("blobs")).doesNotExist();
+    }
+
+}
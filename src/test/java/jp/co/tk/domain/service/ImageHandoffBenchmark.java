@@ -0,0 +1,99 @@
+package jp.co.tk.domain.service;
+
+import jp.co.tk.domain.model.ImageJob;
+import jp.co.tk.domain.model.Product;
+import jp.co.tk.domain.model.Seller;
+import jp.co.tk.domain.model.YAProduct;
+import org.modelmapper.ModelMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 1ページ分の商品を、CSVファイルの段から画像の段へ渡す処理を計測します。
+ * 変更前のModelMapperによるSellerの複製と、ImageJobによる受け渡しを比較します。
+ * SellerはModelMapperが生成できないため、変更前も複製されずに元のインスタンスが返却されていました。
+ * <p>
+ * mvn -Pbenchmark test -Djmh.args="ImageHandoffBenchmark -prof gc"
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ImageHandoffBenchmark {
+
+    /**
+     * 1ページあたりの商品数です。
+     */
+    private static final int PRODUCTS = 50;
+
+    private ModelMapper modelMapper;
+
+    private Seller seller;
+
+    private List<YAProduct> products;
+
+    @Setup
+    public void setup() throws Exception {
+        this.modelMapper = new ModelMapper();
+        this.products = new ArrayList<>(PRODUCTS);
+        for (int i = 0; i < PRODUCTS; i++) {
+            final var imageUrl = new ArrayList<URI>();
+            for (int j = 0; j < 10; j++) {
+                imageUrl.add(URI.create("https://auctions.c.yimg.jp/images.auctions.yahoo.co.jp/image/dr000/auc0304/users/db78dcdb3b6b11c522fb507729f2f1b712ce01df/i-img1200x900-1650083418" + i + "-" + j + ".jpg"));
+            }
+            this.products.add(YAProduct.builder()
+                    .idAndCategory(new YAProduct.IdAndCategory("x12345678" + i, "2084000000"))
+                    .title("【美品】ヴィンテージ 置時計, 動作確認済み")
+                    .description("ご覧いただきありがとうございます。".repeat(100))
+                    .startingPrice(1000L)
+                    .buyoutPrice(5000L)
+                    .imageUri(imageUrl)
+                    .build());
+        }
+        this.seller = new Seller("seller", new HashSet<Product>(this.products));
+    }
+
+    /**
+     * 変更前と同じく、ModelMapperでSellerを複製します。型の対応を反射で解決した後、元のインスタンスが返却されます。
+     */
+    @Benchmark
+    public Seller modelMapperCopy() {
+        return this.modelMapper.map(this.seller, Seller.class);
+    }
+
+    /**
+     * 商品から画像のURLと画像名だけを共有するImageJobを生成します。
+     */
+    @Benchmark
+    public List<ImageJob> imageJobs() {
+        final var jobs = new ArrayList<ImageJob>(this.products.size());
+        for (final var product : this.products) {
+            jobs.add(product.toImageJob());
+        }
+        return jobs;
+    }
+
+    public static void main(final String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(ImageHandoffBenchmark.class.getSimpleName()).build()).run();
+    }
+
+}
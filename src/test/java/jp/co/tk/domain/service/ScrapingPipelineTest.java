@@ -0,0 +1,276 @@
+package jp.co.tk.domain.service;
+
+import jp.co.tk.config.ScrapingProperties;
+import jp.co.tk.domain.model.ImageJob;
+import jp.co.tk.domain.model.Product;
+import jp.co.tk.domain.model.YAProduct;
+import jp.co.tk.domain.repo.CheckpointStore;
+import jp.co.tk.domain.repo.DeadLetterStore;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ScrapingPipelineTest {
+
+    private YAService yaServ;
+
+    private CsvService csvServ;
+
+    private CsvSink csvSink;
+
+    private ScrapingProperties properties;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        this.yaServ = mock(YAService.class);
+        this.csvServ = mock(CsvService.class);
+        this.csvSink = mock(CsvSink.class);
+        when(this.csvServ.open(anyString(), anyString())).thenReturn(this.csvSink);
+        this.properties = new ScrapingProperties();
+        this.properties.getPipeline().setDetail(new ScrapingProperties.Stage(4, 8));
+
+        when(this.yaServ.count(anyString())).thenReturn(16);
+        when(this.yaServ.findIdAndCategoryList(anyString(), anyInt(), anyInt())).thenAnswer(invocation -> {
+            final var ids = new HashSet<YAProduct.IdAndCategory>();
+            for (int i = 0; i < 8; i++) {
+                ids.add(new YAProduct.IdAndCategory(invocation.getArgument(0) + "-" + invocation.getArgument(2) + "-" + i, "category"));
+            }
+            return ids;
+        });
+        when(this.yaServ.findProduct(any())).thenAnswer(invocation -> {
+            final var current = this.inFlight.incrementAndGet();
+            this.maxInFlight.accumulateAndGet(current, Math::max);
+            try {
+                Thread.sleep(100);
+            } finally {
+                this.inFlight.decrementAndGet();
+            }
+            return YAProduct.builder()
+                    .idAndCategory(invocation.getArgument(0))
+                    .imageUri(new HashSet<>())
+                    .build();
+        });
+        when(this.yaServ.generateImg(anyString(), any(), anyString())).thenReturn(CompletableFuture.completedFuture(null));
+    }
+
+    @Test
+    public void 同時実行数の上限を超えずに並行して商品詳細を取得すること() throws Exception {
+        final var pipeline = new ScrapingPipeline(this.yaServ, this.csvServ, mock(ImageDownloadService.class), mock(CheckpointStore.class), mock(DeadLetterStore.class), this.properties);
+
+        final var started = System.nanoTime();
+        pipeline.run(List.of("pipeline-test-a", "pipeline-test-b"), 8);
+        final var seconds = (System.nanoTime() - started) / 1e9;
+
+        // 32商品 x 100ms を4並行で処理するため、逐次(3.2秒)よりも十分に短いこと
+        assertThat(seconds).isLessThan(1.6);
+        assertThat(this.maxInFlight.get()).isEqualTo(4);
+        verify(this.yaServ, times(32)).findProduct(any());
+        verify(this.csvServ, times(2)).open(anyString(), anyString());
+        verify(this.csvSink, times(32)).append(any());
+        verify(this.csvSink, times(2)).close();
+        verify(this.yaServ, times(4)).generateImg(anyString(), any(), anyString());
+    }
+
+    @Test
+    public void 仮想スレッドのモードでも同時実行数の上限を超えないこと() throws Exception {
+        this.properties.getPipeline().setVirtualThreads(true);
+        final var pipeline = new ScrapingPipeline(this.yaServ, this.csvServ, mock(ImageDownloadService.class), mock(CheckpointStore.class), mock(DeadLetterStore.class), this.properties);
+
+        pipeline.run(List.of("pipeline-test-d"), 8);
+
+        assertThat(this.maxInFlight.get()).isEqualTo(4);
+        verify(this.yaServ, times(16)).findProduct(any());
+    }
+
+    @Test
+    public void 商品の多い出品者の処理中でも商品の少ない出品者が先に完了すること() throws Exception {
+        when(this.yaServ.count("pipeline-test-large")).thenReturn(80);
+        this.properties.getPipeline().setDetail(new ScrapingProperties.Stage(2, 8));
+        final var pipeline = new ScrapingPipeline(this.yaServ, this.csvServ, mock(ImageDownloadService.class), mock(CheckpointStore.class), mock(DeadLetterStore.class), this.properties);
+
+        pipeline.run(List.of("pipeline-test-large", "pipeline-test-small"), 8);
+
+        final var large = pipeline.getProgress().get("pipeline-test-large");
+        final var small = pipeline.getProgress().get("pipeline-test-small");
+        assertThat(large.getPagesDone()).isEqualTo(10);
+        assertThat(large.getProductsDone()).isEqualTo(80);
+        assertThat(small.getPagesDone()).isEqualTo(2);
+        assertThat(small.getProductsDone()).isEqualTo(16);
+        // 80商品 x 100ms を2並行で処理する間に、後から投入した出品者の16商品が順番に処理されること
+        assertThat(small.getElapsedMillis()).isLessThan(large.getElapsedMillis() / 2);
+    }
+
+    @Test
+    public void 同時に処理する出品者の数の上限を超えないこと() throws Exception {
+        this.properties.getPipeline().setMaxActiveSellers(1);
+        final var pipeline = new ScrapingPipeline(this.yaServ, this.csvServ, mock(ImageDownloadService.class), mock(CheckpointStore.class), mock(DeadLetterStore.class), this.properties);
+
+        pipeline.run(List.of("pipeline-test-g", "pipeline-test-h"), 8);
+
+        final var first = pipeline.getProgress().get("pipeline-test-g");
+        final var second = pipeline.getProgress().get("pipeline-test-h");
+        assertThat(first.isFinished()).isTrue();
+        assertThat(second.getStartedNanos()).isGreaterThanOrEqualTo(first.getFinishedNanos());
+    }
+
+    @Test
+    public void 商品詳細の取得中に次の一覧ページを先に取得すること() throws Exception {
+        this.properties.getPipeline().setListing(new ScrapingProperties.Stage(1, 0));
+        this.properties.getPipeline().setDetail(new ScrapingProperties.Stage(1, 0));
+        final var nextListing = new CountDownLatch(1);
+        when(this.yaServ.findIdAndCategoryList(anyString(), anyInt(), anyInt())).thenAnswer(invocation -> {
+            if ((int) invocation.getArgument(2) == 8) {
+                nextListing.countDown();
+            }
+            final var ids = new HashSet<YAProduct.IdAndCategory>();
+            for (int i = 0; i < 8; i++) {
+                ids.add(new YAProduct.IdAndCategory(invocation.getArgument(0) + "-" + invocation.getArgument(2) + "-" + i, "category"));
+            }
+            return ids;
+        });
+        final var prefetched = new AtomicBoolean(true);
+        when(this.yaServ.findProduct(any())).thenAnswer(invocation -> {
+            final YAProduct.IdAndCategory idAndCategory = invocation.getArgument(0);
+            if (idAndCategory.getId().contains("-0-") && !nextListing.await(5, TimeUnit.SECONDS)) {
+                prefetched.set(false);
+            }
+            return YAProduct.builder()
+                    .idAndCategory(idAndCategory)
+                    .imageUri(new HashSet<>())
+                    .build();
+        });
+        final var pipeline = new ScrapingPipeline(this.yaServ, this.csvServ, mock(ImageDownloadService.class), mock(CheckpointStore.class), mock(DeadLetterStore.class), this.properties);
+
+        pipeline.run(List.of("pipeline-test-i"), 8);
+
+        assertThat(prefetched.get()).isTrue();
+        verify(this.yaServ, times(16)).findProduct(any());
+    }
+
+    @Test
+    public void 処理済みのページと商品は取得しないこと() throws Exception {
+        final var checkpoint = mock(CheckpointStore.class);
+        when(checkpoint.isPageDone("pipeline-test-e", 0)).thenReturn(true);
+        when(checkpoint.isProductDone("pipeline-test-e", "pipeline-test-e-8-0")).thenReturn(true);
+        final var pipeline = new ScrapingPipeline(this.yaServ, this.csvServ, mock(ImageDownloadService.class), checkpoint, mock(DeadLetterStore.class), this.properties);
+
+        pipeline.run(List.of("pipeline-test-e"), 8);
+
+        verify(this.yaServ, times(1)).findIdAndCategoryList(anyString(), anyInt(), anyInt());
+        verify(this.yaServ, times(7)).findProduct(any());
+        verify(checkpoint).markPageDone("pipeline-test-e", 1);
+        verify(checkpoint).complete();
+    }
+
+    @Test
+    public void 書き込み済みの商品はCSVファイルに追記せず画像のみ出力すること() throws Exception {
+        final var checkpoint = mock(CheckpointStore.class);
+        when(checkpoint.isRowWritten("pipeline-test-j", "pipeline-test-j-0-0")).thenReturn(true);
+        final var pipeline = new ScrapingPipeline(this.yaServ, this.csvServ, mock(ImageDownloadService.class), checkpoint, mock(DeadLetterStore.class), this.properties);
+
+        pipeline.run(List.of("pipeline-test-j"), 8);
+
+        verify(this.yaServ, times(16)).findProduct(any());
+        verify(this.csvSink, times(15)).append(any());
+        verify(checkpoint, times(0)).markRowWritten("pipeline-test-j", "pipeline-test-j-0-0");
+        verify(checkpoint).markRowWritten("pipeline-test-j", "pipeline-test-j-0-1");
+        verify(this.yaServ, times(2)).generateImg(anyString(), any(), anyString());
+    }
+
+    @Test
+    public void 商品詳細の取得に失敗しても他の商品は出力されること() throws Exception {
+        when(this.yaServ.findProduct(new YAProduct.IdAndCategory("pipeline-test-c-0-0", "category"))).thenThrow(new IOException("test"));
+        final var pipeline = new ScrapingPipeline(this.yaServ, this.csvServ, mock(ImageDownloadService.class), mock(CheckpointStore.class), mock(DeadLetterStore.class), this.properties);
+
+        pipeline.run(List.of("pipeline-test-c"), 8);
+
+        verify(this.csvSink, times(15)).append(any());
+        verify(this.yaServ, times(2)).generateImg(anyString(), any(), anyString());
+    }
+
+    @Test
+    public void 商品詳細の取得で非検査例外が発生しても他の商品は出力され失敗として記録されること() throws Exception {
+        final var failedId = new YAProduct.IdAndCategory("pipeline-test-k-0-0", "category");
+        when(this.yaServ.findProduct(failedId)).thenThrow(new StringIndexOutOfBoundsException("test"));
+        final var deadLetter = mock(DeadLetterStore.class);
+        final var pipeline = new ScrapingPipeline(this.yaServ, this.csvServ, mock(ImageDownloadService.class), mock(CheckpointStore.class), deadLetter, this.properties);
+
+        pipeline.run(List.of("pipeline-test-k"), 8);
+
+        @SuppressWarnings("unchecked") final ArgumentCaptor<Collection<ImageJob>> jobs = ArgumentCaptor.forClass(Collection.class);
+        verify(this.yaServ, times(2)).generateImg(anyString(), jobs.capture(), anyString());
+        assertThat(jobs.getAllValues().stream().mapToInt(Collection::size).sum()).isEqualTo(15);
+        verify(this.csvSink, times(15)).append(any());
+        verify(deadLetter).recordProduct("pipeline-test-k", 0, failedId);
+        final var progress = pipeline.getProgress().get("pipeline-test-k");
+        assertThat(progress.getProductsDone()).isEqualTo(15);
+        assertThat(progress.getProductsFailed()).isEqualTo(1);
+        assertThat(progress.getPagesDone()).isEqualTo(2);
+    }
+
+    @Test
+    public void 失敗したページは完了として記録されないこと() throws Exception {
+        when(this.yaServ.findProduct(any())).thenThrow(new IOException("test"));
+        final var checkpoint = mock(CheckpointStore.class);
+        final var pipeline = new ScrapingPipeline(this.yaServ, this.csvServ, mock(ImageDownloadService.class), checkpoint, mock(DeadLetterStore.class), this.properties);
+
+        pipeline.run(List.of("pipeline-test-f"), 8);
+
+        verify(checkpoint, times(0)).markPageDone(anyString(), anyInt());
+        verify(checkpoint, times(0)).complete();
+    }
+
+    @Test
+    public void 失敗した商品と出品者は記録され次の実行で再び取得されること() throws Exception {
+        final var failedId = new YAProduct.IdAndCategory("pipeline-test-g-0-0", "category");
+        when(this.yaServ.findProduct(failedId)).thenThrow(new IOException("test")).thenReturn(YAProduct.builder()
+                .idAndCategory(failedId)
+                .imageUri(new HashSet<>())
+                .build());
+        when(this.yaServ.count("pipeline-test-h")).thenThrow(new IOException("test")).thenReturn(8);
+        final var file = Paths.get("./out/pipeline-test-dead-letter.tsv");
+        this.properties.getDeadLetter().setFile(file.toString());
+        final var deadLetter = new DeadLetterStore(this.properties);
+        final var pipeline = new ScrapingPipeline(this.yaServ, this.csvServ, mock(ImageDownloadService.class), mock(CheckpointStore.class), deadLetter, this.properties);
+
+        pipeline.run(List.of("pipeline-test-g", "pipeline-test-h"), 8);
+
+        assertThat(Files.readAllLines(file)).containsExactlyInAnyOrder(
+                "SELLER\tpipeline-test-h\t-1\t\t\t\t\t",
+                "PRODUCT\tpipeline-test-g\t0\tpipeline-test-g-0-0\tcategory\t\t\t");
+
+        // 出品者の一覧に含まれていなくても、失敗した商品と出品者を取得すること
+        pipeline.run(List.of(), 8);
+
+        verify(this.yaServ, times(2)).findProduct(failedId);
+        verify(this.yaServ, times(2)).count("pipeline-test-h");
+        verify(this.yaServ, times(1)).findIdAndCategoryList("pipeline-test-h", 8, 0);
+        assertThat(file).doesNotExist();
+    }
+
+}
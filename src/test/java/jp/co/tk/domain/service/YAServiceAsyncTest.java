@@ -0,0 +1,71 @@
+package jp.co.tk.domain.service;
+
+import jp.co.tk.config.ScrapingProperties;
+import jp.co.tk.domain.repo.CheckpointStore;
+import jp.co.tk.domain.repo.DeadLetterStore;
+import jp.co.tk.domain.repo.ExtractionRules;
+import jp.co.tk.domain.repo.HostRateLimiter;
+import jp.co.tk.domain.repo.HttpResponseCache;
+import jp.co.tk.domain.repo.JdkHttpTransport;
+import jp.co.tk.domain.repo.ResilienceGuard;
+import jp.co.tk.domain.repo.WebFetcher;
+import jp.co.tk.domain.repo.YARepositoryImpl;
+import jp.co.tk.loadtest.MockAuctionServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+public class YAServiceAsyncTest {
+
+    private MockAuctionServer server;
+
+    private JdkHttpTransport transport;
+
+    private ScrapingProperties properties;
+
+    private YAService serv;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        this.server = new MockAuctionServer();
+        this.server.setProductsPerSeller(20);
+        this.server.setImagesPerProduct(1);
+        this.server.setDescriptionLength(100);
+        this.server.setLatencyMillis(30);
+        this.server.start(0);
+
+        this.properties = new ScrapingProperties();
+        this.properties.getRateLimit().setPermitsPerSecond(0);
+        this.properties.getCache().setEnabled(false);
+        this.properties.getEndpoint().setSellerUrl(this.server.getSellerUrl());
+        this.properties.getEndpoint().setProductUrl(this.server.getProductUrl());
+        this.properties.getPipeline().setDetail(new ScrapingProperties.Stage(3, 0));
+        this.transport = new JdkHttpTransport(this.properties.getHttp());
+        final var repo = new YARepositoryImpl(new WebFetcher(new HostRateLimiter(this.properties), new HttpResponseCache(this.properties), this.transport),
+                new ExtractionRules(this.properties), new ResilienceGuard(this.properties), this.properties);
+        this.serv = new YAService(repo, mock(ImageDownloadService.class), mock(CheckpointStore.class), mock(DeadLetterStore.class), this.properties);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        this.transport.destroy();
+        this.server.close();
+    }
+
+    @Test
+    public void 商品詳細の同時実行数を超えずに出品者の全ての商品を取得すること() throws Exception {
+        final var total = this.serv.countAsync("async-seller").get(10, TimeUnit.SECONDS);
+        final var seller = this.serv.findSellerBySellerNameAsync("async-seller", total, 0).get(30, TimeUnit.SECONDS);
+
+        assertThat(total).isEqualTo(20);
+        assertThat(seller.getProduct()).hasSize(20);
+        assertThat(this.server.getProductPages().get()).isEqualTo(20);
+        assertThat(this.server.getMaxInFlight().get()).isLessThanOrEqualTo(3);
+    }
+
+}
@@ -16,7 +16,7 @@ public class YAServiceTest {
     @Autowired
     private YAService serv;
 
-    @ComponentScan("jp.co.tk.domain")
+    @ComponentScan({"jp.co.tk.domain", "jp.co.tk.config"})
     static class Config {
     }
 
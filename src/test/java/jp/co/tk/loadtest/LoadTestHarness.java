@@ -0,0 +1,372 @@
+package jp.co.tk.loadtest;
+
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jp.co.tk.App;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.SpringApplication;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link MockAuctionServer}に対してアプリケーションを実行し、スループット、レイテンシー、ヒープの使用量を計測します。
+ * <p>
+ * リクエスト先のプロファイルをサーバーに向け、出品者の一覧、出力先以外の作業ディレクトリを一時ディレクトリに置き換え、
+ * 間隔制御を無効にしてアプリケーションを起動します。CSVと画像は「./out/loadtest-seller-N」に出力し、終了時に削除します。
+ * <p>
+ * 引数は「キー=値」の形式で、以下を指定できます。「--」で始まる引数はそのままアプリケーションに渡します。
+ * <ul>
+ *     <li>sellers: 出品者数</li>
+ *     <li>products: 出品者1人あたりの商品数</li>
+ *     <li>images: 商品1件あたりの画像数</li>
+ *     <li>page-size: 1ページあたりの商品数</li>
+ *     <li>latency: レスポンスまでの遅延(ミリ秒)</li>
+ *     <li>error-rate: 500を返却する確率</li>
+ *     <li>throttle-rate: 429を返却する確率</li>
+ * </ul>
+ * mvn -Ploadtest test -Dloadtest.args="sellers=8 products=500 latency=50 throttle-rate=0.01"
+ */
+@Slf4j
+@Getter
+@Setter
+public class LoadTestHarness {
+
+    /**
+     * 出品者名の接頭辞です。
+     */
+    static final String SELLER_PREFIX = "loadtest-seller-";
+
+    /**
+     * リクエスト先のプロファイルの名前です。
+     */
+    private static final String PROFILE = "loadtest";
+
+    /**
+     * 出品者の一覧のファイルの文字コードです。
+     */
+    private static final String SELLER_FILE_CHARSET = "Shift-JIS";
+
+    /**
+     * 出力先のディレクトリです。
+     */
+    private static final String OUTPUT_DIR = "./out";
+
+    /**
+     * レイテンシーを計測するメトリクス名です。
+     */
+    private static final String HTTP_REQUESTS = "scraper.http.requests";
+
+    /**
+     * ヒープの使用量を計測する間隔(ミリ秒)です。
+     */
+    private static final long HEAP_SAMPLE_INTERVAL_MILLIS = 20;
+
+    /**
+     * 出品者数です。
+     */
+    private int sellers = 4;
+
+    /**
+     * 1ページあたりの商品数です。
+     */
+    private int pageSize = 50;
+
+    /**
+     * アプリケーションに渡す追加の引数です。
+     */
+    private final List<String> extraArgs = new ArrayList<>();
+
+    /**
+     * サーバーに対してアプリケーションを実行し、計測結果を返却します。
+     *
+     * @param server リクエスト先のサーバー
+     * @return 計測結果
+     * @throws IOException
+     */
+    public Report run(final MockAuctionServer server) throws IOException {
+        final var workDir = Files.createTempDirectory("loadtest");
+        final var registry = new SimpleMeterRegistry();
+        Metrics.globalRegistry.add(registry);
+        final var heap = new HeapSampler();
+        try {
+            final var sellerFile = workDir.resolve("seller.csv");
+            final var names = new ArrayList<String>(this.sellers);
+            for (int i = 0; i < this.sellers; i++) {
+                names.add(SELLER_PREFIX + i);
+            }
+            Files.writeString(sellerFile, String.join(",", names), Charset.forName(SELLER_FILE_CHARSET));
+
+            final var args = new ArrayList<String>();
+            args.add(String.valueOf(this.pageSize));
+            args.add("--scraping.endpoint.active=" + PROFILE);
+            args.add("--scraping.endpoint.profiles[" + PROFILE + "].seller-url=" + server.getSellerUrl());
+            args.add("--scraping.endpoint.profiles[" + PROFILE + "].product-url=" + server.getProductUrl());
+            args.add("--scraping.endpoint.profiles[" + PROFILE + "].read-timeout-millis=10000");
+            args.add("--scraping.csv.seller-file=" + sellerFile);
+            args.add("--scraping.checkpoint.dir=" + workDir.resolve("checkpoint"));
+            args.add("--scraping.cache.dir=" + workDir.resolve("cache"));
+            args.add("--scraping.image.store.dir=" + workDir.resolve("images"));
+            args.add("--scraping.dead-letter.file=" + workDir.resolve("dead-letter.tsv"));
+            args.add("--scraping.metrics.file=");
+            args.add("--scraping.rate-limit.permits-per-second=0");
+            args.add("--scraping.rate-limit.jitter-millis=0");
+            args.add("--scraping.retry.initial-backoff-millis=10");
+            args.add("--scraping.retry.max-backoff-millis=200");
+            args.addAll(this.extraArgs);
+
+            heap.start();
+            final var startNanos = System.nanoTime();
+            SpringApplication.run(App.class, args.toArray(new String[0])).close();
+            final var elapsedNanos = System.nanoTime() - startNanos;
+            heap.stop();
+
+            return new Report(
+                    count(registry, "scraper.products"),
+                    count(registry, "scraper.images"),
+                    server.getRequests().get(),
+                    server.getInjectedErrors().get(),
+                    TimeUnit.NANOSECONDS.toMillis(elapsedNanos),
+                    p99Millis(registry),
+                    heap.getPeakBytes());
+        } finally {
+            heap.stop();
+            Metrics.globalRegistry.remove(registry);
+            registry.close();
+            FileSystemUtils.deleteRecursively(workDir);
+            for (int i = 0; i < this.sellers; i++) {
+                FileSystemUtils.deleteRecursively(Paths.get(OUTPUT_DIR, SELLER_PREFIX + i));
+            }
+        }
+    }
+
+    /**
+     * 成功した件数を取得します。
+     *
+     * @param registry レジストリ
+     * @param name     メトリクス名
+     * @return 件数
+     */
+    private static long count(final SimpleMeterRegistry registry, final String name) {
+        final var counter = registry.find(name).tag("outcome", "SUCCESS").counter();
+        return counter == null ? 0 : (long) counter.count();
+    }
+
+    /**
+     * 全てのホスト、ステータスのリクエストのヒストグラムを合算し、99パーセンタイルを求めます。
+     * ヒストグラムのバケットの上限を返却するため、実際の値以上になります。
+     *
+     * @param registry レジストリ
+     * @return 99パーセンタイル(ミリ秒)。リクエストがない場合は0
+     */
+    static double p99Millis(final SimpleMeterRegistry registry) {
+        final var buckets = new TreeMap<Double, Double>();
+        var total = 0L;
+        var max = 0.0;
+        for (final var timer : registry.find(HTTP_REQUESTS).timers()) {
+            final var snapshot = timer.takeSnapshot();
+            total += snapshot.count();
+            max = Math.max(max, snapshot.max(TimeUnit.MILLISECONDS));
+            for (final var bucket : snapshot.histogramCounts()) {
+                buckets.merge(bucket.bucket(TimeUnit.MILLISECONDS), bucket.count(), Double::sum);
+            }
+        }
+        if (total == 0) {
+            return 0;
+        }
+        final var threshold = total * 0.99;
+        for (final var bucket : buckets.entrySet()) {
+            if (bucket.getValue() >= threshold) {
+                return Math.min(bucket.getKey(), max);
+            }
+        }
+        return max;
+    }
+
+    /**
+     * 引数を解析し、サーバーとアプリケーションを実行して計測結果を出力します。
+     *
+     * @param args 引数
+     * @throws Exception
+     */
+    public static void main(final String[] args) throws Exception {
+        final var harness = new LoadTestHarness();
+        try (final var server = new MockAuctionServer()) {
+            for (final var arg : args) {
+                if (arg.startsWith("--")) {
+                    harness.getExtraArgs().add(arg);
+                    continue;
+                }
+                final var index = arg.indexOf('=');
+                if (index <= 0) {
+                    throw new IllegalArgumentException("expected key=value. arg=".concat(arg));
+                }
+                final var value = arg.substring(index + 1);
+                switch (arg.substring(0, index)) {
+                    case "sellers":
+                        harness.setSellers(Integer.parseInt(value));
+                        break;
+                    case "products":
+                        server.setProductsPerSeller(Integer.parseInt(value));
+                        break;
+                    case "images":
+                        server.setImagesPerProduct(Integer.parseInt(value));
+                        break;
+                    case "page-size":
+                        harness.setPageSize(Integer.parseInt(value));
+                        break;
+                    case "latency":
+                        server.setLatencyMillis(Long.parseLong(value));
+                        break;
+                    case "error-rate":
+                        server.setErrorRate(Double.parseDouble(value));
+                        break;
+                    case "throttle-rate":
+                        server.setThrottleRate(Double.parseDouble(value));
+                        break;
+                    default:
+                        throw new IllegalArgumentException("unknown key. arg=".concat(arg));
+                }
+            }
+            server.start(0);
+            final var report = harness.run(server);
+            System.out.println(report);
+        }
+    }
+
+    /**
+     * 計測結果です。
+     */
+    @Getter
+    public static final class Report {
+
+        /**
+         * 取得に成功した商品数です。
+         */
+        private final long products;
+
+        /**
+         * 出力に成功した画像数です。
+         */
+        private final long images;
+
+        /**
+         * サーバーが受信したリクエスト数です。
+         */
+        private final long requests;
+
+        /**
+         * サーバーが返却したエラー数です。
+         */
+        private final long injectedErrors;
+
+        /**
+         * 起動から終了までの時間(ミリ秒)です。
+         */
+        private final long elapsedMillis;
+
+        /**
+         * HTTPリクエストの99パーセンタイル(ミリ秒)です。
+         */
+        private final double p99Millis;
+
+        /**
+         * ヒープの使用量の最大値(バイト)です。
+         */
+        private final long peakHeapBytes;
+
+        private Report(final long products, final long images, final long requests, final long injectedErrors,
+                       final long elapsedMillis, final double p99Millis, final long peakHeapBytes) {
+            this.products = products;
+            this.images = images;
+            this.requests = requests;
+            this.injectedErrors = injectedErrors;
+            this.elapsedMillis = elapsedMillis;
+            this.p99Millis = p99Millis;
+            this.peakHeapBytes = peakHeapBytes;
+        }
+
+        /**
+         * @return 1秒あたりの商品数
+         */
+        public double getProductsPerSecond() {
+            return this.elapsedMillis == 0 ? 0 : this.products * 1000.0 / this.elapsedMillis;
+        }
+
+        /**
+         * @return 1秒あたりの画像数
+         */
+        public double getImagesPerSecond() {
+            return this.elapsedMillis == 0 ? 0 : this.images * 1000.0 / this.elapsedMillis;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("products=%d (%.1f/s) images=%d (%.1f/s) requests=%d injectedErrors=%d elapsed=%dms httpP99=%.1fms peakHeap=%.1fMB",
+                    this.products, getProductsPerSecond(), this.images, getImagesPerSecond(), this.requests, this.injectedErrors,
+                    this.elapsedMillis, this.p99Millis, this.peakHeapBytes / 1024.0 / 1024.0);
+        }
+
+    }
+
+    /**
+     * ヒープの使用量を一定の間隔で計測し、最大値を記録します。
+     */
+    private static final class HeapSampler implements Runnable {
+
+        private final AtomicLong peakBytes = new AtomicLong();
+
+        private volatile boolean running;
+
+        private Thread thread;
+
+        private void start() {
+            this.running = true;
+            this.thread = new Thread(this, "HeapSampler");
+            this.thread.setDaemon(true);
+            this.thread.start();
+        }
+
+        private void stop() {
+            this.running = false;
+            if (this.thread != null) {
+                this.thread.interrupt();
+            }
+            sample();
+        }
+
+        private long getPeakBytes() {
+            return this.peakBytes.get();
+        }
+
+        @Override
+        public void run() {
+            while (this.running) {
+                sample();
+                try {
+                    TimeUnit.MILLISECONDS.sleep(HEAP_SAMPLE_INTERVAL_MILLIS);
+                } catch (final InterruptedException e) {
+                    return;
+                }
+            }
+        }
+
+        private void sample() {
+            final var used = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+            this.peakBytes.accumulateAndGet(used, Math::max);
+        }
+
+    }
+
+}
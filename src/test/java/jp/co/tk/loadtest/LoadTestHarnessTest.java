@@ -0,0 +1,59 @@
+package jp.co.tk.loadtest;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class LoadTestHarnessTest {
+
+    @Test
+    public void モックサーバーから全ての商品と画像を取得できる() throws Exception {
+        try (final var server = new MockAuctionServer()) {
+            server.setProductsPerSeller(12);
+            server.setImagesPerProduct(2);
+            server.setImageBytes(1024);
+            server.setDescriptionLength(100);
+            server.setLatencyMillis(5);
+            server.start(0);
+
+            final var harness = new LoadTestHarness();
+            harness.setSellers(2);
+            harness.setPageSize(5);
+            final var report = harness.run(server);
+
+            assertThat(report.getProducts()).isEqualTo(24);
+            assertThat(report.getImages()).isEqualTo(48);
+            assertThat(server.getProductPages().get()).isEqualTo(24);
+            assertThat(server.getImages().get()).isEqualTo(48);
+            assertThat(report.getP99Millis()).isPositive();
+            assertThat(report.getPeakHeapBytes()).isPositive();
+            assertThat(report.getProductsPerSecond()).isPositive();
+        }
+    }
+
+    @Test
+    public void 注入したエラーを再送して全ての商品を取得できる() throws Exception {
+        try (final var server = new MockAuctionServer()) {
+            server.setProductsPerSeller(10);
+            server.setImagesPerProduct(1);
+            server.setImageBytes(512);
+            server.setDescriptionLength(100);
+            server.setLatencyMillis(1);
+            server.setErrorRate(0.05);
+            server.setThrottleRate(0.05);
+            server.setRetryAfterSeconds(0);
+            server.start(0);
+
+            final var harness = new LoadTestHarness();
+            harness.setSellers(1);
+            harness.setPageSize(5);
+            harness.getExtraArgs().add("--scraping.retry.max-attempts=10");
+            harness.getExtraArgs().add("--scraping.circuit-breaker.enabled=false");
+            final var report = harness.run(server);
+
+            assertThat(report.getProducts()).isEqualTo(10);
+            assertThat(report.getImages()).isEqualTo(10);
+        }
+    }
+
+}
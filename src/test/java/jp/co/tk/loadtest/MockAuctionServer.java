@@ -0,0 +1,404 @@
+package jp.co.tk.loadtest;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ヤフオクの代わりに、出品者ページ、商品ページ、画像を生成して返却するHTTPサーバーです。
+ * <p>
+ * ページは{@code ScrapingProperties.Extraction}の既定のセレクターで抜き出せるマークアップで生成します。
+ * 出品者名に関係なく、どの出品者も設定した数の商品を持ちます。
+ * 遅延はスレッドを占有せずにスケジューラーで待ち、設定した確率で500、429(Retry-After付き)を返却します。
+ * <ul>
+ *     <li>出品者ページ: /seller/{出品者}?sid={出品者}&amp;b={開始位置(1始まり)}&amp;n={件数}</li>
+ *     <li>商品ページ: /jp/auction/{オークションID}</li>
+ *     <li>画像: /img/{オークションID}/i-img{番号}.jpg</li>
+ * </ul>
+ * 単体で起動する場合は、ポートを引数に指定します。
+ * <p>
+ * mvn -Ploadtest test -Dloadtest.main=jp.co.tk.loadtest.MockAuctionServer -Dloadtest.args=18080
+ */
+@Slf4j
+@Getter
+@Setter
+public class MockAuctionServer implements AutoCloseable {
+
+    /**
+     * 出品者ページのパスです。
+     */
+    public static final String SELLER_PATH = "/seller";
+
+    /**
+     * 商品ページのパスです。
+     */
+    public static final String PRODUCT_PATH = "/jp/auction";
+
+    /**
+     * 画像のパスです。
+     */
+    public static final String IMAGE_PATH = "/img";
+
+    /**
+     * JPEGの先頭のバイトです。
+     */
+    private static final byte[] JPEG_MAGIC = {(byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xE0};
+
+    /**
+     * 開始価格が何番目の詳細であるかを表します。{@code ScrapingProperties.ProductPage}の既定値と合わせます。
+     */
+    private static final int STARTING_PRICE_INDEX = 9;
+
+    /**
+     * 出品者1人あたりの商品数です。
+     */
+    private int productsPerSeller = 100;
+
+    /**
+     * 商品1件あたりの画像数です。
+     */
+    private int imagesPerProduct = 3;
+
+    /**
+     * 画像1枚のバイト数です。
+     */
+    private int imageBytes = 20 * 1024;
+
+    /**
+     * 説明文の文字数です。
+     */
+    private int descriptionLength = 2000;
+
+    /**
+     * レスポンスまでの遅延(ミリ秒)です。
+     */
+    private long latencyMillis = 20;
+
+    /**
+     * 遅延に加える、ランダムな時間の上限(ミリ秒)です。
+     */
+    private long latencyJitterMillis = 10;
+
+    /**
+     * 500を返却する確率(0から1)です。
+     */
+    private double errorRate;
+
+    /**
+     * 429を返却する確率(0から1)です。
+     */
+    private double throttleRate;
+
+    /**
+     * 429に付けるRetry-After(秒)です。
+     */
+    private long retryAfterSeconds = 1;
+
+    /**
+     * 受信したリクエスト数です。
+     */
+    private final AtomicLong requests = new AtomicLong();
+
+    /**
+     * 返却した出品者ページの数です。
+     */
+    private final AtomicLong sellerPages = new AtomicLong();
+
+    /**
+     * 返却した商品ページの数です。
+     */
+    private final AtomicLong productPages = new AtomicLong();
+
+    /**
+     * 返却した画像の数です。
+     */
+    private final AtomicLong images = new AtomicLong();
+
+    /**
+     * 返却したエラー(500、429)の数です。
+     */
+    private final AtomicLong injectedErrors = new AtomicLong();
+
+    /**
+     * 受信してからレスポンスを送信するまでのリクエスト数です。
+     */
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    /**
+     * 同時に処理したリクエスト数の最大値です。
+     */
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+
+    /**
+     * HTTPサーバーです。
+     */
+    private HttpServer server;
+
+    /**
+     * 遅延させたレスポンスを送信するスケジューラーです。
+     */
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * 指定のポートで起動します。
+     *
+     * @param port ポート。0の場合は空いているポート
+     * @return このサーバー
+     * @throws IOException
+     */
+    public MockAuctionServer start(final int port) throws IOException {
+        this.scheduler = Executors.newScheduledThreadPool(Math.max(Runtime.getRuntime().availableProcessors(), 2), r -> {
+            final var thread = new Thread(r, "MockAuctionServer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 1024);
+        this.server.createContext(SELLER_PATH, exchange -> handle(exchange, this::sellerPage));
+        this.server.createContext(PRODUCT_PATH, exchange -> handle(exchange, this::productPage));
+        this.server.createContext(IMAGE_PATH, exchange -> handle(exchange, this::image));
+        this.server.setExecutor(this.scheduler);
+        this.server.start();
+        log.info("mock auction server started. baseUrl=".concat(getBaseUrl()));
+        return this;
+    }
+
+    /**
+     * @return ベースURL
+     */
+    public String getBaseUrl() {
+        return "http://127.0.0.1:" + this.server.getAddress().getPort();
+    }
+
+    /**
+     * @return 出品者ページのベースURL
+     */
+    public String getSellerUrl() {
+        return getBaseUrl().concat(SELLER_PATH);
+    }
+
+    /**
+     * @return 商品ページのベースURL
+     */
+    public String getProductUrl() {
+        return getBaseUrl().concat(PRODUCT_PATH);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() {
+        if (this.server != null) {
+            this.server.stop(0);
+        }
+        if (this.scheduler != null) {
+            this.scheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * エラーの注入と遅延を行い、レスポンスを送信します。
+     *
+     * @param exchange リクエスト
+     * @param page     レスポンスを生成する方法
+     */
+    private void handle(final HttpExchange exchange, final PageFactory page) {
+        this.requests.incrementAndGet();
+        this.maxInFlight.accumulateAndGet(this.inFlight.incrementAndGet(), Math::max);
+        final var random = ThreadLocalRandom.current();
+        final var delay = this.latencyMillis + (this.latencyJitterMillis > 0 ? random.nextLong(this.latencyJitterMillis + 1) : 0);
+        this.scheduler.schedule(() -> {
+            try (exchange) {
+                final var dice = random.nextDouble();
+                if (dice < this.errorRate) {
+                    this.injectedErrors.incrementAndGet();
+                    exchange.sendResponseHeaders(500, -1);
+                    return;
+                }
+                if (dice < this.errorRate + this.throttleRate) {
+                    this.injectedErrors.incrementAndGet();
+                    exchange.getResponseHeaders().add("Retry-After", String.valueOf(this.retryAfterSeconds));
+                    exchange.sendResponseHeaders(429, -1);
+                    return;
+                }
+                final var response = page.create(exchange.getRequestURI());
+                if (response == null) {
+                    exchange.sendResponseHeaders(404, -1);
+                    return;
+                }
+                exchange.getResponseHeaders().add("Content-Type", response.contentType);
+                exchange.sendResponseHeaders(200, response.body.length);
+                exchange.getResponseBody().write(response.body);
+            } catch (final IOException e) {
+                log.debug("Catch MockAuctionServer.handle. uri=".concat(exchange.getRequestURI().toString()), e);
+            } finally {
+                this.inFlight.decrementAndGet();
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 出品者ページを生成します。開始位置が無い場合は1ページ目とします。
+     *
+     * @param uri リクエストのURI
+     * @return レスポンス
+     */
+    private Response sellerPage(final URI uri) {
+        final var seller = lastSegment(uri.getPath());
+        final var query = parseQuery(uri.getRawQuery());
+        final var start = Integer.parseInt(query.getOrDefault("b", "1")) - 1;
+        final var limit = Integer.parseInt(query.getOrDefault("n", "50"));
+        final var html = new StringBuilder(4096);
+        html.append("<!DOCTYPE html><html lang=\"ja\"><head><meta charset=\"utf-8\"><title>").append(seller).append("</title></head><body>");
+        html.append("<div class=\"Result\"><div class=\"pu\">").append(this.productsPerSeller).append("件 表示</div><ul>");
+        for (int i = start, end = Math.min(start + limit, this.productsPerSeller); i < end; i++) {
+            final var id = auctionId(seller, i);
+            html.append("<li class=\"Product\"><a href=\"").append(PRODUCT_PATH).append('/').append(id)
+                    .append("\" data-auction-id=\"").append(id)
+                    .append("\" data-auction-category=\"").append(2084000000L + i % 1000)
+                    .append("\">").append(id).append("</a></li>");
+        }
+        html.append("</ul></div></body></html>");
+        this.sellerPages.incrementAndGet();
+        return new Response("text/html; charset=utf-8", html.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 商品ページを生成します。
+     *
+     * @param uri リクエストのURI
+     * @return レスポンス
+     */
+    private Response productPage(final URI uri) {
+        final var id = lastSegment(uri.getPath());
+        final var html = new StringBuilder(this.descriptionLength * 3 + 4096);
+        html.append("<!DOCTYPE html><html lang=\"ja\"><head><meta charset=\"utf-8\"><title>").append(id).append("</title></head><body>");
+        html.append("<div class=\"ProductImage\">");
+        for (int i = 0; i < this.imagesPerProduct; i++) {
+            html.append("<div class=\"ProductImage__image\"><img src=\"").append(IMAGE_PATH).append('/').append(id)
+                    .append("/i-img").append(i).append(".jpg\" alt=\"\"></div>");
+        }
+        html.append("</div>");
+        html.append("<h1 class=\"ProductTitle__text\">商品 ").append(id).append("</h1>");
+        html.append("<div class=\"Price Price--buynow\">即決価格 ").append(5000 + Math.abs(id.hashCode() % 1000)).append("円</div><ul>");
+        for (int i = 0; i <= STARTING_PRICE_INDEX; i++) {
+            html.append("<li><dd class=\"ProductDetail__description\">");
+            html.append(i == STARTING_PRICE_INDEX ? "1,000円" : "詳細" + i);
+            html.append("</dd></li>");
+        }
+        html.append("</ul><div class=\"ProductExplanation__commentArea\">");
+        for (int i = 0; i < this.descriptionLength; i++) {
+            html.append((char) ('あ' + i % 80));
+        }
+        html.append("</div></body></html>");
+        this.productPages.incrementAndGet();
+        return new Response("text/html; charset=utf-8", html.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 画像を生成します。内容はURLごとに異なります。
+     *
+     * @param uri リクエストのURI
+     * @return レスポンス
+     */
+    private Response image(final URI uri) {
+        final var body = new byte[Math.max(this.imageBytes, JPEG_MAGIC.length)];
+        System.arraycopy(JPEG_MAGIC, 0, body, 0, JPEG_MAGIC.length);
+        final var seed = uri.getPath().hashCode();
+        for (int i = JPEG_MAGIC.length; i < body.length; i++) {
+            body[i] = (byte) (seed * 31 + i);
+        }
+        this.images.incrementAndGet();
+        return new Response("image/jpeg", body);
+    }
+
+    /**
+     * 出品者と番号からオークションIDを生成します。
+     *
+     * @param seller 出品者
+     * @param index  番号
+     * @return オークションID
+     */
+    static String auctionId(final String seller, final int index) {
+        return "m" + Integer.toHexString(seller.hashCode()) + "x" + index;
+    }
+
+    private static String lastSegment(final String path) {
+        return path.substring(path.lastIndexOf('/') + 1);
+    }
+
+    private static Map<String, String> parseQuery(final String query) {
+        final var params = new HashMap<String, String>();
+        if (query == null) {
+            return params;
+        }
+        for (final var pair : query.split("&")) {
+            final var index = pair.indexOf('=');
+            if (index > 0) {
+                params.put(pair.substring(0, index), pair.substring(index + 1));
+            }
+        }
+        return params;
+    }
+
+    /**
+     * 単体で起動し、終了するまで待機します。
+     *
+     * @param args ポート
+     * @throws Exception
+     */
+    public static void main(final String[] args) throws Exception {
+        final var port = args.length == 0 ? 18080 : Integer.parseInt(args[0]);
+        final var server = new MockAuctionServer().start(port);
+        Runtime.getRuntime().addShutdownHook(new Thread(server::close));
+        System.out.println("scraping.endpoint.seller-url=" + server.getSellerUrl());
+        System.out.println("scraping.endpoint.product-url=" + server.getProductUrl());
+        Thread.currentThread().join();
+    }
+
+    /**
+     * URIからレスポンスを生成する方法です。
+     */
+    @FunctionalInterface
+    private interface PageFactory {
+
+        /**
+         * @param uri リクエストのURI
+         * @return レスポンス。存在しない場合はnull
+         */
+        Response create(URI uri);
+
+    }
+
+    /**
+     * 生成したレスポンスです。
+     */
+    private static final class Response {
+
+        private final String contentType;
+
+        private final byte[] body;
+
+        private Response(final String contentType, final byte[] body) {
+            this.contentType = contentType;
+            this.body = body;
+        }
+
+    }
+
+}